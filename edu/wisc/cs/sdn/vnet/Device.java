@@ -1,9 +1,11 @@
 package edu.wisc.cs.sdn.vnet;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.floodlightcontroller.packet.DecodeDepth;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
 
@@ -25,6 +27,10 @@ public abstract class Device
 	/** Virtual Network Simulator communication manager for the device */
 	private VNSComm vnsComm;
 	
+	/** Layers of a received frame decoded before it is handled; deeper 
+	 *  layers are decoded when first accessed */
+	private DecodeDepth decodeDepth;
+	
 	/**
 	 * Creates a device.
 	 * @param host hostname for the device
@@ -34,8 +40,9 @@ public abstract class Device
 	{
 		this.host = host;
 		this.logfile = logfile;
-		this.interfaces = new HashMap<String,Iface>();
+		this.interfaces = new ConcurrentHashMap<String,Iface>();
 		this.vnsComm = null;
+		this.decodeDepth = DecodeDepth.FULL;
 	}
 	
 	/**
@@ -52,6 +59,26 @@ public abstract class Device
 	public DumpFile getLogFile()
 	{ return this.logfile; }
 	
+	/**
+	 * @return layers of a received frame decoded before it is handled
+	 */
+	public DecodeDepth getDecodeDepth()
+	{ return this.decodeDepth; }
+	
+	/**
+	 * @param decodeDepth layers of a received frame to decode before it is
+	 * 		  handled; deeper layers are decoded when first accessed
+	 */
+	public void setDecodeDepth(DecodeDepth decodeDepth)
+	{ this.decodeDepth = decodeDepth; }
+	
+	/**
+	 * @return true if the device can handle frames on several threads at 
+	 *         once; frames of the same flow are still handled in order
+	 */
+	public boolean isConcurrent()
+	{ return false; }
+	
 	/**
 	 * @return hostname for the device
 	 */
@@ -110,5 +137,48 @@ public abstract class Device
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
 	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
 	
+	/**
+	 * Send an already serialized Ethernet frame out a specific interface.
+	 * @param frame a serialized Ethernet frame
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendFrame(byte[] frame, Iface iface)
+	{ return this.vnsComm.sendFrame(frame, iface.getName()); }
+	
+	/**
+	 * Send an Ethernet frame out a specific interface directly from the
+	 * buffer holding it, without copying it.
+	 * @param frame view of the frame; for a received frame, the bytes in front
+	 * 		  of it are overwritten
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendFrame(EthernetView frame, Iface iface)
+	{
+		return this.vnsComm.sendFrame(frame.getBuffer(), frame.getOffset(),
+				frame.getLength(), iface.getName());
+	}
+	
+	/**
+	 * Handle an Ethernet frame received on a specific interface, without
+	 * deserializing it. Devices that can make forwarding decisions from the
+	 * frame's headers override this; by default the frame is deserialized and
+	 * passed to {@link #handlePacket(Ethernet, Iface)}.
+	 * @param frame view of the frame that was received; only valid until this
+	 * 		  method returns
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void handleFrame(EthernetView frame, Iface inIface)
+	{ this.handlePacket(frame.materialize(this.decodeDepth), inIface); }
+	
+	/**
+	 * Handle an Ethernet packet received on a specific interface. The packet
+	 * and its payloads come from a {@link net.floodlightcontroller.packet.PacketPool}
+	 * and are released for reuse when this method returns; call 
+	 * {@link Ethernet#retain()} to keep any of them longer.
+	 * @param etherPacket the Ethernet packet that was received
+	 * @param inIface the interface on which the packet was received
+	 */
 	public abstract void handlePacket(Ethernet etherPacket, Iface inIface);
 }
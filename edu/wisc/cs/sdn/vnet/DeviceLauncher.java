@@ -0,0 +1,180 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hosts every device in a topology in one process. Each device gets its own
+ * {@link edu.wisc.cs.sdn.vnet.vns.VNSComm} and runs on its own thread: a 
+ * virtual thread where the JVM supports them, otherwise a platform thread 
+ * with a small stack. Structures that don't change, such as the protocol 
+ * registry packets are decoded with, are shared by all the devices. A 
+ * device that fails to set up, e.g. because one of its files doesn't load,
+ * is reported without stopping the others.
+ * <p>
+ * Helper threads are still platform threads: each switch's egress sender,
+ * a mirror thread for a switch with mirror sessions, and one thread 
+ * expiring the entries of every switch's tables. Pipeline and egress queue
+ * options add their threads to every device they are given to.
+ */
+public class DeviceLauncher
+{
+	/** Options every device gets unless its line or the command line 
+	 *  overrides them: buffers sized for many devices per process */
+	private static final String[] DEVICE_DEFAULTS = 
+			{ "-e", "32768", "-b", "16384" };
+	
+	/** Stack size of platform threads devices run on */
+	private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+	
+	/** Builder of virtual threads; null if the JVM doesn't have them */
+	private static final Object virtualThreadBuilder;
+	
+	/** Starts a thread from a builder; null if there are no virtual threads */
+	private static final Method builderStart;
+	
+	static
+	{
+		Object builder = null;
+		Method start = null;
+		try
+		{
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			start = Class.forName("java.lang.Thread$Builder").getMethod(
+					"start", Runnable.class);
+		}
+		catch (ReflectiveOperationException e)
+		{ builder = null; start = null; }
+		virtualThreadBuilder = builder;
+		builderStart = start;
+	}
+	
+	/**
+	 * Start every device listed in a topology file and wait for them all to 
+	 * finish. Each line of the file names a device followed by its options, 
+	 * as they would be given to {@link Main}, e.g. 
+	 * <code>r1 -r rtable.r1 -a arp_cache</code>. Blank lines and lines 
+	 * starting with # are ignored.
+	 * @param filename name of the topology file
+	 * @param common options for every device, e.g. the server to connect to;
+	 *        a device's own options take precedence
+	 * @return false if the topology file could not be read or a device 
+	 *         could not be set up, otherwise true
+	 */
+	public static boolean launch(String filename, String[] common)
+	{
+		List<String[]> devices = load(filename);
+		if (null == devices)
+		{ return false; }
+		
+		System.out.println(String.format("Starting %d devices on %s threads",
+				devices.size(), (virtualThreadBuilder != null) ? "virtual" 
+				: "platform"));
+		
+		final boolean[] ok = new boolean[devices.size()];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < devices.size(); i++)
+		{
+			final int index = i;
+			String[] line = devices.get(i);
+			final String[] args = new String[DEVICE_DEFAULTS.length 
+					+ common.length + line.length + 1];
+			System.arraycopy(DEVICE_DEFAULTS, 0, args, 0, 
+					DEVICE_DEFAULTS.length);
+			System.arraycopy(common, 0, args, DEVICE_DEFAULTS.length, 
+					common.length);
+			args[DEVICE_DEFAULTS.length + common.length] = "-v";
+			System.arraycopy(line, 0, args, 
+					DEVICE_DEFAULTS.length + common.length + 1, line.length);
+			
+			threads.add(start(line[0], new Runnable() {
+				public void run()
+				{ ok[index] = Main.run(args); }
+			}));
+		}
+		
+		boolean result = true;
+		for (int i = 0; i < threads.size(); i++)
+		{
+			try
+			{ threads.get(i).join(); }
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if (!ok[i])
+			{
+				System.err.println("Device " + devices.get(i)[0] + " failed");
+				result = false;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Read the devices in a topology file.
+	 * @param filename name of the topology file
+	 * @return each device's name followed by its options; null if the file 
+	 *         could not be read
+	 */
+	private static List<String[]> load(String filename)
+	{
+		List<String[]> devices = new ArrayList<String[]>();
+		BufferedReader reader;
+		try 
+		{ reader = new BufferedReader(new FileReader(filename)); }
+		catch (FileNotFoundException e) 
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+		
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+				{ continue; }
+				devices.add(line.split("\\s+"));
+			}
+		}
+		catch (IOException e) 
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+		finally
+		{
+			try { reader.close(); } catch (IOException f) {};
+		}
+		return devices;
+	}
+	
+	/**
+	 * Start a thread for a device.
+	 * @param name name of the device
+	 * @param task runs the device
+	 * @return the started thread
+	 */
+	private static Thread start(String name, Runnable task)
+	{
+		if (virtualThreadBuilder != null)
+		{
+			try
+			{ return (Thread)builderStart.invoke(virtualThreadBuilder, task); }
+			catch (ReflectiveOperationException e)
+			{ System.err.println("Cannot start virtual thread: " + e); }
+		}
+		Thread thread = new Thread(null, task, name, PLATFORM_STACK_SIZE);
+		thread.start();
+		return thread;
+	}
+}
@@ -4,6 +4,7 @@ import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import net.floodlightcontroller.packet.Ethernet;
 
@@ -20,6 +21,9 @@ public class DumpFile
 	private FileOutputStream fileStream;
 	DataOutputStream outStream;
 	
+	/** Buffer packets are encoded into before being written */
+	private ByteBuffer encodeBuffer = ByteBuffer.allocate(2048);
+	
 	private DumpFile(FileOutputStream fileStream)
 	{
 		this.fileStream = fileStream;
@@ -75,19 +79,44 @@ public class DumpFile
 
 	}
 	
-	public void dump(Ethernet etherPacket)
+	public synchronized void dump(Ethernet etherPacket)
+	{
+		int length = etherPacket.serializedLength();
+		if (this.encodeBuffer.capacity() < length)
+		{ this.encodeBuffer = ByteBuffer.allocate(length); }
+		this.encodeBuffer.clear();
+		etherPacket.serialize(this.encodeBuffer);
+		this.dump(this.encodeBuffer.array(), 0, length);
+	}
+	
+	public void dump(byte[] buf)
+	{ this.dump(buf, 0, buf.length); }
+	
+	public void dump(ByteBuffer buf, int offset, int length)
+	{
+		if (buf.hasArray())
+		{ this.dump(buf.array(), buf.arrayOffset() + offset, length); }
+		else
+		{
+			byte[] data = new byte[length];
+			ByteBuffer dup = buf.duplicate();
+			dup.limit(offset + length).position(offset);
+			dup.get(data);
+			this.dump(data, 0, length);
+		}
+	}
+	
+	public synchronized void dump(byte[] buf, int offset, int length)
 	{
-		byte[] buf = etherPacket.serialize();
-		
 		int sec = (int)(System.currentTimeMillis()/1000);
 		int usec = (int)((System.currentTimeMillis() % 1000)*1000);
 		try
 		{
 			this.outStream.writeInt(sec);
 			this.outStream.writeInt(usec);
-			this.outStream.writeInt(buf.length);
-			this.outStream.writeInt(buf.length);
-			this.outStream.write(buf);
+			this.outStream.writeInt(length);
+			this.outStream.writeInt(length);
+			this.outStream.write(buf, offset, length);
 			this.outStream.flush();
 		}
 		catch (IOException e)
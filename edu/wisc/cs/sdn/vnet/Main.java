@@ -1,24 +1,96 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import edu.wisc.cs.sdn.vnet.rt.RouteEntry;
 import edu.wisc.cs.sdn.vnet.rt.RouteTable;
 import edu.wisc.cs.sdn.vnet.rt.Router;
 import edu.wisc.cs.sdn.vnet.sw.Switch;
 import edu.wisc.cs.sdn.vnet.vns.Command;
+import edu.wisc.cs.sdn.vnet.vns.DropPolicy;
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
+import edu.wisc.cs.sdn.vnet.vns.VNSServer;
+import edu.wisc.cs.sdn.vnet.vns.WaitStrategy;
 
 public class Main 
 {
 	private static final short DEFAULT_PORT = 8888;
 	private static final String DEFAULT_SERVER = "localhost";
+	private static final int DEFAULT_QUEUE_SLOTS = 1024;
 	
 	public static void main(String[] args)
+	{
+		// Options for the whole process; the rest are for the devices
+		String topologyFile = null;
+		String serverFile = null;
+		int maxFrameLength = 0;
+		List<String> deviceArgs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-t") && i + 1 < args.length)
+			{ topologyFile = args[++i]; }
+			else if (args[i].equals("-x") && i + 1 < args.length)
+			{ serverFile = args[++i]; }
+			else
+			{
+				// Frames as large as the devices accept must reach them
+				if (args[i].equals("-j") && i + 1 < args.length)
+				{ maxFrameLength = Integer.parseInt(args[i + 1]); }
+				deviceArgs.add(args[i]);
+			}
+		}
+		
+		// Run the server in this process, connected to devices through memory
+		if (serverFile != null)
+		{
+			VNSServer server = VNSServer.startLocal(serverFile);
+			if (null == server)
+			{ System.exit(1); }
+			if (maxFrameLength > 0)
+			{ server.setMaxFrameLength(maxFrameLength); }
+			deviceArgs.add(0, "-s");
+			deviceArgs.add(1, VNSServer.LOCAL);
+		}
+		String[] common = deviceArgs.toArray(new String[deviceArgs.size()]);
+		
+		// Host every device in a topology file in this JVM
+		if (topologyFile != null)
+		{
+			if (!DeviceLauncher.launch(topologyFile, common))
+			{ System.exit(1); }
+			return;
+		}
+		
+		if (!run(common))
+		{ System.exit(1); }
+	}
+	
+	/**
+	 * Create a device, connect it to the server and handle its packets until
+	 * the server closes the connection.
+	 * @param args command line options for the device
+	 * @return false if the device could not be set up, otherwise true
+	 */
+	static boolean run(String[] args)
 	{
 		String host = null;
 		String server = DEFAULT_SERVER;
 		String routeTableFile = null;
 		String arpCacheFile = null;
+		String lagFile = null;
+		String mirrorFile = null;
+		String flowFile = null;
 		String logfile = null;
+		int maxFrameLength = 0;
+		int recvBufferSize = 0;
+		int sendBufferSize = -1;
+		long maxFlushDelay = 0;
+		WaitStrategy waitStrategy = null;
+		int queueSlots = DEFAULT_QUEUE_SLOTS;
+		int workerCount = 1;
+		int egressQueueLength = 0;
+		DropPolicy dropPolicy = DropPolicy.TAIL_DROP;
 		short port = DEFAULT_PORT;
 		VNSComm vnsComm = null;
 		Device dev = null;
@@ -30,7 +102,7 @@ public class Main
 			if (arg.equals("-h"))
 			{
 				usage();
-				return;
+				return true;
 			}
 			else if(arg.equals("-p"))
 			{ port = Short.parseShort(args[++i]); }
@@ -44,12 +116,40 @@ public class Main
 			{ routeTableFile = args[++i]; }
 			else if (arg.equals("-a"))
 			{ arpCacheFile = args[++i]; }
+			else if (arg.equals("-g"))
+			{ lagFile = args[++i]; }
+			else if (arg.equals("-m"))
+			{ mirrorFile = args[++i]; }
+			else if (arg.equals("-f"))
+			{ flowFile = args[++i]; }
+			else if (arg.equals("-j"))
+			{ maxFrameLength = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-b"))
+			{ sendBufferSize = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-e"))
+			{ recvBufferSize = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-d"))
+			{ maxFlushDelay = Long.parseLong(args[++i]); }
+			else if (arg.equals("-w"))
+			{ waitStrategy = WaitStrategy.parse(args[++i]); }
+			else if (arg.equals("-q"))
+			{ queueSlots = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-n"))
+			{ workerCount = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-Q"))
+			{ egressQueueLength = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-D"))
+			{ dropPolicy = DropPolicy.parse(args[++i]); }
 		}
 		
+		// Several workers only run in the pipeline
+		if (workerCount > 1 && null == waitStrategy)
+		{ waitStrategy = WaitStrategy.PARK; }
+		
 		if (null == host)
 		{
 			usage();
-			return;
+			return false;
 		}
 		
 		// Open PCAP dump file for logging packets sent/received by the router
@@ -60,7 +160,7 @@ public class Main
 			if (null == dump)
 			{
 				System.err.println("Error opening up dump file "+logfile);
-				return;
+				return false;
 			}
 		}
 		
@@ -74,34 +174,83 @@ public class Main
 		else 
 		{
 			System.err.println("Device name must start with 's' or 'r'");
-			return;
+			return false;
 		}
 		
 		// Connect to Virtual Network Simulator server and negotiate session
 		System.out.println(String.format("Connecting to server %s:%d", 
 				server, port));
 		vnsComm = new VNSComm(dev);
+		if (recvBufferSize > 0)
+		{ vnsComm.setReceiveBufferSize(recvBufferSize); }
+		if (maxFrameLength > 0)
+		{ vnsComm.setMaxFrameLength(maxFrameLength); }
+		if (sendBufferSize >= 0)
+		{ vnsComm.setCoalesceBufferSize(sendBufferSize); }
+		if (maxFlushDelay > 0)
+		{ vnsComm.setMaxFlushDelay(maxFlushDelay); }
 		if (!vnsComm.connectToServer(port, server))
-		{ System.exit(1); }
+		{
+			dev.destroy();
+			return false;
+		}
 		vnsComm.readFromServerExpect(Command.VNS_HW_INFO);	
 		
+		// A file that fails to load fails only this device, not every 
+		// device hosted in the process
+		boolean loaded = true;
 		if (dev instanceof Router) 
 		{
 			// Read static route table
 			if (routeTableFile != null)
-			{ ((Router)dev).loadRouteTable(routeTableFile); }
+			{ loaded = ((Router)dev).loadRouteTable(routeTableFile); }
 			
 			// Read static ACP cache
-			if (arpCacheFile != null)
-			{ ((Router)dev).loadArpCache(arpCacheFile); }
+			if (loaded && arpCacheFile != null)
+			{ loaded = ((Router)dev).loadArpCache(arpCacheFile); }
+		}
+		else if (dev instanceof Switch)
+		{
+			// Read link aggregation groups
+			if (lagFile != null)
+			{ loaded = ((Switch)dev).loadLagTable(lagFile); }
+			
+			// Read port mirroring sessions
+			if (loaded && mirrorFile != null)
+			{ loaded = ((Switch)dev).loadMirrorSessions(mirrorFile); }
+			
+			// Read flow table
+			if (loaded && flowFile != null)
+			{ loaded = ((Switch)dev).loadFlowTable(flowFile); }
+		}
+		if (!loaded)
+		{
+			vnsComm.disconnect();
+			dev.destroy();
+			return false;
 		}
 
 		// Read messages from the server until the server closes the connection
+		if (egressQueueLength > 0)
+		{ vnsComm.startEgressQueues(egressQueueLength, dropPolicy); }
+		if (waitStrategy != null)
+		{ vnsComm.startPipeline(queueSlots, waitStrategy, workerCount); }
 		System.out.println("<-- Ready to process packets -->");
 		while (vnsComm.readFromServer());
+		if (waitStrategy != null)
+		{
+			vnsComm.stopPipeline();
+			System.out.println("Queue depths: " + vnsComm.getQueueDepths());
+		}
+		if (egressQueueLength > 0)
+		{
+			vnsComm.stopEgressQueues();
+			System.out.println("Egress queues: " + vnsComm.getEgressStats());
+		}
 		
 		// Shutdown the router
 		dev.destroy();
+		return true;
 	}
 	
 	static void usage()
@@ -109,7 +258,21 @@ public class Main
 		System.out.println("Virtual Network Client");
 		System.out.println("VNet -v host [-s server] [-p port] [-h]");
 		System.out.println("     [-r routing_table] [-a arp_cache] [-l log_file]");
+		System.out.println("     [-g lag_file] [-m mirror_file] [-f flow_file]");
+		System.out.println("     [-j max_frame_length] [-e recv_buffer_bytes]");
+		System.out.println("     [-b send_buffer_bytes]");
+		System.out.println("     [-d max_flush_delay_us] [-w spin|yield|park]");
+		System.out.println("     [-q queue_slots] [-n workers]");
+		System.out.println("     [-Q egress_queue_packets] [-D tail|head]");
+		System.out.println("VNet -t topology_file [-x server_topology_file]");
+		System.out.println("     [options for every device]");
 		System.out.println(String.format("  defaults server=%s port=%d", 
 				DEFAULT_SERVER, DEFAULT_PORT));
+		System.out.println(String.format(
+				"  server %s connects through memory, %sdir through shared memory,",
+				VNSServer.LOCAL, VNSServer.SHARED_MEMORY_PREFIX));
+		System.out.println(String.format(
+				"  %spath through a Unix domain socket", 
+				VNSServer.UNIX_SOCKET_PREFIX));
 	}
 }
@@ -0,0 +1,286 @@
+package edu.wisc.cs.sdn.vnet.bench;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+import net.floodlightcontroller.packet.Checksum;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.ICMP;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+/**
+ * The traffic a {@link TrafficGenerator} offers: a number of flows, each 
+ * with its own protocol and source port, picked with Zipf popularity, and
+ * a mix of frame sizes. Every frame is built once per flow and size with 
+ * the packet codecs; sending a frame only copies it and stamps it.
+ * <p>
+ * A stamp, written at the start of the transport payload, holds a magic 
+ * number, a sequence number and the time the frame was sent. The transport
+ * checksum is updated for the stamp, so frames stay valid end to end.
+ */
+public class FlowProfile
+{
+	/** Identifies stamped frames */
+	public static final int STAMP_MAGIC = 0x564e4554;
+	
+	/** Length of a stamp: magic, sequence number and send time */
+	public static final int STAMP_LENGTH = 4 + 4 + 8;
+	
+	/** Destination port of UDP and TCP flows */
+	private static final short DESTINATION_PORT = 9;
+	
+	/** First source port; flow i uses FIRST_SOURCE_PORT + i */
+	private static final int FIRST_SOURCE_PORT = 1024;
+	
+	/** Frames by flow and size, with a zero stamp */
+	private byte[][][] templates;
+	
+	/** Offset of the stamp in each flow's frames */
+	private int[] stampOffsets;
+	
+	/** Offset of the transport checksum in each flow's frames */
+	private int[] checksumOffsets;
+	
+	/** Cumulative popularity of the flows, in flow order */
+	private double[] popularity;
+	
+	/** Frame sizes, including the Ethernet header */
+	private int[] sizes;
+	
+	/** Protocol of each flow */
+	private byte[] protocols;
+	
+	/** Exponent of the flows' Zipf popularity */
+	private double zipf;
+	
+	/** Picks flows and sizes */
+	private SplittableRandom random;
+	
+	/**
+	 * Creates a profile.
+	 * @param flows number of flows
+	 * @param zipf exponent of the flows' Zipf popularity; 0 for uniform
+	 * @param sizes frame sizes, including the Ethernet header; raised to the
+	 *        smallest frame that holds a stamp
+	 * @param protocols protocols the flows use, assigned round robin
+	 * @param srcMac source MAC address of every frame
+	 * @param dstMac destination MAC address of every frame
+	 * @param srcIp source IP address of every frame
+	 * @param dstIp destination IP address of every frame
+	 * @param seed seed for picking flows and sizes
+	 */
+	public FlowProfile(int flows, double zipf, int[] sizes, byte[] protocols,
+			MACAddress srcMac, MACAddress dstMac, int srcIp, int dstIp, 
+			long seed)
+	{
+		this.zipf = zipf;
+		this.sizes = sizes.clone();
+		this.protocols = new byte[flows];
+		this.templates = new byte[flows][sizes.length][];
+		this.stampOffsets = new int[flows];
+		this.checksumOffsets = new int[flows];
+		this.random = new SplittableRandom(seed);
+		
+		// Every frame size must hold a stamp, whatever the flow's protocol
+		int minSize = 0;
+		for (byte protocol : protocols)
+		{ 
+			minSize = Math.max(minSize, 14 + 20 
+					+ transportHeaderLength(protocol) + STAMP_LENGTH);
+		}
+		for (int s = 0; s < sizes.length; s++)
+		{ this.sizes[s] = Math.max(sizes[s], minSize); }
+		
+		for (int flow = 0; flow < flows; flow++)
+		{
+			byte protocol = protocols[flow % protocols.length];
+			this.protocols[flow] = protocol;
+			int transportHeader = transportHeaderLength(protocol);
+			int l4 = 14 + 20;
+			this.stampOffsets[flow] = l4 + transportHeader;
+			this.checksumOffsets[flow] = l4 + checksumOffset(protocol);
+			for (int s = 0; s < sizes.length; s++)
+			{
+				this.templates[flow][s] = buildFrame(flow, protocol, 
+						this.sizes[s] - l4 - transportHeader, srcMac, dstMac,
+						srcIp, dstIp);
+			}
+		}
+		
+		this.popularity = new double[flows];
+		double total = 0;
+		for (int flow = 0; flow < flows; flow++)
+		{
+			total += 1.0 / Math.pow(flow + 1, zipf);
+			this.popularity[flow] = total;
+		}
+		for (int flow = 0; flow < flows; flow++)
+		{ this.popularity[flow] /= total; }
+	}
+	
+	/**
+	 * @return number of flows
+	 */
+	public int getFlowCount()
+	{ return this.protocols.length; }
+	
+	/**
+	 * @return exponent of the flows' Zipf popularity
+	 */
+	public double getZipf()
+	{ return this.zipf; }
+	
+	/**
+	 * @return frame sizes, including the Ethernet header
+	 */
+	public int[] getSizes()
+	{ return this.sizes.clone(); }
+	
+	/**
+	 * @return largest frame size
+	 */
+	public int getMaxSize()
+	{
+		int max = 0;
+		for (int size : this.sizes)
+		{ max = Math.max(max, size); }
+		return max;
+	}
+	
+	/**
+	 * Put the next frame into a buffer and stamp it with the current time.
+	 * @param buf buffer to put the frame in; cleared first, and flipped so
+	 *        the frame lies between position and limit
+	 * @param seq sequence number of the frame
+	 */
+	public void nextFrame(ByteBuffer buf, int seq)
+	{
+		int flow = this.pickFlow();
+		byte[] template = this.templates[flow][
+				this.random.nextInt(this.sizes.length)];
+		buf.clear();
+		buf.put(template);
+		buf.flip();
+		
+		int stamp = this.stampOffsets[flow];
+		int checksumOffset = this.checksumOffsets[flow];
+		long now = System.nanoTime();
+		short checksum = buf.getShort(checksumOffset);
+		checksum = Checksum.update(checksum, 0, STAMP_MAGIC);
+		checksum = Checksum.update(checksum, 0, seq);
+		checksum = Checksum.update(checksum, 0, (int)(now >>> 32));
+		checksum = Checksum.update(checksum, 0, (int)now);
+		buf.putInt(stamp, STAMP_MAGIC);
+		buf.putInt(stamp + 4, seq);
+		buf.putLong(stamp + 8, now);
+		buf.putShort(checksumOffset, checksum);
+	}
+	
+	private int pickFlow()
+	{
+		double r = this.random.nextDouble();
+		int low = 0, high = this.popularity.length - 1;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (this.popularity[mid] < r)
+			{ low = mid + 1; }
+			else
+			{ high = mid; }
+		}
+		return low;
+	}
+	
+	/**
+	 * Find the stamp in a frame.
+	 * @param frame buffer holding the frame between position and limit
+	 * @return offset of the stamp in the buffer; -1 if the frame is not 
+	 *         stamped
+	 */
+	public static int findStamp(ByteBuffer frame)
+	{
+		int start = frame.position();
+		int length = frame.remaining();
+		if (length < 14 + 20 || frame.getShort(start + 12) != Ethernet.TYPE_IPv4)
+		{ return -1; }
+		int l4 = start + 14 + (frame.get(start + 14) & 0xf) * 4;
+		byte protocol = frame.get(start + 14 + 9);
+		int transportHeader;
+		if (protocol == IPv4.PROTOCOL_TCP)
+		{
+			if (l4 + 13 > start + length)
+			{ return -1; }
+			transportHeader = ((frame.get(l4 + 12) >> 4) & 0xf) * 4;
+		}
+		else if (protocol == IPv4.PROTOCOL_UDP 
+				|| protocol == IPv4.PROTOCOL_ICMP)
+		{ transportHeader = 8; }
+		else
+		{ return -1; }
+		int stamp = l4 + transportHeader;
+		if (stamp + STAMP_LENGTH > start + length 
+				|| frame.getInt(stamp) != STAMP_MAGIC)
+		{ return -1; }
+		return stamp;
+	}
+	
+	private static int transportHeaderLength(byte protocol)
+	{ return (protocol == IPv4.PROTOCOL_TCP) ? 20 : 8; }
+	
+	private static int checksumOffset(byte protocol)
+	{
+		if (protocol == IPv4.PROTOCOL_TCP)
+		{ return 16; }
+		if (protocol == IPv4.PROTOCOL_UDP)
+		{ return 6; }
+		return 2;
+	}
+	
+	private static byte[] buildFrame(int flow, byte protocol, 
+			int payloadLength, MACAddress srcMac, MACAddress dstMac, 
+			int srcIp, int dstIp)
+	{
+		Data data = new Data(new byte[payloadLength]);
+		short srcPort = (short)(FIRST_SOURCE_PORT + flow);
+		IPacket transport;
+		if (protocol == IPv4.PROTOCOL_TCP)
+		{
+			transport = new TCP().setSourcePort(srcPort)
+					.setDestinationPort(DESTINATION_PORT)
+					.setFlags((short)0x10).setWindowSize((short)65535)
+					.setPayload(data);
+		}
+		else if (protocol == IPv4.PROTOCOL_UDP)
+		{
+			transport = new UDP().setSourcePort(srcPort)
+					.setDestinationPort(DESTINATION_PORT).setPayload(data);
+		}
+		else
+		{
+			// Echo requests: identifier and sequence number, then the stamp
+			byte[] echo = new byte[4 + payloadLength];
+			ByteBuffer.wrap(echo).putShort((short)flow);
+			transport = new ICMP().setIcmpType((byte)8).setIcmpCode((byte)0)
+					.setPayload(new Data(echo));
+		}
+		
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setProtocol(protocol);
+		ip.setSourceAddress(srcIp);
+		ip.setDestinationAddress(dstIp);
+		ip.setPayload(transport);
+		
+		Ethernet ether = new Ethernet();
+		ether.setSourceMAC(srcMac);
+		ether.setDestinationMAC(dstMac);
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		ether.setPayload(ip);
+		return ether.serialize();
+	}
+}
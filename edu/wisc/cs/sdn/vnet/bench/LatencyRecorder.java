@@ -0,0 +1,157 @@
+package edu.wisc.cs.sdn.vnet.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import edu.wisc.cs.sdn.vnet.vns.FrameListener;
+
+/**
+ * Records stamped frames leaving a topology: how many arrived, how many 
+ * bytes they carried, and how long each took from being stamped.
+ */
+public class LatencyRecorder implements FrameListener
+{
+	/** Device frames are recorded from; null for any device */
+	private final String host;
+	
+	/** Interface frames are recorded from; null for any interface */
+	private final String iface;
+	
+	/** Latency of each frame recorded, in nanoseconds */
+	private long[] latencies;
+	
+	/** Number of frames recorded */
+	private int count;
+	
+	/** Number of bytes in the frames recorded */
+	private long bytes;
+	
+	/** Frames seen that were not stamped or not recorded */
+	private long ignored;
+	
+	/** When the last frame was recorded, from System.nanoTime */
+	private long lastNanos;
+	
+	/** False while frames are only counted, e.g. during warm up */
+	private boolean recording;
+	
+	/**
+	 * Creates a recorder.
+	 * @param host device frames are recorded from; null for any device
+	 * @param iface interface frames are recorded from; null for any 
+	 *        interface
+	 * @param capacity most frame latencies kept
+	 */
+	public LatencyRecorder(String host, String iface, int capacity)
+	{
+		this.host = host;
+		this.iface = iface;
+		this.latencies = new long[capacity];
+	}
+	
+	public synchronized void frameSent(String host, String iface, 
+			ByteBuffer frame)
+	{
+		long now = System.nanoTime();
+		if ((this.host != null && !this.host.equals(host))
+				|| (this.iface != null && !this.iface.equals(iface)))
+		{
+			this.ignored++;
+			return;
+		}
+		int stamp = FlowProfile.findStamp(frame);
+		if (stamp < 0)
+		{
+			this.ignored++;
+			return;
+		}
+		
+		if (this.count < this.latencies.length && this.recording)
+		{ this.latencies[this.count] = now - frame.getLong(stamp + 8); }
+		this.count++;
+		this.bytes += frame.remaining();
+		this.lastNanos = now;
+		this.notifyAll();
+	}
+	
+	/**
+	 * Forget everything recorded so far, and record latencies from now on.
+	 */
+	public synchronized void start()
+	{
+		this.count = 0;
+		this.bytes = 0;
+		this.ignored = 0;
+		this.recording = true;
+	}
+	
+	/**
+	 * @return number of frames recorded
+	 */
+	public synchronized int getCount()
+	{ return this.count; }
+	
+	/**
+	 * @return number of bytes in the frames recorded
+	 */
+	public synchronized long getBytes()
+	{ return this.bytes; }
+	
+	/**
+	 * @return frames seen that were not stamped or not from the recorded 
+	 *         interface
+	 */
+	public synchronized long getIgnored()
+	{ return this.ignored; }
+	
+	/**
+	 * @return when the last frame was recorded, from System.nanoTime
+	 */
+	public synchronized long getLastNanos()
+	{ return this.lastNanos; }
+	
+	/**
+	 * Wait until a number of frames have been recorded, or no frame has 
+	 * arrived for a while.
+	 * @param expected number of frames to wait for
+	 * @param idleMillis how long to wait for the next frame
+	 * @return number of frames recorded
+	 */
+	public synchronized int await(int expected, long idleMillis)
+			throws InterruptedException
+	{
+		while (this.count < expected)
+		{
+			int before = this.count;
+			this.wait(idleMillis);
+			if (this.count == before)
+			{ break; }
+		}
+		return this.count;
+	}
+	
+	/**
+	 * @return latency percentiles in microseconds, as a JSON object
+	 */
+	public synchronized String latencyJson()
+	{
+		int n = Math.min(this.count, this.latencies.length);
+		if (0 == n)
+		{ return "{}"; }
+		long[] sorted = Arrays.copyOf(this.latencies, n);
+		Arrays.sort(sorted);
+		return String.format("{\"samples\": %d, \"min\": %.1f, "
+				+ "\"p50\": %.1f, \"p90\": %.1f, \"p99\": %.1f, "
+				+ "\"p999\": %.1f, \"max\": %.1f}", n, 
+				sorted[0] / 1000.0, percentile(sorted, 0.50), 
+				percentile(sorted, 0.90), percentile(sorted, 0.99), 
+				percentile(sorted, 0.999), sorted[n - 1] / 1000.0);
+	}
+	
+	private static double percentile(long[] sorted, double fraction)
+	{
+		int index = (int)Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] 
+				/ 1000.0;
+	}
+}
@@ -0,0 +1,440 @@
+package edu.wisc.cs.sdn.vnet.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.DeviceLauncher;
+import edu.wisc.cs.sdn.vnet.vns.CommandPacket;
+import edu.wisc.cs.sdn.vnet.vns.VNSComm;
+import edu.wisc.cs.sdn.vnet.vns.VNSServer;
+
+/**
+ * Measures how fast devices forward. Runs a topology in this process, 
+ * connected to a local {@link VNSServer} through memory, shared memory, a
+ * Unix domain socket or TCP, so the transports can be compared; injects 
+ * stamped frames from a {@link FlowProfile} into one interface, records 
+ * them leaving the topology with a {@link LatencyRecorder}, and reports 
+ * packets and bits per second and latency percentiles as JSON.
+ * <p>
+ * Throughput is measured first, injecting as fast as the transport takes 
+ * frames unless a rate is given. Latency is measured separately, pacing 
+ * frames below the throughput measured, since at saturation frames mostly
+ * wait in the transport's buffers and their latency says more about the 
+ * size of the buffers than about forwarding.
+ */
+public class TrafficGenerator
+{
+	/** How long to wait for the topology to forward a first frame */
+	private static final long READY_TIMEOUT_MILLIS = 10000;
+	
+	/** How long to wait for the next frame before giving up on the rest */
+	private static final long IDLE_MILLIS = 1000;
+	
+	/** Frames whose latency is measured by default */
+	private static final int DEFAULT_LATENCY_PACKETS = 10000;
+	
+	/** Fraction of the throughput measured that latency is measured at by
+	 *  default */
+	private static final double LATENCY_LOAD = 0.5;
+	
+	/** Port the server listens on when devices connect over TCP */
+	private static final short TCP_PORT = 8888;
+	
+	/** Where shared memory files go, if the host has such a file system */
+	private static final String SHARED_MEMORY_FS = "/dev/shm";
+	
+	public static void main(String[] args) throws Exception
+	{
+		String serverFile = null;
+		String devicesFile = null;
+		String ingress = null;
+		String egress = null;
+		String jsonFile = null;
+		int packets = 100000;
+		int warmup = 1000;
+		int flows = 16;
+		double zipf = 1.0;
+		int[] sizes = { 64 };
+		byte[] protocols = { IPv4.PROTOCOL_UDP };
+		String srcMac = "00:00:00:00:00:01";
+		String dstMac = null;
+		String srcIp = "10.0.0.2";
+		String dstIp = null;
+		long rate = 0;
+		int latencyPackets = DEFAULT_LATENCY_PACKETS;
+		double latencyRate = 0;
+		long seed = 1;
+		String transport = VNSServer.LOCAL;
+		int maxFrameLength = 0;
+		boolean verbose = false;
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-h"))
+			{
+				usage();
+				return;
+			}
+			else if (arg.equals("-x"))
+			{ serverFile = args[++i]; }
+			else if (arg.equals("-t"))
+			{ devicesFile = args[++i]; }
+			else if (arg.equals("-i"))
+			{ ingress = args[++i]; }
+			else if (arg.equals("-o"))
+			{ egress = args[++i]; }
+			else if (arg.equals("-j"))
+			{ jsonFile = args[++i]; }
+			else if (arg.equals("-n"))
+			{ packets = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-w"))
+			{ warmup = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-c"))
+			{ flows = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-z"))
+			{ zipf = Double.parseDouble(args[++i]); }
+			else if (arg.equals("-S"))
+			{ sizes = parseSizes(args[++i]); }
+			else if (arg.equals("-P"))
+			{ protocols = parseProtocols(args[++i]); }
+			else if (arg.equals("-sm"))
+			{ srcMac = args[++i]; }
+			else if (arg.equals("-dm"))
+			{ dstMac = args[++i]; }
+			else if (arg.equals("-si"))
+			{ srcIp = args[++i]; }
+			else if (arg.equals("-di"))
+			{ dstIp = args[++i]; }
+			else if (arg.equals("-r"))
+			{ rate = Long.parseLong(args[++i]); }
+			else if (arg.equals("-L"))
+			{ latencyPackets = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-lr"))
+			{ latencyRate = Double.parseDouble(args[++i]); }
+			else if (arg.equals("-J"))
+			{ maxFrameLength = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-T"))
+			{ transport = args[++i]; }
+			else if (arg.equals("-seed"))
+			{ seed = Long.parseLong(args[++i]); }
+			else if (arg.equals("-v"))
+			{ verbose = true; }
+		}
+		
+		if (null == serverFile || null == devicesFile || null == ingress 
+				|| null == dstIp || ingress.indexOf(':') < 0)
+		{
+			usage();
+			System.exit(1);
+		}
+		String ingressHost = ingress.substring(0, ingress.indexOf(':'));
+		String ingressIface = ingress.substring(ingress.indexOf(':') + 1);
+		String egressHost = null, egressIface = null;
+		if (egress != null)
+		{
+			int colon = egress.indexOf(':');
+			egressHost = (colon < 0) ? egress : egress.substring(0, colon);
+			egressIface = (colon < 0) ? null : egress.substring(colon + 1);
+		}
+		
+		// Start the server and the devices, keeping the devices' output out
+		// of the report
+		PrintStream out = System.out;
+		if (!verbose)
+		{ System.setOut(new PrintStream(OutputStream.nullOutputStream())); }
+		VNSServer server = VNSServer.startLocal(serverFile);
+		if (null == server)
+		{ System.exit(1); }
+		MACAddress ingressMac = server.getMacAddress(ingressHost, 
+				ingressIface);
+		if (null == ingressMac)
+		{
+			System.err.println("Unknown ingress interface " + ingress);
+			System.exit(1);
+		}
+		LatencyRecorder recorder = new LatencyRecorder(egressHost, 
+				egressIface, Math.max(packets, latencyPackets));
+		server.setFrameListener(recorder);
+		
+		final String devices = devicesFile;
+		// Let the server and the devices take the largest frames sent, if 
+		// they are larger than either takes by default
+		for (int size : sizes)
+		{ maxFrameLength = Math.max(maxFrameLength, size); }
+		boolean jumbo = (maxFrameLength + CommandPacket.HEADER_SIZE 
+				> VNSComm.DEFAULT_MAX_COMMAND_LENGTH);
+		if (jumbo)
+		{ server.setMaxFrameLength(maxFrameLength); }
+		String[] connectArgs = listen(server, transport);
+		if (jumbo)
+		{
+			connectArgs = Arrays.copyOf(connectArgs, connectArgs.length + 2);
+			connectArgs[connectArgs.length - 2] = "-j";
+			connectArgs[connectArgs.length - 1] = 
+					Integer.toString(maxFrameLength);
+		}
+		final String[] deviceArgs = connectArgs;
+		Thread launcher = new Thread(new Runnable() {
+			public void run()
+			{ DeviceLauncher.launch(devices, deviceArgs); }
+		}, "DeviceLauncher");
+		launcher.setDaemon(true);
+		launcher.start();
+		
+		FlowProfile profile = new FlowProfile(flows, zipf, sizes, protocols,
+				MACAddress.valueOf(srcMac), 
+				(dstMac != null) ? MACAddress.valueOf(dstMac) : ingressMac,
+				IPv4.toIPv4Address(srcIp), IPv4.toIPv4Address(dstIp), seed);
+		ByteBuffer frame = ByteBuffer.allocate(profile.getMaxSize());
+		
+		// Probe until the topology forwards, then warm up
+		long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+		while (0 == recorder.getCount())
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				System.err.println("No frames left the topology");
+				System.exit(1);
+			}
+			if (server.isConnected(ingressHost))
+			{
+				profile.nextFrame(frame, -1);
+				server.inject(ingressHost, ingressIface, frame);
+			}
+			Thread.sleep(10);
+		}
+		for (int seq = 0; seq < warmup; seq++)
+		{
+			profile.nextFrame(frame, seq);
+			server.inject(ingressHost, ingressIface, frame);
+		}
+		recorder.await(warmup + 1, IDLE_MILLIS);
+		
+		// Measure throughput
+		recorder.start();
+		long relayedBefore = server.getRelayed();
+		long droppedBefore = server.getDropped();
+		long start = System.nanoTime();
+		long sent = inject(server, ingressHost, ingressIface, profile, frame,
+				0, packets, rate);
+		int received = recorder.await(packets, IDLE_MILLIS);
+		long end = Math.max(recorder.getLastNanos(), sent);
+		long bytes = recorder.getBytes();
+		long ignored = recorder.getIgnored();
+		long relayed = server.getRelayed() - relayedBefore;
+		long dropped = server.getDropped() - droppedBefore;
+		double seconds = (end - start) / 1e9;
+		
+		// Measure latency below saturation
+		if (latencyRate <= 0 && seconds > 0)
+		{ latencyRate = LATENCY_LOAD * received / seconds; }
+		String latency = "{}";
+		if (latencyPackets > 0 && latencyRate > 0)
+		{
+			recorder.start();
+			inject(server, ingressHost, ingressIface, profile, frame, packets,
+					latencyPackets, latencyRate);
+			recorder.await(latencyPackets, IDLE_MILLIS);
+			latency = recorder.latencyJson();
+		}
+		
+		String json = String.format("{\n"
+				+ "  \"transport\": \"%s\",\n"
+				+ "  \"ingress\": \"%s\",\n"
+				+ "  \"egress\": \"%s\",\n"
+				+ "  \"profile\": {\"flows\": %d, \"zipf\": %s, "
+				+ "\"sizes\": %s, \"protocols\": %s, \"rate_pps\": %d},\n"
+				+ "  \"packets_sent\": %d,\n"
+				+ "  \"packets_received\": %d,\n"
+				+ "  \"bytes_received\": %d,\n"
+				+ "  \"duration_s\": %.6f,\n"
+				+ "  \"offered_pps\": %s,\n"
+				+ "  \"pps\": %s,\n"
+				+ "  \"gbps\": %s,\n"
+				+ "  \"latency_rate_pps\": %s,\n"
+				+ "  \"latency_us\": %s,\n"
+				+ "  \"server\": {\"relayed\": %d, \"dropped\": %d, "
+				+ "\"ignored\": %d}\n"
+				+ "}", transport, ingress, (egress != null) ? egress : "*", 
+				profile.getFlowCount(), profile.getZipf(), 
+				Arrays.toString(profile.getSizes()), 
+				protocolsJson(protocols), rate, packets, received, 
+				bytes, seconds, 
+				jsonNumber("%.1f", packets / ((sent - start) / 1e9)),
+				jsonNumber("%.1f", received / seconds), 
+				jsonNumber("%.6f", bytes * 8 / seconds / 1e9), 
+				jsonNumber("%.1f", latencyRate),
+				latency, relayed, dropped, ignored);
+		
+		if (jsonFile != null)
+		{
+			try (FileWriter writer = new FileWriter(jsonFile))
+			{ writer.write(json + "\n"); }
+			catch (IOException e)
+			{ System.err.println(e.toString()); }
+		}
+		out.println(json);
+		System.exit(0);
+	}
+	
+	/**
+	 * Format a rate for the JSON report. A rate over an empty interval is
+	 * NaN or infinite, which JSON cannot represent, so it is reported as null.
+	 * @param format format for a finite value
+	 * @param value the rate
+	 * @return the formatted rate, or null
+	 */
+	private static String jsonNumber(String format, double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{ return "null"; }
+		return String.format(format, value);
+	}
+	
+	/**
+	 * Let the devices reach the server over a transport.
+	 * @param server the server
+	 * @param transport local, shm, unix or tcp
+	 * @return options connecting a device to the server
+	 */
+	private static String[] listen(VNSServer server, String transport) 
+			throws IOException
+	{
+		if (transport.equals("tcp"))
+		{
+			server.startListening(new InetSocketAddress(TCP_PORT));
+			return new String[] { "-s", "localhost", 
+					"-p", Short.toString(TCP_PORT) };
+		}
+		else if (transport.equals("unix"))
+		{
+			Path dir = Files.createTempDirectory("vnet");
+			Path path = dir.resolve("vns.sock");
+			server.startListening(UnixDomainSocketAddress.of(path));
+			dir.toFile().deleteOnExit();
+			path.toFile().deleteOnExit();
+			return new String[] { "-s", VNSServer.UNIX_SOCKET_PREFIX + path };
+		}
+		else if (transport.equals("shm"))
+		{
+			Path dir = Files.isDirectory(Paths.get(SHARED_MEMORY_FS))
+					? Files.createTempDirectory(Paths.get(SHARED_MEMORY_FS), "vnet")
+					: Files.createTempDirectory("vnet");
+			server.listenShared(dir.toString());
+			dir.toFile().deleteOnExit();
+			for (String host : server.getHosts())
+			{ dir.resolve(host).toFile().deleteOnExit(); }
+			return new String[] { "-s", 
+					VNSServer.SHARED_MEMORY_PREFIX + dir };
+		}
+		else if (transport.equals(VNSServer.LOCAL))
+		{ return new String[] { "-s", VNSServer.LOCAL }; }
+		throw new IllegalArgumentException("Unknown transport " + transport);
+	}
+	
+	/**
+	 * Inject frames from a profile into an interface, paced to a rate.
+	 * @param firstSeq sequence number stamped in the first frame
+	 * @param count number of frames to inject
+	 * @param rate frames per second; 0 to inject as fast as the transport 
+	 *        takes them
+	 * @return when the last frame was injected, from System.nanoTime
+	 */
+	private static long inject(VNSServer server, String host, String iface, 
+			FlowProfile profile, ByteBuffer frame, int firstSeq, int count, 
+			double rate)
+	{
+		long intervalNanos = (rate > 0) ? (long)(1e9 / rate) : 0;
+		long next = System.nanoTime();
+		for (int seq = firstSeq; seq < firstSeq + count; seq++)
+		{
+			if (intervalNanos > 0)
+			{
+				next += intervalNanos;
+				long wait;
+				while ((wait = next - System.nanoTime()) > 0)
+				{
+					if (wait > 50000)
+					{ LockSupport.parkNanos(wait - 50000); }
+					else
+					{ Thread.onSpinWait(); }
+				}
+			}
+			profile.nextFrame(frame, seq);
+			server.inject(host, iface, frame);
+		}
+		return System.nanoTime();
+	}
+	
+	private static int[] parseSizes(String list)
+	{
+		String[] fields = list.split(",");
+		int[] sizes = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+		{ sizes[i] = Integer.parseInt(fields[i].trim()); }
+		return sizes;
+	}
+	
+	private static byte[] parseProtocols(String list)
+	{
+		String[] fields = list.split(",");
+		byte[] protocols = new byte[fields.length];
+		for (int i = 0; i < fields.length; i++)
+		{
+			String name = fields[i].trim().toLowerCase();
+			if (name.equals("tcp"))
+			{ protocols[i] = IPv4.PROTOCOL_TCP; }
+			else if (name.equals("udp"))
+			{ protocols[i] = IPv4.PROTOCOL_UDP; }
+			else if (name.equals("icmp"))
+			{ protocols[i] = IPv4.PROTOCOL_ICMP; }
+			else
+			{ throw new IllegalArgumentException("Unknown protocol " + name); }
+		}
+		return protocols;
+	}
+	
+	private static String protocolsJson(byte[] protocols)
+	{
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < protocols.length; i++)
+		{
+			if (i > 0)
+			{ result.append(", "); }
+			if (protocols[i] == IPv4.PROTOCOL_TCP)
+			{ result.append("\"tcp\""); }
+			else if (protocols[i] == IPv4.PROTOCOL_UDP)
+			{ result.append("\"udp\""); }
+			else
+			{ result.append("\"icmp\""); }
+		}
+		return result.append("]").toString();
+	}
+	
+	static void usage()
+	{
+		System.out.println("Traffic Generator");
+		System.out.println("TrafficGenerator -x server_topology_file -t devices_file");
+		System.out.println("     -i host:iface -di dst_ip [-o host[:iface]]");
+		System.out.println("     [-n packets] [-w warmup_packets] [-r rate_pps]");
+		System.out.println("     [-L latency_packets] [-lr latency_rate_pps]");
+		System.out.println("     [-c flows] [-z zipf_exponent] [-S size,size,...]");
+		System.out.println("     [-P udp,tcp,icmp] [-si src_ip] [-sm src_mac]");
+		System.out.println("     [-dm dst_mac] [-seed seed] [-j json_file] [-v]");
+		System.out.println("     [-T local|shm|unix|tcp] [-J max_frame_length]");
+	}
+}
@@ -4,8 +4,8 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,14 +19,15 @@ import edu.wisc.cs.sdn.vnet.Iface;
  */
 public class RouteTable 
 {
-	/** Entries in the route table */
+	/** Entries in the route table; copied on every change, so lookups 
+	 *  read a snapshot without locking. Changes synchronize on the list */
 	private List<RouteEntry> entries; 
 	
 	/**
 	 * Initialize an empty route table.
 	 */
 	public RouteTable()
-	{ this.entries = new LinkedList<RouteEntry>(); }
+	{ this.entries = new CopyOnWriteArrayList<RouteEntry>(); }
 	
 	/**
 	 * Lookup the route entry that matches a given IP address.
@@ -35,31 +36,28 @@ public class RouteTable
 	 */
 	public RouteEntry lookup(int ip)
 	{
-		synchronized(this.entries)
-		{
-			RouteEntry bestMatch = null;
-			int longestMatchPrefix = -1;
-			for(RouteEntry entry : entries){
-				int maskedIP = ip & entry.getMaskAddress();// apply mask to input ip
-				int maskedDestination = entry.getDestinationAddress() & entry.getMaskAddress();// apply mask to destination ip
-				long entryPrefix = Integer.toUnsignedLong(entry.getMaskAddress());
-				//System.out.println("DEBUG: maskedIP is " +maskedIP+ " maskedDestination is " +maskedDestination);
-				if(maskedIP == maskedDestination){// compare both masked values
-					//System.out.println("DEBUG: Match found in rout table, checking for longestMatchPrefix");
-					//System.out.println("DEBUG: Mask address" +entryPrefix);
-					//System.out.println("DEBUG: Current longestMatchPrefix" +longestMatchPrefix);
-					//System.out.println("DEBUG: Comparison result:" +(Long.compare(entryPrefix, longestMatchPrefix) > 0));
-					if((Long.compare(entryPrefix, longestMatchPrefix) > 0)){ // if prefix is longer than last prefix match
-						//System.out.println("DEBUG: Assigning new bestMatch to " +entry);
-						bestMatch = entry;// only assign match if this match has longest prefix
-						longestMatchPrefix = entry.getMaskAddress(); //update longestMatchPrefix
-					}
+		RouteEntry bestMatch = null;
+		int longestMatchPrefix = -1;
+		for(RouteEntry entry : entries){ // iterates a snapshot, no lock needed
+			int maskedIP = ip & entry.getMaskAddress();// apply mask to input ip
+			int maskedDestination = entry.getDestinationAddress() & entry.getMaskAddress();// apply mask to destination ip
+			long entryPrefix = Integer.toUnsignedLong(entry.getMaskAddress());
+			//System.out.println("DEBUG: maskedIP is " +maskedIP+ " maskedDestination is " +maskedDestination);
+			if(maskedIP == maskedDestination){// compare both masked values
+				//System.out.println("DEBUG: Match found in rout table, checking for longestMatchPrefix");
+				//System.out.println("DEBUG: Mask address" +entryPrefix);
+				//System.out.println("DEBUG: Current longestMatchPrefix" +longestMatchPrefix);
+				//System.out.println("DEBUG: Comparison result:" +(Long.compare(entryPrefix, longestMatchPrefix) > 0));
+				if((Long.compare(entryPrefix, longestMatchPrefix) > 0)){ // if prefix is longer than last prefix match
+					//System.out.println("DEBUG: Assigning new bestMatch to " +entry);
+					bestMatch = entry;// only assign match if this match has longest prefix
+					longestMatchPrefix = entry.getMaskAddress(); //update longestMatchPrefix
 				}
 			}
-
-			//note: bestMatch can be null.  It's not lookup()'s job to determine a default interface
-			return bestMatch;
 		}
+
+		//note: bestMatch can be null.  It's not lookup()'s job to determine a default interface
+		return bestMatch;
 	}
 	
 	/**
@@ -201,8 +199,10 @@ public class RouteTable
 		{
 			RouteEntry entry = this.find(dstIp, maskIp);
 			if (null == entry) { return false; }
-			entry.setGatewayAddress(gwIp);
-			entry.setInterface(iface);
+			// Replace rather than modify the entry, so concurrent lookups 
+			// never see a gateway and interface that don't belong together
+			this.entries.set(this.entries.indexOf(entry), 
+					new RouteEntry(dstIp, gwIp, maskIp, iface));
 		}
 		return true;
 	}
@@ -6,8 +6,11 @@ import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
 
+import net.floodlightcontroller.packet.DecodeDepth;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
 import net.floodlightcontroller.packet.MACAddress;
 import net.floodlightcontroller.packet.ICMP;
 import net.floodlightcontroller.packet.Data;
@@ -32,8 +35,19 @@ public class Router extends Device
 		super(host,logfile);
 		this.routeTable = new RouteTable();
 		this.arpCache = new ArpCache();
+		// transport headers are only needed for ICMP replies
+		this.setDecodeDepth(DecodeDepth.L3);
 	}
 	
+	/**
+	 * The route table, ARP cache and interface map are safe for concurrent 
+	 * readers, so frames can be handled on several threads.
+	 * @return true
+	 */
+	@Override
+	public boolean isConcurrent()
+	{ return true; }
+	
 	/**
 	 * @return routing table for the router
 	 */
@@ -43,39 +57,43 @@ public class Router extends Device
 	/**
 	 * Load a new routing table from a file.
 	 * @param routeTableFile the name of the file containing the routing table
+	 * @return true if the routing table was loaded, otherwise false
 	 */
-	public void loadRouteTable(String routeTableFile)
+	public boolean loadRouteTable(String routeTableFile)
 	{
 		if (!routeTable.load(routeTableFile, this))
 		{
 			System.err.println("Error setting up routing table from file "
 					+ routeTableFile);
-			System.exit(1);
+			return false;
 		}
 		
 		System.out.println("Loaded static route table");
 		System.out.println("-------------------------------------------------");
 		System.out.print(this.routeTable.toString());
 		System.out.println("-------------------------------------------------");
+		return true;
 	}
 	
 	/**
 	 * Load a new ARP cache from a file.
 	 * @param arpCacheFile the name of the file containing the ARP cache
+	 * @return true if the ARP cache was loaded, otherwise false
 	 */
-	public void loadArpCache(String arpCacheFile)
+	public boolean loadArpCache(String arpCacheFile)
 	{
 		if (!arpCache.load(arpCacheFile))
 		{
 			System.err.println("Error setting up ARP cache from file "
 					+ arpCacheFile);
-			System.exit(1);
+			return false;
 		}
 		
 		System.out.println("Loaded static ARP cache");
 		System.out.println("----------------------------------");
 		System.out.print(this.arpCache.toString());
 		System.out.println("----------------------------------");
+		return true;
 	}
 
 	/**
@@ -87,7 +105,70 @@ public class Router extends Device
 	{
 		System.out.println("*** -> Received packet: " +
 				etherPacket.toString().replace("\n", "\n\t"));
-		
+		this.route(etherPacket, inIface);
+	}
+
+	/**
+	 * Handle an Ethernet frame received on a specific interface. Transit
+	 * packets are forwarded straight from the frame's headers; packets that
+	 * need an ICMP response or are addressed to the router are deserialized
+	 * and handled by {@link #route(Ethernet, Iface)}.
+	 * @param frame view of the frame that was received
+	 * @param inIface the interface on which the frame was received
+	 */
+	@Override
+	public void handleFrame(EthernetView frame, Iface inIface)
+	{
+		// if NOT IPv4 packet, drop packet
+		IPv4View packet = frame.getIPv4();
+		if(packet == null){
+			return;
+		}
+		// verify the checksum and drop packet if not equal
+		if(!packet.isChecksumValid()){
+			return;
+		}
+
+		// expired TTL, unroutable or addressed to the router: needs the slow path
+		RouteEntry match = routeTable.lookup(packet.getDestinationAddress());
+		if((packet.getTtl() & 0xff) <= 1 || match == null){
+			this.route(frame.materialize(this.getDecodeDepth()), inIface);
+			return;
+		}
+		for (Iface iface: this.interfaces.values()){
+			if(packet.getDestinationAddress() == iface.getIpAddress()){
+				this.route(frame.materialize(this.getDecodeDepth()), inIface);
+				return;
+			}
+		}
+
+		Iface sourceInterface = this.interfaces.get(match.getInterface().getName());
+		if(sourceInterface == inIface){
+			return;
+		}
+		int nextHop = (match.getGatewayAddress() == 0) ? packet.getDestinationAddress() : match.getGatewayAddress();
+		ArpEntry destinationArp = this.arpCache.lookup(nextHop);
+		if(destinationArp == null){
+			this.route(frame.materialize(this.getDecodeDepth()), inIface);
+			return;
+		}
+
+		// rewrite the headers in the received frame and send the same buffer
+		frame.setDestinationMAC(destinationArp.getMac().toLong());
+		if(sourceInterface.getMacAddress() != null){
+			frame.setSourceMAC(sourceInterface.getMacAddress().toLong());
+		}
+		packet.decrementTtl();
+		this.sendFrame(frame, sourceInterface);
+	}
+
+	/**
+	 * Route a deserialized Ethernet packet.
+	 * @param etherPacket the Ethernet packet that was received
+	 * @param inIface the interface on which the packet was received
+	 */
+	private void route(Ethernet etherPacket, Iface inIface)
+	{
 		// if NOT IPv4 packet, drop packet
 		if(etherPacket.getEtherType() != Ethernet.TYPE_IPv4){ // refactor this later
 			//System.out.println("DEBUG: incoming packet was not type IPv4.\n"
@@ -96,25 +177,21 @@ public class Router extends Device
 		}
 		// confirm the checksum and drop if invalid
 		IPv4 packet = (IPv4)etherPacket.getPayload();
-		// verify the checksum and drop packet if not equal
-		int packetChecksum = packet.getChecksum();
-		packet.resetChecksum();
-		packet.serialize();
-		if(packetChecksum != packet.getChecksum()){
+		// verify the checksum over the header only and drop packet if not equal
+		if(!packet.isChecksumValid()){
 			//System.out.println("DEBUG: packet dropped due to bad checksum at " +this.getHost());
 			return; // drop packet
 		}
 		// verify the TTL, decrement TTL and drop if TTL expired
+		// the checksum is updated incrementally, so the payload is never serialized to fix it
 		byte TTL = packet.getTtl();
-		packet.setTtl((byte)(TTL - 1));
+		packet.decrementTtl();
 		if(TTL <= 1){ // drop packet
 			System.out.println("DEBUG: packet will be dropped due to expired TTL at " +this.getHost());
 			System.out.println("DEBUG: Sending ICMP packet for Time Exceeded...");
 			sendICMPPacket(etherPacket, inIface, 11, 0);
 			return;
 		}
-		//resetChecksum to avoid checksum issues at next router
-		packet.resetChecksum();
 
 		// Valid packets past this point
 
@@ -178,23 +255,19 @@ public class Router extends Device
 			return; //drop packet
 		}
 		MACAddress destinationMAC = destinationArp.getMac(); // throwing NPE here when given bogus MAC address
-		byte[] destinationMACAddress = destinationMAC.toBytes();
-		//System.out.println("DEBUG: Destination MAC address to bytes: " +destinationMACAddress);
 
 		// Extract the sourceMAC from the source interface identified above
 		MACAddress sourceMAC = sourceInterface.getMacAddress();
 		//System.out.println("Source MAC " +sourceMAC);
 		
 		if(sourceMAC != null){ // in theory sourceMAC should never be null, but this check guards against POX issues found during testing
-			byte[] sourceMACToBytes = sourceMAC.toBytes();
-			//System.out.println("Source MACToBytes " +sourceMACToBytes);
-			etherPacket.setSourceMACAddress(sourceMACToBytes); // edit the etherPacket's sourceMAC
+			etherPacket.setSourceMAC(sourceMAC); // edit the etherPacket's sourceMAC
 		}
 		
-		etherPacket.setDestinationMACAddress(destinationMACAddress); // edit the etherPacket's destinationMAC
+		etherPacket.setDestinationMAC(destinationMAC); // edit the etherPacket's destinationMAC
 		this.sendPacket(etherPacket, sourceInterface); // forward the packet 
 		//System.out.println("DEBUG: sending packet " +etherPacket+ " on interface " +sourceInterface);
-	} // handlePacket
+	} // route
 
 	/*
 	 * Given an etherPacket, sends an ICMP packet out on the specified interface with a given type and code.
@@ -233,8 +306,7 @@ public class Router extends Device
 		// populate the Ethernet header
 		ether.setEtherType(Ethernet.TYPE_IPv4);
 		// set the Ethernet source as the interface packet was received on
-		byte[] sourceMac = sourceInterface.getMacAddress().toBytes(); // this is throwing a NPE
-		ether.setSourceMACAddress(sourceMac);
+		ether.setSourceMAC(sourceInterface.getMacAddress()); // this is throwing a NPE
 		//Check if destination is directly connected to Router or if nextHop should be to another gateway.  
 		int gateway = originMatch.getGatewayAddress();
 		int nextHop;
@@ -244,8 +316,7 @@ public class Router extends Device
 			nextHop = gateway;
 		}
 		MACAddress destinationMAC = this.arpCache.lookup(nextHop).getMac();
-		byte[] destinationMacBytes = destinationMAC.toBytes(); // ??? what is the destination for this packet?
-		ether.setDestinationMACAddress(destinationMacBytes);
+		ether.setDestinationMAC(destinationMAC);
 
 		// populate the IP header
 		byte ttl = (byte)64;
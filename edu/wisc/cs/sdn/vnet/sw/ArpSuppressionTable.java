@@ -0,0 +1,165 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * IP to MAC bindings learned by snooping ARP packets, used by a switch to
+ * answer ARP requests on behalf of hosts it has already heard from.
+ */
+public class ArpSuppressionTable
+{
+	/** Time (in milliseconds) after which a binding that has not been
+	 *  refreshed by another ARP packet is removed */
+	public static final long BINDING_TIMEOUT = 300000;
+
+	/** Learned bindings; maps an IP address to a binding */
+	private Map<Integer,Binding> bindings;
+
+	/** Number of ARP requests answered by the switch */
+	private AtomicLong suppressed;
+
+	/** Number of ARP requests that could not be answered and were flooded */
+	private AtomicLong flooded;
+
+	/** A learned IP to MAC binding and the time it was last refreshed */
+	private static class Binding
+	{
+		private final MACAddress mac;
+		private final long timeUpdated;
+
+		private Binding(MACAddress mac, long timeUpdated)
+		{
+			this.mac = mac;
+			this.timeUpdated = timeUpdated;
+		}
+	}
+
+	/**
+	 * Initializes an empty ARP suppression table.
+	 */
+	public ArpSuppressionTable()
+	{
+		this.bindings = new ConcurrentHashMap<Integer,Binding>();
+		this.suppressed = new AtomicLong();
+		this.flooded = new AtomicLong();
+	}
+
+	/**
+	 * Learn the sender's binding from any ARP request or reply.
+	 * @param arp the ARP packet that was received
+	 */
+	public void snoop(ARP arp)
+	{
+		if (arp.getProtocolType() != ARP.PROTO_TYPE_IP
+				|| arp.getSenderProtocolAddress().length != 4
+				|| arp.getSenderHardwareAddress().length
+						!= MACAddress.MAC_ADDRESS_LENGTH)
+		{ return; }
+
+		// ARP probes (RFC 5227) use 0.0.0.0 as the sender address
+		int senderIp = IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+		if (0 == senderIp)
+		{ return; }
+
+		MACAddress senderMac = MACAddress.valueOf(
+				arp.getSenderHardwareAddress());
+		this.bindings.put(senderIp,
+				new Binding(senderMac, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Build a reply to an ARP request if the binding for the target address
+	 * is known; a request that is answered is counted as suppressed.
+	 * @param arp an ARP packet that was received
+	 * @return an Ethernet frame containing the ARP reply; null if the
+	 *         request must be flooded
+	 */
+	public Ethernet buildReply(ARP arp)
+	{
+		if (arp.getOpCode() != ARP.OP_REQUEST)
+		{ return null; }
+
+		Binding binding = null;
+		int senderIp = 0;
+		if (arp.getProtocolType() == ARP.PROTO_TYPE_IP
+				&& arp.getTargetProtocolAddress().length == 4
+				&& arp.getSenderProtocolAddress().length == 4
+				&& !arp.isGratuitous())
+		{
+			senderIp = IPv4.toIPv4Address(arp.getSenderProtocolAddress());
+			binding = this.bindings.get(
+					IPv4.toIPv4Address(arp.getTargetProtocolAddress()));
+		}
+
+		// Probes must reach the owner of the address so that it can defend it
+		if (null == binding || 0 == senderIp)
+		{ return null; }
+
+		byte[] targetMac = binding.mac.toBytes();
+		ARP reply = new ARP();
+		reply.setHardwareType(ARP.HW_TYPE_ETHERNET);
+		reply.setProtocolType(ARP.PROTO_TYPE_IP);
+		reply.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
+		reply.setProtocolAddressLength((byte)4);
+		reply.setOpCode(ARP.OP_REPLY);
+		reply.setSenderHardwareAddress(targetMac);
+		reply.setSenderProtocolAddress(arp.getTargetProtocolAddress());
+		reply.setTargetHardwareAddress(arp.getSenderHardwareAddress());
+		reply.setTargetProtocolAddress(arp.getSenderProtocolAddress());
+
+		Ethernet ether = new Ethernet();
+		ether.setEtherType(Ethernet.TYPE_ARP);
+		ether.setSourceMACAddress(targetMac);
+		ether.setDestinationMACAddress(arp.getSenderHardwareAddress());
+		ether.setPayload(reply);
+
+		this.suppressed.incrementAndGet();
+		return ether;
+	}
+
+	/**
+	 * Remove bindings that have not been refreshed in time.
+	 * @param now current time in milliseconds
+	 */
+	public void expire(long now)
+	{
+		for (Map.Entry<Integer,Binding> entry : this.bindings.entrySet())
+		{
+			if (now - entry.getValue().timeUpdated > BINDING_TIMEOUT)
+			{ this.bindings.remove(entry.getKey(), entry.getValue()); }
+		}
+	}
+
+	/**
+	 * Count an ARP request the switch could not answer and flooded. Requests
+	 * that are not answered but go out a single port, such as unicast
+	 * requests to a known host, are not counted.
+	 */
+	public void countFlooded()
+	{ this.flooded.incrementAndGet(); }
+
+	/**
+	 * @return number of ARP requests answered by the switch
+	 */
+	public long getSuppressedCount()
+	{ return this.suppressed.get(); }
+
+	/**
+	 * @return number of ARP requests that were flooded
+	 */
+	public long getFloodedCount()
+	{ return this.flooded.get(); }
+
+	public String toString()
+	{
+		return String.format("ARP requests suppressed: %d flooded: %d",
+				this.suppressed.get(), this.flooded.get());
+	}
+}
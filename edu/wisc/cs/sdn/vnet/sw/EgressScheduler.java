@@ -0,0 +1,219 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wisc.cs.sdn.vnet.Device;
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Per-port egress queues keyed by 802.1p priority (PCP), drained by a
+ * dedicated sender thread. The highest traffic classes are served with
+ * strict priority; the others share the remaining capacity by weighted
+ * round robin. Each queue has a bounded depth and drops new frames when
+ * it is full.
+ */
+public class EgressScheduler extends Thread
+{
+	/** Number of traffic classes, one per PCP value */
+	public static final int NUM_CLASSES = 8;
+
+	/** Traffic classes at or above this one are served with strict priority
+	 *  (voice, internetwork control and network control) */
+	public static final int STRICT_CLASS = 5;
+
+	/** Frames each weighted class may send per round, lowest class first */
+	private static final int[] WEIGHTS = { 1, 2, 4, 6, 8 };
+
+	/** Default maximum number of frames in each queue */
+	public static final int DEFAULT_QUEUE_DEPTH = 256;
+
+	/** Maps a PCP value to a traffic class; background (PCP 1) ranks below
+	 *  best effort (PCP 0) per IEEE 802.1Q Table I-2 */
+	private static final int[] PCP_TO_CLASS = { 1, 0, 2, 3, 4, 5, 6, 7 };
+
+	/** Device the frames are sent from */
+	private Device device;
+
+	/** Egress queues for each port */
+	private Map<Iface,PortQueues> ports;
+
+	/** Ports in the order the sender visits them */
+	private List<PortQueues> portOrder;
+
+	/** Maximum number of frames in each queue */
+	private int queueDepth;
+
+	/** Total number of frames waiting in all queues; guarded by this */
+	private int pending;
+
+	private volatile boolean running;
+
+	/** Queues and scheduler state for one port; guarded by the scheduler */
+	private class PortQueues
+	{
+		private Iface iface;
+		private ArrayDeque<byte[]>[] queues;
+		private long[] enqueued;
+		private long[] dropped;
+		private int wrrClass;
+		private int credits;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private PortQueues(Iface iface)
+		{
+			this.iface = iface;
+			this.queues = new ArrayDeque[NUM_CLASSES];
+			for (int i = 0; i < NUM_CLASSES; i++)
+			{ this.queues[i] = new ArrayDeque<byte[]>(); }
+			this.enqueued = new long[NUM_CLASSES];
+			this.dropped = new long[NUM_CLASSES];
+			this.wrrClass = STRICT_CLASS - 1;
+			this.credits = WEIGHTS[this.wrrClass];
+		}
+
+		private byte[] dequeue()
+		{
+			for (int tc = NUM_CLASSES - 1; tc >= STRICT_CLASS; tc--)
+			{
+				if (!this.queues[tc].isEmpty())
+				{ return this.queues[tc].poll(); }
+			}
+
+			for (int tried = 0; tried <= STRICT_CLASS; tried++)
+			{
+				if (this.credits > 0 && !this.queues[this.wrrClass].isEmpty())
+				{
+					this.credits--;
+					return this.queues[this.wrrClass].poll();
+				}
+				this.wrrClass = (this.wrrClass + STRICT_CLASS - 1) % STRICT_CLASS;
+				this.credits = WEIGHTS[this.wrrClass];
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Create an egress scheduler; call start() to begin sending.
+	 * @param device the device the frames are sent from
+	 */
+	public EgressScheduler(Device device)
+	{
+		this.device = device;
+		this.ports = new ConcurrentHashMap<Iface,PortQueues>();
+		this.portOrder = new ArrayList<PortQueues>();
+		this.queueDepth = DEFAULT_QUEUE_DEPTH;
+		this.pending = 0;
+		this.running = true;
+		this.setName("egress-" + device.getHost());
+		this.setDaemon(true);
+	}
+
+	/**
+	 * @param queueDepth maximum number of frames in each queue
+	 */
+	public void setQueueDepth(int queueDepth)
+	{ this.queueDepth = queueDepth; }
+
+	/**
+	 * Queue a frame for transmission. Never blocks; the frame is dropped if
+	 * its queue is full.
+	 * @param frame serialized Ethernet frame
+	 * @param priorityCode 802.1p priority of the frame
+	 * @param outIface interface on which to send the frame
+	 * @return true if the frame was queued, false if it was dropped
+	 */
+	public boolean enqueue(byte[] frame, byte priorityCode, Iface outIface)
+	{
+		int tc = PCP_TO_CLASS[priorityCode & 0x7];
+		synchronized(this)
+		{
+			PortQueues port = this.ports.get(outIface);
+			if (null == port)
+			{
+				port = new PortQueues(outIface);
+				this.ports.put(outIface, port);
+				this.portOrder.add(port);
+			}
+			if (port.queues[tc].size() >= this.queueDepth)
+			{
+				port.dropped[tc]++;
+				return false;
+			}
+			port.queues[tc].add(frame);
+			port.enqueued[tc]++;
+			this.pending++;
+			this.notify();
+		}
+		return true;
+	}
+
+	public void run()
+	{
+		int nextPort = 0;
+		while (true)
+		{
+			byte[] frame = null;
+			Iface outIface = null;
+			synchronized(this)
+			{
+				while (0 == this.pending && this.running)
+				{
+					try { this.wait(); }
+					catch (InterruptedException e) { }
+				}
+				if (0 == this.pending)
+				{ return; }
+
+				// Visit ports round robin so one busy port cannot starve the others
+				for (int i = 0; i < this.portOrder.size() && null == frame; i++)
+				{
+					PortQueues port = this.portOrder.get(
+							(nextPort + i) % this.portOrder.size());
+					frame = port.dequeue();
+					if (frame != null)
+					{
+						outIface = port.iface;
+						nextPort = (nextPort + i + 1) % this.portOrder.size();
+					}
+				}
+				this.pending--;
+			}
+			this.device.sendFrame(frame, outIface);
+		}
+	}
+
+	/**
+	 * Send all queued frames and stop the sender thread.
+	 */
+	public void shutdown()
+	{
+		synchronized(this)
+		{
+			this.running = false;
+			this.notify();
+		}
+		try { this.join(); }
+		catch (InterruptedException e) { }
+	}
+
+	public synchronized String toString()
+	{
+		String result = "Port\tClass\tEnqueued\tDropped\n";
+		for (PortQueues port : this.portOrder)
+		{
+			for (int tc = NUM_CLASSES - 1; tc >= 0; tc--)
+			{
+				if (0 == port.enqueued[tc] && 0 == port.dropped[tc])
+				{ continue; }
+				result += String.format("%s\t%d\t%d\t\t%d\n", port.iface.getName(),
+						tc, port.enqueued[tc], port.dropped[tc]);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * An action applied to frames that match a flow entry. Actions are named as
+ * in OpenFlow 1.0 (output, mod_dl_src, ...).
+ */
+public class FlowAction
+{
+	public enum Type
+	{
+		/** Send the frame out a port */
+		OUTPUT,
+		/** Send the frame out every port except the ingress port */
+		FLOOD,
+		/** Discard the frame */
+		DROP,
+		/** Forward the frame with the switch's normal MAC learning */
+		NORMAL,
+		SET_DL_SRC,
+		SET_DL_DST,
+		SET_VLAN_PCP,
+		SET_NW_SRC,
+		SET_NW_DST,
+		SET_NW_TOS,
+		SET_TP_SRC,
+		SET_TP_DST
+	}
+
+	private Type type;
+
+	/** Output port for OUTPUT actions */
+	private Iface port;
+
+	/** New field value for set-field actions */
+	private long value;
+
+	public FlowAction(Type type, Iface port, long value)
+	{
+		this.type = type;
+		this.port = port;
+		this.value = value;
+	}
+
+	public Type getType()
+	{ return this.type; }
+
+	public Iface getPort()
+	{ return this.port; }
+
+	public long getValue()
+	{ return this.value; }
+
+	/**
+	 * @return true if this action rewrites a header field
+	 */
+	public boolean isSetField()
+	{
+		return this.type != Type.OUTPUT && this.type != Type.FLOOD
+				&& this.type != Type.DROP && this.type != Type.NORMAL;
+	}
+
+	/**
+	 * Rewrite a header field of a frame. Checksums that cover the field are
+	 * reset so they are recomputed when the frame is serialized.
+	 * @param etherPacket the frame to modify
+	 * @return true if the frame was modified
+	 */
+	public boolean apply(Ethernet etherPacket)
+	{
+		IPacket payload = etherPacket.getPayload();
+		IPv4 ipPacket = (payload instanceof IPv4) ? (IPv4)payload : null;
+		IPacket transport = (null == ipPacket) ? null : ipPacket.getPayload();
+
+		switch (this.type)
+		{
+		case SET_DL_SRC:
+			etherPacket.setSourceMACAddress(this.value);
+			return true;
+		case SET_DL_DST:
+			etherPacket.setDestinationMACAddress(this.value);
+			return true;
+		case SET_VLAN_PCP:
+			etherPacket.setPriorityCode((byte)this.value);
+			return true;
+		case SET_NW_SRC:
+			if (null == ipPacket)
+			{ return false; }
+			ipPacket.setSourceAddress((int)this.value);
+			break;
+		case SET_NW_DST:
+			if (null == ipPacket)
+			{ return false; }
+			ipPacket.setDestinationAddress((int)this.value);
+			break;
+		case SET_NW_TOS:
+			if (null == ipPacket)
+			{ return false; }
+			ipPacket.updateDiffServ((byte)this.value);
+			return true;
+		case SET_TP_SRC:
+			if (transport instanceof TCP)
+			{ ((TCP)transport).setSourcePort((short)this.value); }
+			else if (transport instanceof UDP)
+			{ ((UDP)transport).setSourcePort((short)this.value); }
+			else
+			{ return false; }
+			break;
+		case SET_TP_DST:
+			if (transport instanceof TCP)
+			{ ((TCP)transport).setDestinationPort((short)this.value); }
+			else if (transport instanceof UDP)
+			{ ((UDP)transport).setDestinationPort((short)this.value); }
+			else
+			{ return false; }
+			break;
+		default:
+			return false;
+		}
+
+		// Addresses and ports are covered by the transport checksum (through
+		// the pseudo header) as well as the IPv4 header checksum
+		if (transport != null)
+		{ transport.resetChecksum(); }
+		else
+		{ ipPacket.resetChecksum(); }
+		return true;
+	}
+
+	/**
+	 * Parse an action, e.g. "output:eth1", "drop" or "mod_nw_dst:10.0.1.2".
+	 * @param action text of the action
+	 * @param sw the switch the action applies to
+	 * @return the parsed action
+	 * @throws IllegalArgumentException if the action cannot be parsed
+	 */
+	public static FlowAction parse(String action, Switch sw)
+	{
+		int colon = action.indexOf(':');
+		String name = (colon < 0) ? action : action.substring(0, colon);
+		String arg = (colon < 0) ? null : action.substring(colon + 1);
+
+		if (name.equals("flood"))
+		{ return new FlowAction(Type.FLOOD, null, 0); }
+		if (name.equals("drop"))
+		{ return new FlowAction(Type.DROP, null, 0); }
+		if (name.equals("normal"))
+		{ return new FlowAction(Type.NORMAL, null, 0); }
+		if (null == arg)
+		{ throw new IllegalArgumentException("Missing argument for action " + action); }
+
+		if (name.equals("output"))
+		{
+			Iface port = sw.getInterface(arg);
+			if (null == port)
+			{ throw new IllegalArgumentException("Invalid interface " + arg); }
+			return new FlowAction(Type.OUTPUT, port, 0);
+		}
+		if (name.equals("mod_dl_src"))
+		{ return new FlowAction(Type.SET_DL_SRC, null, MACAddress.valueOf(arg).toLong()); }
+		if (name.equals("mod_dl_dst"))
+		{ return new FlowAction(Type.SET_DL_DST, null, MACAddress.valueOf(arg).toLong()); }
+		if (name.equals("mod_vlan_pcp"))
+		{ return new FlowAction(Type.SET_VLAN_PCP, null, Integer.decode(arg) & 0x7); }
+		if (name.equals("mod_nw_src"))
+		{ return new FlowAction(Type.SET_NW_SRC, null, IPv4.toIPv4Address(arg)); }
+		if (name.equals("mod_nw_dst"))
+		{ return new FlowAction(Type.SET_NW_DST, null, IPv4.toIPv4Address(arg)); }
+		if (name.equals("mod_nw_tos"))
+		{ return new FlowAction(Type.SET_NW_TOS, null, Integer.decode(arg) & 0xff); }
+		if (name.equals("mod_tp_src"))
+		{ return new FlowAction(Type.SET_TP_SRC, null, Integer.decode(arg) & 0xffff); }
+		if (name.equals("mod_tp_dst"))
+		{ return new FlowAction(Type.SET_TP_DST, null, Integer.decode(arg) & 0xffff); }
+		throw new IllegalArgumentException("Unknown action " + action);
+	}
+
+	public String toString()
+	{
+		switch (this.type)
+		{
+		case OUTPUT:
+			return "output:" + this.port.getName();
+		case FLOOD:
+		case DROP:
+		case NORMAL:
+			return this.type.name().toLowerCase();
+		case SET_DL_SRC:
+		case SET_DL_DST:
+			return "mod_" + this.type.name().substring(4).toLowerCase() + ":"
+					+ MACAddress.valueOf(this.value).toString();
+		case SET_NW_SRC:
+		case SET_NW_DST:
+			return "mod_" + this.type.name().substring(4).toLowerCase() + ":"
+					+ IPv4.fromIPv4Address((int)this.value);
+		default:
+			return "mod_" + this.type.name().substring(4).toLowerCase() + ":"
+					+ this.value;
+		}
+	}
+}
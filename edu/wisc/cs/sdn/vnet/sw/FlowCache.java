@@ -0,0 +1,244 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the result of flow table classification in two levels, in the
+ * style of Open vSwitch:
+ * <ul>
+ * <li>an exact-match microflow cache keyed by a frame's complete flow key;</li>
+ * <li>a wildcarded megaflow cache, one hash table per mask (tuple space
+ *     search), where each megaflow covers every frame that agrees on the
+ *     fields classification actually looked at.</li>
+ * </ul>
+ * A cached result is either the matching flow entry or a table miss.
+ */
+class FlowCache
+{
+	/** Number of microflows after which the microflow cache is emptied */
+	static final int MAX_MICROFLOWS = 8192;
+
+	/** Number of megaflows after which the megaflow cache is emptied */
+	static final int MAX_MEGAFLOWS = 4096;
+
+	/** A cached classification result */
+	static class CachedFlow
+	{
+		/** Matching entry; null for a table miss */
+		final FlowEntry entry;
+
+		/** Megaflow match value (bits outside the mask are zero) */
+		final FlowKey match;
+
+		/** Fields classification depended on */
+		final FlowMask mask;
+
+		CachedFlow(FlowEntry entry, FlowKey match, FlowMask mask)
+		{
+			this.entry = entry;
+			this.match = match;
+			this.mask = mask;
+		}
+	}
+
+	private Map<FlowKey,CachedFlow> microflows;
+	private Map<FlowMask,Map<FlowKey,CachedFlow>> megaflows;
+	private AtomicInteger megaflowCount;
+
+	private AtomicLong microflowHits;
+	private AtomicLong megaflowHits;
+	private AtomicLong misses;
+
+	FlowCache()
+	{
+		this.microflows = new ConcurrentHashMap<FlowKey,CachedFlow>();
+		this.megaflows = new ConcurrentHashMap<FlowMask,Map<FlowKey,CachedFlow>>();
+		this.megaflowCount = new AtomicInteger();
+		this.microflowHits = new AtomicLong();
+		this.megaflowHits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/**
+	 * Lookup a frame's flow key in the microflow cache.
+	 * @param key flow key of a frame
+	 * @return the cached result; null on a microflow miss
+	 */
+	CachedFlow lookupMicroflow(FlowKey key)
+	{
+		CachedFlow cached = this.microflows.get(key);
+		if (cached != null)
+		{ this.microflowHits.incrementAndGet(); }
+		return cached;
+	}
+
+	/**
+	 * Lookup a frame's flow key in the megaflow cache. A hit is not promoted
+	 * to the microflow cache; the caller promotes it with
+	 * {@link #promote(FlowKey, CachedFlow)} if the flow table has not
+	 * changed since the lookup began.
+	 * @param key flow key of a frame
+	 * @return the cached result; null on a cache miss
+	 */
+	CachedFlow lookupMegaflow(FlowKey key)
+	{
+		for (Map.Entry<FlowMask,Map<FlowKey,CachedFlow>> subtable
+				: this.megaflows.entrySet())
+		{
+			CachedFlow cached = subtable.getValue().get(
+					key.mask(subtable.getKey()));
+			if (cached != null)
+			{
+				this.megaflowHits.incrementAndGet();
+				return cached;
+			}
+		}
+
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Cache a megaflow hit as a microflow, so the frame's flow is found with
+	 * one exact-match lookup from now on.
+	 * @param key flow key of the frame
+	 * @param cached the megaflow the frame hit
+	 */
+	void promote(FlowKey key, CachedFlow cached)
+	{ this.insertMicroflow(key, cached); }
+
+	/**
+	 * Cache the result of classifying a frame.
+	 * @param key flow key of the frame
+	 * @param cached result of classification
+	 */
+	void insert(FlowKey key, CachedFlow cached)
+	{
+		if (this.megaflowCount.get() >= MAX_MEGAFLOWS)
+		{ this.clear(); }
+
+		Map<FlowKey,CachedFlow> subtable = this.megaflows.get(cached.mask);
+		if (null == subtable)
+		{
+			subtable = new ConcurrentHashMap<FlowKey,CachedFlow>();
+			this.megaflows.put(cached.mask, subtable);
+		}
+		if (null == subtable.put(cached.match, cached))
+		{ this.megaflowCount.incrementAndGet(); }
+		this.insertMicroflow(key, cached);
+	}
+
+	private void insertMicroflow(FlowKey key, CachedFlow cached)
+	{
+		if (this.microflows.size() >= MAX_MICROFLOWS)
+		{ this.microflows.clear(); }
+		this.microflows.put(key, cached);
+	}
+
+	/**
+	 * Remove cached results that a new flow entry could change: those that
+	 * cover frames the entry matches and whose result has lower priority
+	 * than the entry (or is a table miss).
+	 * @param added the entry added to the flow table
+	 */
+	void invalidateAdded(FlowEntry added)
+	{
+		Iterator<Map.Entry<FlowKey,CachedFlow>> micro =
+				this.microflows.entrySet().iterator();
+		while (micro.hasNext())
+		{
+			Map.Entry<FlowKey,CachedFlow> flow = micro.next();
+			if (added.matches(flow.getKey())
+					&& isOutranked(flow.getValue(), added))
+			{ micro.remove(); }
+		}
+
+		for (Map<FlowKey,CachedFlow> subtable : this.megaflows.values())
+		{
+			Iterator<CachedFlow> mega = subtable.values().iterator();
+			while (mega.hasNext())
+			{
+				CachedFlow flow = mega.next();
+				if (isOutranked(flow, added)
+						&& FlowKey.overlaps(flow.match, flow.mask,
+								added.getMatch(), added.getMask()))
+				{
+					mega.remove();
+					this.megaflowCount.decrementAndGet();
+				}
+			}
+		}
+		this.removeEmptySubtables();
+	}
+
+	/**
+	 * Remove cached results that point at a removed flow entry.
+	 * @param removed the entry removed from the flow table
+	 */
+	void invalidateRemoved(FlowEntry removed)
+	{
+		Iterator<CachedFlow> micro = this.microflows.values().iterator();
+		while (micro.hasNext())
+		{
+			if (micro.next().entry == removed)
+			{ micro.remove(); }
+		}
+
+		for (Map<FlowKey,CachedFlow> subtable : this.megaflows.values())
+		{
+			Iterator<CachedFlow> mega = subtable.values().iterator();
+			while (mega.hasNext())
+			{
+				if (mega.next().entry == removed)
+				{
+					mega.remove();
+					this.megaflowCount.decrementAndGet();
+				}
+			}
+		}
+		this.removeEmptySubtables();
+	}
+
+	/**
+	 * Drop subtables left empty by invalidation so lookups do not probe them.
+	 */
+	private void removeEmptySubtables()
+	{
+		Iterator<Map<FlowKey,CachedFlow>> subtables =
+				this.megaflows.values().iterator();
+		while (subtables.hasNext())
+		{
+			if (subtables.next().isEmpty())
+			{ subtables.remove(); }
+		}
+	}
+
+	private static boolean isOutranked(CachedFlow flow, FlowEntry added)
+	{
+		return null == flow.entry
+				|| added.getPriority() > flow.entry.getPriority();
+	}
+
+	/**
+	 * Empty both caches.
+	 */
+	void clear()
+	{
+		this.microflows.clear();
+		this.megaflows.clear();
+		this.megaflowCount.set(0);
+	}
+
+	public String toString()
+	{
+		return String.format("Flow cache: %d microflows, %d megaflows in %d subtables; "
+				+ "microflow hits: %d megaflow hits: %d misses: %d",
+				this.microflows.size(), this.megaflowCount.get(),
+				this.megaflows.size(), this.microflowHits.get(),
+				this.megaflowHits.get(), this.misses.get());
+	}
+}
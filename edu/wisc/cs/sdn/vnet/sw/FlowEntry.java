@@ -0,0 +1,290 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * An entry in a switch's flow table: a priority, a wildcarded match and the
+ * actions to apply to matching frames.
+ */
+public class FlowEntry
+{
+	/** Priority used when a flow does not specify one (as in OpenFlow) */
+	public static final int DEFAULT_PRIORITY = 0x8000;
+
+	/** Entries with higher priority are matched first */
+	private int priority;
+
+	/** Match value; bits outside the mask are zero */
+	private FlowKey match;
+
+	/** Fields (bits) the entry matches on */
+	private FlowMask mask;
+
+	/** Actions applied, in order, to matching frames */
+	private List<FlowAction> actions;
+
+	private AtomicLong packetCount;
+	private AtomicLong byteCount;
+
+	/**
+	 * Create a flow entry.
+	 * @param priority entries with higher priority are matched first
+	 * @param match match value
+	 * @param mask fields the entry matches on
+	 * @param actions actions applied to matching frames
+	 */
+	public FlowEntry(int priority, FlowKey match, FlowMask mask,
+			List<FlowAction> actions)
+	{
+		this.priority = priority;
+		this.mask = mask;
+		this.match = match.mask(mask);
+		this.actions = new ArrayList<FlowAction>(actions);
+		this.packetCount = new AtomicLong();
+		this.byteCount = new AtomicLong();
+	}
+
+	public int getPriority()
+	{ return this.priority; }
+
+	public FlowKey getMatch()
+	{ return this.match; }
+
+	public FlowMask getMask()
+	{ return this.mask; }
+
+	public List<FlowAction> getActions()
+	{ return Collections.unmodifiableList(this.actions); }
+
+	/**
+	 * @param key flow key of a frame
+	 * @return true if the frame matches this entry
+	 */
+	public boolean matches(FlowKey key)
+	{ return key.matches(this.match, this.mask); }
+
+	/**
+	 * Count a frame that matched this entry.
+	 * @param length length of the frame in bytes
+	 */
+	public void count(int length)
+	{
+		this.packetCount.incrementAndGet();
+		this.byteCount.addAndGet(length);
+	}
+
+	public long getPacketCount()
+	{ return this.packetCount.get(); }
+
+	public long getByteCount()
+	{ return this.byteCount.get(); }
+
+	/**
+	 * Parse a flow in ovs-ofctl style, e.g.
+	 * "priority=100,in_port=eth1,tcp,nw_dst=10.0.1.0/24,tp_dst=80,actions=output:eth2".
+	 * @param line text of the flow
+	 * @param sw the switch the flow applies to
+	 * @return the parsed flow entry
+	 * @throws IllegalArgumentException if the flow cannot be parsed
+	 */
+	public static FlowEntry parse(String line, Switch sw)
+	{
+		int actionsStart = line.indexOf("actions=");
+		if (actionsStart < 0)
+		{ throw new IllegalArgumentException("Flow has no actions"); }
+
+		int priority = DEFAULT_PRIORITY;
+		Iface inPort = null;
+		long dlSrc = 0, dlDst = 0;
+		short dlVlan = 0, dlType = 0, tpSrc = 0, tpDst = 0;
+		byte dlVlanPcp = 0, nwTos = 0, nwProto = 0;
+		int nwSrc = 0, nwDst = 0;
+
+		boolean mInPort = false;
+		long mDlSrc = 0, mDlDst = 0;
+		short mDlVlan = 0, mDlType = 0, mTpSrc = 0, mTpDst = 0;
+		byte mDlVlanPcp = 0, mNwTos = 0, mNwProto = 0;
+		int mNwSrc = 0, mNwDst = 0;
+
+		String matchText = line.substring(0, actionsStart);
+		for (String field : matchText.split("[,\\s]+"))
+		{
+			if (field.isEmpty())
+			{ continue; }
+			int eq = field.indexOf('=');
+			String name = (eq < 0) ? field : field.substring(0, eq);
+			String value = (eq < 0) ? null : field.substring(eq + 1);
+
+			// Protocol shorthands
+			if (null == value)
+			{
+				if (name.equals("ip") || name.equals("icmp")
+						|| name.equals("tcp") || name.equals("udp"))
+				{
+					dlType = Ethernet.TYPE_IPv4;
+					mDlType = (short)0xffff;
+				}
+				else if (name.equals("arp"))
+				{
+					dlType = Ethernet.TYPE_ARP;
+					mDlType = (short)0xffff;
+				}
+				else
+				{ throw new IllegalArgumentException("Unknown field " + name); }
+
+				if (name.equals("icmp"))
+				{ nwProto = IPv4.PROTOCOL_ICMP; }
+				else if (name.equals("tcp"))
+				{ nwProto = IPv4.PROTOCOL_TCP; }
+				else if (name.equals("udp"))
+				{ nwProto = IPv4.PROTOCOL_UDP; }
+				if (name.equals("icmp") || name.equals("tcp")
+						|| name.equals("udp"))
+				{ mNwProto = (byte)0xff; }
+				continue;
+			}
+
+			if (name.equals("priority"))
+			{ priority = Integer.decode(value); }
+			else if (name.equals("in_port"))
+			{
+				inPort = sw.getInterface(value);
+				if (null == inPort)
+				{ throw new IllegalArgumentException("Invalid interface " + value); }
+				mInPort = true;
+			}
+			else if (name.equals("dl_src"))
+			{
+				dlSrc = MACAddress.valueOf(value).toLong();
+				mDlSrc = FlowMask.DL_ADDR_MASK;
+			}
+			else if (name.equals("dl_dst"))
+			{
+				dlDst = MACAddress.valueOf(value).toLong();
+				mDlDst = FlowMask.DL_ADDR_MASK;
+			}
+			else if (name.equals("dl_vlan"))
+			{
+				dlVlan = Integer.decode(value).shortValue();
+				mDlVlan = (short)0xffff;
+			}
+			else if (name.equals("dl_vlan_pcp"))
+			{
+				dlVlanPcp = Integer.decode(value).byteValue();
+				mDlVlanPcp = (byte)0xff;
+			}
+			else if (name.equals("dl_type"))
+			{
+				dlType = Integer.decode(value).shortValue();
+				mDlType = (short)0xffff;
+			}
+			else if (name.equals("nw_tos"))
+			{
+				nwTos = Integer.decode(value).byteValue();
+				mNwTos = (byte)0xff;
+			}
+			else if (name.equals("nw_proto"))
+			{
+				nwProto = Integer.decode(value).byteValue();
+				mNwProto = (byte)0xff;
+			}
+			else if (name.equals("nw_src"))
+			{
+				mNwSrc = parsePrefixMask(value);
+				nwSrc = IPv4.toIPv4Address(value.split("/")[0]);
+			}
+			else if (name.equals("nw_dst"))
+			{
+				mNwDst = parsePrefixMask(value);
+				nwDst = IPv4.toIPv4Address(value.split("/")[0]);
+			}
+			else if (name.equals("tp_src"))
+			{
+				tpSrc = Integer.decode(value).shortValue();
+				mTpSrc = (short)0xffff;
+			}
+			else if (name.equals("tp_dst"))
+			{
+				tpDst = Integer.decode(value).shortValue();
+				mTpDst = (short)0xffff;
+			}
+			else
+			{ throw new IllegalArgumentException("Unknown field " + name); }
+		}
+
+		List<FlowAction> actions = new ArrayList<FlowAction>();
+		String actionsText = line.substring(actionsStart + "actions=".length());
+		for (String action : actionsText.split("[,\\s]+"))
+		{
+			if (!action.isEmpty())
+			{ actions.add(FlowAction.parse(action, sw)); }
+		}
+
+		FlowKey match = new FlowKey(inPort, dlSrc, dlDst, dlVlan, dlVlanPcp,
+				dlType, nwTos, nwProto, nwSrc, nwDst, tpSrc, tpDst);
+		FlowMask mask = new FlowMask(mInPort, mDlSrc, mDlDst, mDlVlan,
+				mDlVlanPcp, mDlType, mNwTos, mNwProto, mNwSrc, mNwDst, mTpSrc,
+				mTpDst);
+		return new FlowEntry(priority, match, mask, actions);
+	}
+
+	private static int parsePrefixMask(String value)
+	{
+		String[] parts = value.split("/");
+		if (1 == parts.length)
+		{ return 0xffffffff; }
+		int prefixLength = Integer.parseInt(parts[1]);
+		if (prefixLength < 0 || prefixLength > 32)
+		{ throw new IllegalArgumentException("Invalid prefix length " + value); }
+		return FlowMask.prefixToMask(prefixLength);
+	}
+
+	public String toString()
+	{
+		String result = String.format("priority=%d", this.priority);
+		if (this.mask.inPort)
+		{ result += ",in_port=" + this.match.inPort.getName(); }
+		if (this.mask.dlSrc != 0)
+		{ result += ",dl_src=" + MACAddress.valueOf(this.match.dlSrc); }
+		if (this.mask.dlDst != 0)
+		{ result += ",dl_dst=" + MACAddress.valueOf(this.match.dlDst); }
+		if (this.mask.dlVlan != 0)
+		{ result += ",dl_vlan=" + this.match.dlVlan; }
+		if (this.mask.dlVlanPcp != 0)
+		{ result += ",dl_vlan_pcp=" + this.match.dlVlanPcp; }
+		if (this.mask.dlType != 0)
+		{ result += String.format(",dl_type=0x%04x", this.match.dlType); }
+		if (this.mask.nwTos != 0)
+		{ result += ",nw_tos=" + (this.match.nwTos & 0xff); }
+		if (this.mask.nwProto != 0)
+		{ result += ",nw_proto=" + (this.match.nwProto & 0xff); }
+		if (this.mask.nwSrc != 0)
+		{
+			result += ",nw_src=" + IPv4.fromIPv4Address(this.match.nwSrc)
+					+ "/" + Integer.bitCount(this.mask.nwSrc);
+		}
+		if (this.mask.nwDst != 0)
+		{
+			result += ",nw_dst=" + IPv4.fromIPv4Address(this.match.nwDst)
+					+ "/" + Integer.bitCount(this.mask.nwDst);
+		}
+		if (this.mask.tpSrc != 0)
+		{ result += ",tp_src=" + (this.match.tpSrc & 0xffff); }
+		if (this.mask.tpDst != 0)
+		{ result += ",tp_dst=" + (this.match.tpDst & 0xffff); }
+		result += String.format(" n_packets=%d n_bytes=%d actions=",
+				this.packetCount.get(), this.byteCount.get());
+		for (int i = 0; i < this.actions.size(); i++)
+		{ result += (i > 0 ? "," : "") + this.actions.get(i).toString(); }
+		return result;
+	}
+}
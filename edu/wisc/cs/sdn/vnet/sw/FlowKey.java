@@ -0,0 +1,210 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * The header fields of a frame that flow entries can match on, following the
+ * OpenFlow 1.0 twelve-tuple. Keys are immutable so they can be used as cache
+ * keys.
+ */
+public class FlowKey
+{
+	final Iface inPort;
+	final long dlSrc;
+	final long dlDst;
+	final short dlVlan;
+	final byte dlVlanPcp;
+	final short dlType;
+	final byte nwTos;
+	final byte nwProto;
+	final int nwSrc;
+	final int nwDst;
+	final short tpSrc;
+	final short tpDst;
+	private final int hash;
+
+	FlowKey(Iface inPort, long dlSrc, long dlDst, short dlVlan, byte dlVlanPcp,
+			short dlType, byte nwTos, byte nwProto, int nwSrc, int nwDst,
+			short tpSrc, short tpDst)
+	{
+		this.inPort = inPort;
+		this.dlSrc = dlSrc;
+		this.dlDst = dlDst;
+		this.dlVlan = dlVlan;
+		this.dlVlanPcp = dlVlanPcp;
+		this.dlType = dlType;
+		this.nwTos = nwTos;
+		this.nwProto = nwProto;
+		this.nwSrc = nwSrc;
+		this.nwDst = nwDst;
+		this.tpSrc = tpSrc;
+		this.tpDst = tpDst;
+
+		long h = (null == inPort) ? 0 : System.identityHashCode(inPort);
+		h = h * 31 + dlSrc;
+		h = h * 31 + dlDst;
+		h = h * 31 + dlVlan;
+		h = h * 31 + dlVlanPcp;
+		h = h * 31 + dlType;
+		h = h * 31 + nwTos;
+		h = h * 31 + nwProto;
+		h = h * 31 + nwSrc;
+		h = h * 31 + nwDst;
+		h = h * 31 + tpSrc;
+		h = h * 31 + tpDst;
+		this.hash = LinkAggregationGroup.mix(h);
+	}
+
+	/**
+	 * Extract the flow key of a frame.
+	 * @param etherPacket the frame
+	 * @param inPort the interface on which the frame was received
+	 * @return the frame's flow key
+	 */
+	public static FlowKey fromPacket(Ethernet etherPacket, Iface inPort)
+	{
+		byte nwTos = 0, nwProto = 0;
+		int nwSrc = 0, nwDst = 0;
+		short tpSrc = 0, tpDst = 0;
+
+		IPacket payload = etherPacket.getPayload();
+		if (payload instanceof IPv4)
+		{
+			IPv4 ipPacket = (IPv4)payload;
+			nwTos = ipPacket.getDiffServ();
+			nwProto = ipPacket.getProtocol();
+			nwSrc = ipPacket.getSourceAddress();
+			nwDst = ipPacket.getDestinationAddress();
+
+			IPacket transport = ipPacket.getPayload();
+			if (transport instanceof TCP)
+			{
+				tpSrc = ((TCP)transport).getSourcePort();
+				tpDst = ((TCP)transport).getDestinationPort();
+			}
+			else if (transport instanceof UDP)
+			{
+				tpSrc = ((UDP)transport).getSourcePort();
+				tpDst = ((UDP)transport).getDestinationPort();
+			}
+		}
+		else if (payload instanceof ARP)
+		{
+			// OpenFlow 1.0 matches the ARP opcode and protocol addresses as
+			// nw_proto, nw_src and nw_dst
+			ARP arp = (ARP)payload;
+			nwProto = (byte)arp.getOpCode();
+			if (arp.getSenderProtocolAddress().length == 4)
+			{ nwSrc = IPv4.toIPv4Address(arp.getSenderProtocolAddress()); }
+			if (arp.getTargetProtocolAddress().length == 4)
+			{ nwDst = IPv4.toIPv4Address(arp.getTargetProtocolAddress()); }
+		}
+
+		return new FlowKey(inPort, etherPacket.getSourceMACAsLong(),
+				etherPacket.getDestinationMACAsLong(),
+				etherPacket.getVlanID(), etherPacket.getPriorityCode(),
+				etherPacket.getEtherType(), nwTos, nwProto, nwSrc, nwDst,
+				tpSrc, tpDst);
+	}
+
+	/**
+	 * Clear every bit that is not covered by a mask.
+	 * @param mask the mask to apply
+	 * @return the masked key
+	 */
+	public FlowKey mask(FlowMask mask)
+	{
+		return new FlowKey(mask.inPort ? this.inPort : null,
+				this.dlSrc & mask.dlSrc, this.dlDst & mask.dlDst,
+				(short)(this.dlVlan & mask.dlVlan),
+				(byte)(this.dlVlanPcp & mask.dlVlanPcp),
+				(short)(this.dlType & mask.dlType),
+				(byte)(this.nwTos & mask.nwTos),
+				(byte)(this.nwProto & mask.nwProto),
+				this.nwSrc & mask.nwSrc, this.nwDst & mask.nwDst,
+				(short)(this.tpSrc & mask.tpSrc),
+				(short)(this.tpDst & mask.tpDst));
+	}
+
+	/**
+	 * Determine whether this key, with its bits outside a mask ignored,
+	 * equals a masked key.
+	 * @param value a key that is already masked
+	 * @param mask the mask
+	 * @return true if the key matches
+	 */
+	public boolean matches(FlowKey value, FlowMask mask)
+	{
+		return (!mask.inPort || this.inPort == value.inPort)
+				&& ((this.dlSrc & mask.dlSrc) == value.dlSrc)
+				&& ((this.dlDst & mask.dlDst) == value.dlDst)
+				&& ((this.dlVlan & mask.dlVlan) == value.dlVlan)
+				&& ((this.dlVlanPcp & mask.dlVlanPcp) == value.dlVlanPcp)
+				&& ((this.dlType & mask.dlType) == value.dlType)
+				&& ((this.nwTos & mask.nwTos) == value.nwTos)
+				&& ((this.nwProto & mask.nwProto) == value.nwProto)
+				&& ((this.nwSrc & mask.nwSrc) == value.nwSrc)
+				&& ((this.nwDst & mask.nwDst) == value.nwDst)
+				&& ((this.tpSrc & mask.tpSrc) == value.tpSrc)
+				&& ((this.tpDst & mask.tpDst) == value.tpDst);
+	}
+
+	/**
+	 * Determine whether some frame could match both of two masked keys.
+	 * @param a first masked key
+	 * @param aMask mask of the first key
+	 * @param b second masked key
+	 * @param bMask mask of the second key
+	 * @return true if the two matches overlap
+	 */
+	public static boolean overlaps(FlowKey a, FlowMask aMask, FlowKey b,
+			FlowMask bMask)
+	{
+		return (!aMask.inPort || !bMask.inPort || a.inPort == b.inPort)
+				&& ((a.dlSrc ^ b.dlSrc) & aMask.dlSrc & bMask.dlSrc) == 0
+				&& ((a.dlDst ^ b.dlDst) & aMask.dlDst & bMask.dlDst) == 0
+				&& ((a.dlVlan ^ b.dlVlan) & aMask.dlVlan & bMask.dlVlan) == 0
+				&& ((a.dlVlanPcp ^ b.dlVlanPcp) & aMask.dlVlanPcp & bMask.dlVlanPcp) == 0
+				&& ((a.dlType ^ b.dlType) & aMask.dlType & bMask.dlType) == 0
+				&& ((a.nwTos ^ b.nwTos) & aMask.nwTos & bMask.nwTos) == 0
+				&& ((a.nwProto ^ b.nwProto) & aMask.nwProto & bMask.nwProto) == 0
+				&& ((a.nwSrc ^ b.nwSrc) & aMask.nwSrc & bMask.nwSrc) == 0
+				&& ((a.nwDst ^ b.nwDst) & aMask.nwDst & bMask.nwDst) == 0
+				&& ((a.tpSrc ^ b.tpSrc) & aMask.tpSrc & bMask.tpSrc) == 0
+				&& ((a.tpDst ^ b.tpDst) & aMask.tpDst & bMask.tpDst) == 0;
+	}
+
+	@Override
+	public int hashCode()
+	{ return this.hash; }
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{ return true; }
+		if (!(obj instanceof FlowKey))
+		{ return false; }
+		FlowKey other = (FlowKey)obj;
+		return this.hash == other.hash
+				&& this.inPort == other.inPort
+				&& this.dlSrc == other.dlSrc
+				&& this.dlDst == other.dlDst
+				&& this.dlVlan == other.dlVlan
+				&& this.dlVlanPcp == other.dlVlanPcp
+				&& this.dlType == other.dlType
+				&& this.nwTos == other.nwTos
+				&& this.nwProto == other.nwProto
+				&& this.nwSrc == other.nwSrc
+				&& this.nwDst == other.nwDst
+				&& this.tpSrc == other.tpSrc
+				&& this.tpDst == other.tpDst;
+	}
+}
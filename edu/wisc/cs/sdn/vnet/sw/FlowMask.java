@@ -0,0 +1,113 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+/**
+ * The bits of a {@link FlowKey} a flow entry or cached flow depends on; a
+ * cleared bit is a wildcard. Masks are immutable so they can be used as
+ * cache keys.
+ */
+public class FlowMask
+{
+	/** Mask that wildcards every field */
+	public static final FlowMask ALL_WILDCARDS = new FlowMask(false, 0L, 0L,
+			(short)0, (byte)0, (short)0, (byte)0, (byte)0, 0, 0, (short)0,
+			(short)0);
+
+	static final long DL_ADDR_MASK = 0xffffffffffffL;
+
+	final boolean inPort;
+	final long dlSrc;
+	final long dlDst;
+	final short dlVlan;
+	final byte dlVlanPcp;
+	final short dlType;
+	final byte nwTos;
+	final byte nwProto;
+	final int nwSrc;
+	final int nwDst;
+	final short tpSrc;
+	final short tpDst;
+
+	FlowMask(boolean inPort, long dlSrc, long dlDst, short dlVlan,
+			byte dlVlanPcp, short dlType, byte nwTos, byte nwProto, int nwSrc,
+			int nwDst, short tpSrc, short tpDst)
+	{
+		this.inPort = inPort;
+		this.dlSrc = dlSrc;
+		this.dlDst = dlDst;
+		this.dlVlan = dlVlan;
+		this.dlVlanPcp = dlVlanPcp;
+		this.dlType = dlType;
+		this.nwTos = nwTos;
+		this.nwProto = nwProto;
+		this.nwSrc = nwSrc;
+		this.nwDst = nwDst;
+		this.tpSrc = tpSrc;
+		this.tpDst = tpDst;
+	}
+
+	/**
+	 * @param other another mask
+	 * @return a mask covering every bit covered by either mask
+	 */
+	public FlowMask union(FlowMask other)
+	{
+		return new FlowMask(this.inPort || other.inPort,
+				this.dlSrc | other.dlSrc, this.dlDst | other.dlDst,
+				(short)(this.dlVlan | other.dlVlan),
+				(byte)(this.dlVlanPcp | other.dlVlanPcp),
+				(short)(this.dlType | other.dlType),
+				(byte)(this.nwTos | other.nwTos),
+				(byte)(this.nwProto | other.nwProto),
+				this.nwSrc | other.nwSrc, this.nwDst | other.nwDst,
+				(short)(this.tpSrc | other.tpSrc),
+				(short)(this.tpDst | other.tpDst));
+	}
+
+	/**
+	 * Convert a prefix length to an IPv4 netmask.
+	 * @param prefixLength number of leading one bits (0-32)
+	 * @return the netmask
+	 */
+	public static int prefixToMask(int prefixLength)
+	{ return (0 == prefixLength) ? 0 : (0xffffffff << (32 - prefixLength)); }
+
+	@Override
+	public int hashCode()
+	{
+		long h = this.inPort ? 1 : 0;
+		h = h * 31 + this.dlSrc;
+		h = h * 31 + this.dlDst;
+		h = h * 31 + this.dlVlan;
+		h = h * 31 + this.dlVlanPcp;
+		h = h * 31 + this.dlType;
+		h = h * 31 + this.nwTos;
+		h = h * 31 + this.nwProto;
+		h = h * 31 + this.nwSrc;
+		h = h * 31 + this.nwDst;
+		h = h * 31 + this.tpSrc;
+		h = h * 31 + this.tpDst;
+		return LinkAggregationGroup.mix(h);
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{ return true; }
+		if (!(obj instanceof FlowMask))
+		{ return false; }
+		FlowMask other = (FlowMask)obj;
+		return this.inPort == other.inPort
+				&& this.dlSrc == other.dlSrc
+				&& this.dlDst == other.dlDst
+				&& this.dlVlan == other.dlVlan
+				&& this.dlVlanPcp == other.dlVlanPcp
+				&& this.dlType == other.dlType
+				&& this.nwTos == other.nwTos
+				&& this.nwProto == other.nwProto
+				&& this.nwSrc == other.nwSrc
+				&& this.nwDst == other.nwDst
+				&& this.tpSrc == other.tpSrc
+				&& this.tpDst == other.tpDst;
+	}
+}
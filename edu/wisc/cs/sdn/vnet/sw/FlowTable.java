@@ -0,0 +1,210 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A priority-ordered match-action flow table for a switch. Classification
+ * results are cached in a {@link FlowCache} so steady-state frames skip the
+ * linear search; inserting or removing an entry invalidates only the cached
+ * results it affects.
+ */
+public class FlowTable
+{
+	/** Entries sorted by descending priority; entries with equal priority
+	 *  keep insertion order. Replaced as a whole on every change so lookups
+	 *  never lock. */
+	private volatile FlowEntry[] entries;
+
+	/** Cached classification results */
+	private FlowCache cache;
+
+	/** Incremented on every change to the table, so a classification or
+	 *  megaflow hit that raced with a change is not cached; only changed 
+	 *  while holding this */
+	private volatile long generation;
+
+	/**
+	 * Initialize an empty flow table.
+	 */
+	public FlowTable()
+	{
+		this.entries = new FlowEntry[0];
+		this.cache = new FlowCache();
+		this.generation = 0;
+	}
+
+	/**
+	 * @return true if the table has no entries
+	 */
+	public boolean isEmpty()
+	{ return 0 == this.entries.length; }
+
+	/**
+	 * Lookup the highest priority entry that matches a frame.
+	 * @param key flow key of the frame
+	 * @return the matching entry; null on a table miss
+	 */
+	public FlowEntry lookup(FlowKey key)
+	{
+		FlowCache.CachedFlow cached = this.cache.lookupMicroflow(key);
+		if (cached != null)
+		{ return cached.entry; }
+
+		// A megaflow found while an entry is inserted may be stale: promote
+		// it only if no change began since, or invalidation could already
+		// have swept the microflows and it would stay cached for good
+		long startGeneration = this.generation;
+		cached = this.cache.lookupMegaflow(key);
+		if (cached != null)
+		{
+			synchronized(this)
+			{
+				if (startGeneration == this.generation)
+				{ this.cache.promote(key, cached); }
+			}
+			return cached.entry;
+		}
+
+		// The megaflow depends on every field any entry examined before the
+		// match was found, including entries that did not match
+		FlowEntry[] table = this.entries;
+		FlowMask mask = FlowMask.ALL_WILDCARDS;
+		FlowEntry match = null;
+		for (FlowEntry entry : table)
+		{
+			mask = mask.union(entry.getMask());
+			if (entry.matches(key))
+			{
+				match = entry;
+				break;
+			}
+		}
+
+		synchronized(this)
+		{
+			if (startGeneration == this.generation)
+			{
+				this.cache.insert(key, new FlowCache.CachedFlow(match,
+						key.mask(mask), mask));
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Add an entry to the flow table.
+	 * @param entry the entry to add
+	 */
+	public synchronized void insert(FlowEntry entry)
+	{
+		FlowEntry[] table = this.entries;
+		int index = 0;
+		while (index < table.length
+				&& table[index].getPriority() >= entry.getPriority())
+		{ index++; }
+
+		FlowEntry[] updated = new FlowEntry[table.length + 1];
+		System.arraycopy(table, 0, updated, 0, index);
+		updated[index] = entry;
+		System.arraycopy(table, index, updated, index + 1, table.length - index);
+		this.entries = updated;
+		this.generation++;
+		this.cache.invalidateAdded(entry);
+	}
+
+	/**
+	 * Remove an entry from the flow table.
+	 * @param entry the entry to remove
+	 * @return true if the entry was found and removed, otherwise false
+	 */
+	public synchronized boolean remove(FlowEntry entry)
+	{
+		FlowEntry[] table = this.entries;
+		int index = Arrays.asList(table).indexOf(entry);
+		if (index < 0)
+		{ return false; }
+
+		FlowEntry[] updated = new FlowEntry[table.length - 1];
+		System.arraycopy(table, 0, updated, 0, index);
+		System.arraycopy(table, index + 1, updated, index, table.length - index - 1);
+		this.entries = updated;
+		this.generation++;
+		this.cache.invalidateRemoved(entry);
+		return true;
+	}
+
+	/**
+	 * Populate the flow table from a file with one flow per line.
+	 * @param filename name of the file containing the flows
+	 * @param sw the switch the flows apply to
+	 * @return true if the flows were successfully loaded, otherwise false
+	 */
+	public boolean load(String filename, Switch sw)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+
+		while (true)
+		{
+			// Read a flow from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{ continue; }
+
+			// Parse and add the flow
+			try
+			{ this.insert(FlowEntry.parse(line, sw)); }
+			catch (IllegalArgumentException iae)
+			{
+				System.err.println("Error loading flow table, " + iae.getMessage()
+						+ " in " + line);
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return true;
+	}
+
+	public String toString()
+	{
+		FlowEntry[] table = this.entries;
+		if (0 == table.length)
+		{ return " WARNING: flow table empty\n"; }
+
+		String result = "";
+		for (FlowEntry entry : table)
+		{ result += entry.toString()+"\n"; }
+		result += this.cache.toString()+"\n";
+		return result;
+	}
+}
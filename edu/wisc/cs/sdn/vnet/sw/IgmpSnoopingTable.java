@@ -0,0 +1,186 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.packet.IGMP;
+import net.floodlightcontroller.packet.IGMPGroupRecord;
+import net.floodlightcontroller.packet.IPv4;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Multicast group membership learned by snooping IGMP messages.
+ */
+public class IgmpSnoopingTable
+{
+	/** Time (in milliseconds) after which a group member that has not sent a
+	 *  report is removed; the IGMP group membership interval (RFC 2236 8.4) */
+	public static final long MEMBERSHIP_TIMEOUT = 260000;
+
+	/** Time (in milliseconds) after which a port on which no query has been
+	 *  received is no longer considered a multicast router port */
+	public static final long ROUTER_PORT_TIMEOUT = 260000;
+
+	/** Member ports of each group; maps a group address to a map from
+	 *  interface to the time (in milliseconds) the last report was seen */
+	private Map<Integer,Map<Iface,Long>> groups;
+
+	/** Ports that lead to a multicast router; maps an interface to the time
+	 *  (in milliseconds) the last query was seen */
+	private Map<Iface,Long> routerPorts;
+
+	/**
+	 * Initializes an empty IGMP snooping table.
+	 */
+	public IgmpSnoopingTable()
+	{
+		this.groups = new ConcurrentHashMap<Integer,Map<Iface,Long>>();
+		this.routerPorts = new ConcurrentHashMap<Iface,Long>();
+	}
+
+	/**
+	 * Update group membership and router ports from an IGMP message.
+	 * @param igmp the IGMP message that was received
+	 * @param inIface the interface on which the message was received
+	 */
+	public void snoop(IGMP igmp, Iface inIface)
+	{
+		long now = System.currentTimeMillis();
+		switch (igmp.getIgmpType())
+		{
+		case IGMP.TYPE_MEMBERSHIP_QUERY:
+			this.routerPorts.put(inIface, now);
+			break;
+		case IGMP.TYPE_V1_MEMBERSHIP_REPORT:
+		case IGMP.TYPE_V2_MEMBERSHIP_REPORT:
+			this.addMember(igmp.getGroupAddress(), inIface, now);
+			break;
+		case IGMP.TYPE_V2_LEAVE_GROUP:
+			this.removeMember(igmp.getGroupAddress(), inIface);
+			break;
+		case IGMP.TYPE_V3_MEMBERSHIP_REPORT:
+			for (IGMPGroupRecord record : igmp.getGroupRecords())
+			{
+				if (record.isJoin())
+				{ this.addMember(record.getMulticastAddress(), inIface, now); }
+				else if (record.isLeave())
+				{ this.removeMember(record.getMulticastAddress(), inIface); }
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Add (or refresh) a member port for a group.
+	 * @param group multicast group address
+	 * @param iface interface on which a member was heard
+	 * @param now current time in milliseconds
+	 */
+	public void addMember(int group, Iface iface, long now)
+	{
+		if (!isSnoopableGroup(group))
+		{ return; }
+		Map<Iface,Long> members = this.groups.get(group);
+		if (null == members)
+		{
+			members = new ConcurrentHashMap<Iface,Long>();
+			Map<Iface,Long> existing = this.groups.putIfAbsent(group, members);
+			if (existing != null)
+			{ members = existing; }
+		}
+		members.put(iface, now);
+	}
+
+	/**
+	 * Remove a member port from a group.
+	 * @param group multicast group address
+	 * @param iface interface on which the member left
+	 */
+	public void removeMember(int group, Iface iface)
+	{
+		Map<Iface,Long> members = this.groups.get(group);
+		if (null == members)
+		{ return; }
+		members.remove(iface);
+		if (members.isEmpty())
+		{ this.groups.remove(group, members); }
+	}
+
+	/**
+	 * Lookup the ports to which traffic for a multicast group should be sent.
+	 * @param group multicast group address
+	 * @return the member ports plus all router ports; null if no member is
+	 *         known for the group, in which case the traffic should be flooded
+	 */
+	public Set<Iface> lookup(int group)
+	{
+		Map<Iface,Long> members = this.groups.get(group);
+		if (null == members || members.isEmpty())
+		{ return null; }
+		Set<Iface> ports = new HashSet<Iface>(members.keySet());
+		ports.addAll(this.routerPorts.keySet());
+		return ports;
+	}
+
+	/**
+	 * @return ports on which a multicast router (IGMP querier) was heard
+	 */
+	public Collection<Iface> getRouterPorts()
+	{ return this.routerPorts.keySet(); }
+
+	/**
+	 * Remove members and router ports that have not been refreshed in time.
+	 * @param now current time in milliseconds
+	 */
+	public void expire(long now)
+	{
+		for (Map.Entry<Integer,Map<Iface,Long>> group : this.groups.entrySet())
+		{
+			Map<Iface,Long> members = group.getValue();
+			for (Map.Entry<Iface,Long> member : members.entrySet())
+			{
+				if (now - member.getValue() > MEMBERSHIP_TIMEOUT)
+				{ members.remove(member.getKey(), member.getValue()); }
+			}
+			if (members.isEmpty())
+			{ this.groups.remove(group.getKey(), members); }
+		}
+		for (Map.Entry<Iface,Long> port : this.routerPorts.entrySet())
+		{
+			if (now - port.getValue() > ROUTER_PORT_TIMEOUT)
+			{ this.routerPorts.remove(port.getKey(), port.getValue()); }
+		}
+	}
+
+	/**
+	 * Groups in the local network control block (224.0.0.0/24) are always
+	 * flooded, since hosts do not report membership for them (RFC 4541 2.1.2).
+	 * @param group multicast group address
+	 * @return true if forwarding for the group may be restricted to members
+	 */
+	public static boolean isSnoopableGroup(int group)
+	{
+		return ((group & 0xf0000000) == 0xe0000000)
+				&& ((group & 0xffffff00) != 0xe0000000);
+	}
+
+	public String toString()
+	{
+		String result = "Group\t\tPorts\n";
+		for (Map.Entry<Integer,Map<Iface,Long>> group : this.groups.entrySet())
+		{
+			result += IPv4.fromIPv4Address(group.getKey()) + "\t";
+			for (Iface iface : group.getValue().keySet())
+			{ result += iface.getName() + " "; }
+			result += "\n";
+		}
+		result += "Router ports: ";
+		for (Iface iface : this.routerPorts.keySet())
+		{ result += iface.getName() + " "; }
+		return result;
+	}
+}
@@ -0,0 +1,214 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * A logical switch port made of several interfaces that connect to the same
+ * neighbor. Frames are spread over the members by hashing their headers, so
+ * all frames of a flow use the same member and stay in order.
+ */
+public class LinkAggregationGroup
+{
+	/** Name of the group */
+	private String name;
+
+	/** All interfaces that belong to the group */
+	private List<Iface> members;
+
+	/** Members that are currently up; replaced whenever a member fails or
+	 *  recovers so that selection never sees a partially updated list */
+	private volatile Iface[] activeMembers;
+
+	/**
+	 * Create a link aggregation group.
+	 * @param name name of the group
+	 * @param members interfaces that belong to the group
+	 */
+	public LinkAggregationGroup(String name, List<Iface> members)
+	{
+		this.name = name;
+		this.members = new ArrayList<Iface>(members);
+		this.activeMembers = this.members.toArray(new Iface[0]);
+	}
+
+	/**
+	 * @return name of the group
+	 */
+	public String getName()
+	{ return this.name; }
+
+	/**
+	 * @return all interfaces that belong to the group
+	 */
+	public List<Iface> getMembers()
+	{ return Collections.unmodifiableList(this.members); }
+
+	/**
+	 * Mark a member as up or down; traffic is rebalanced over the members
+	 * that remain up.
+	 * @param iface member interface
+	 * @param up true if the member can carry traffic
+	 */
+	public synchronized void setMemberUp(Iface iface, boolean up)
+	{
+		List<Iface> active = new ArrayList<Iface>();
+		for (Iface member : this.activeMembers)
+		{
+			if (member != iface)
+			{ active.add(member); }
+		}
+		if (up && this.members.contains(iface))
+		{ active.add(iface); }
+
+		// Keep the configured order so every flow maps the same way again
+		// once all members are back up
+		List<Iface> ordered = new ArrayList<Iface>();
+		for (Iface member : this.members)
+		{
+			if (active.contains(member))
+			{ ordered.add(member); }
+		}
+		this.activeMembers = ordered.toArray(new Iface[0]);
+	}
+
+	/**
+	 * Choose the member out which a frame should be sent.
+	 * @param etherPacket the frame to send
+	 * @return the selected member; null if no member is up
+	 */
+	public Iface selectMember(Ethernet etherPacket)
+	{
+		Iface[] active = this.activeMembers;
+		if (0 == active.length)
+		{ return null; }
+		if (1 == active.length)
+		{ return active[0]; }
+		int hash = hashHeaders(etherPacket);
+		return active[(hash & 0x7fffffff) % active.length];
+	}
+
+	/**
+	 * Choose the member out which a frame should be sent.
+	 * @param hash hash of the frame's headers, from {@link #hashHeaders}
+	 * @return the selected member; null if no member is up
+	 */
+	public Iface selectMember(int hash)
+	{
+		Iface[] active = this.activeMembers;
+		if (0 == active.length)
+		{ return null; }
+		return active[(hash & 0x7fffffff) % active.length];
+	}
+
+	/**
+	 * Hash the L2, L3 and L4 headers that identify a flow.
+	 * @param etherPacket the frame to hash
+	 * @return the hash of the frame's flow
+	 */
+	public static int hashHeaders(Ethernet etherPacket)
+	{
+		long hash = etherPacket.getSourceMACAsLong();
+		hash = hash * 31 + etherPacket.getDestinationMACAsLong();
+		hash = hash * 31 + etherPacket.getEtherType();
+
+		IPacket payload = etherPacket.getPayload();
+		if (payload instanceof IPv4)
+		{
+			IPv4 ipPacket = (IPv4)payload;
+			hash = hash * 31 + ipPacket.getSourceAddress();
+			hash = hash * 31 + ipPacket.getDestinationAddress();
+			hash = hash * 31 + ipPacket.getProtocol();
+
+			// every fragment of a datagram hashes alike; only the first
+			// carries the ports
+			boolean fragment = (ipPacket.getFlags() & IPv4.FLAG_MORE_FRAGMENTS) != 0
+					|| ipPacket.getFragmentOffset() != 0;
+			IPacket transport = fragment ? null : ipPacket.getPayload();
+			if (transport instanceof TCP)
+			{
+				TCP tcp = (TCP)transport;
+				hash = hash * 31 + tcp.getSourcePort();
+				hash = hash * 31 + tcp.getDestinationPort();
+			}
+			else if (transport instanceof UDP)
+			{
+				UDP udp = (UDP)transport;
+				hash = hash * 31 + udp.getSourcePort();
+				hash = hash * 31 + udp.getDestinationPort();
+			}
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Hash the L2, L3 and L4 headers that identify a flow, reading them
+	 * directly from the frame. Produces the same hash as
+	 * {@link #hashHeaders(Ethernet)}.
+	 * @param frame view of the frame to hash
+	 * @return the hash of the frame's flow
+	 */
+	public static int hashHeaders(EthernetView frame)
+	{
+		long hash = frame.getSourceMAC();
+		hash = hash * 31 + frame.getDestinationMAC();
+		hash = hash * 31 + frame.getEtherType();
+
+		IPv4View ipPacket = frame.getIPv4();
+		if (ipPacket != null)
+		{
+			hash = hash * 31 + ipPacket.getSourceAddress();
+			hash = hash * 31 + ipPacket.getDestinationAddress();
+			hash = hash * 31 + ipPacket.getProtocol();
+			if (!ipPacket.isFragment()
+					&& (IPv4.PROTOCOL_TCP == ipPacket.getProtocol()
+					|| IPv4.PROTOCOL_UDP == ipPacket.getProtocol()))
+			{
+				hash = hash * 31 + ipPacket.getSourcePort();
+				hash = hash * 31 + ipPacket.getDestinationPort();
+			}
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Spread the bits of a hash so that flows differing only in a few low
+	 * bits (e.g. port numbers) still land on different members.
+	 * @param hash value to mix
+	 * @return mixed 32-bit value
+	 */
+	static int mix(long hash)
+	{
+		hash ^= (hash >>> 33);
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= (hash >>> 33);
+		return (int)hash;
+	}
+
+	public String toString()
+	{
+		String result = this.name + "\t";
+		Iface[] active = this.activeMembers;
+		for (Iface member : this.members)
+		{
+			boolean up = false;
+			for (Iface a : active)
+			{ up |= (a == member); }
+			result += member.getName() + (up ? " " : "(down) ");
+		}
+		return result;
+	}
+}
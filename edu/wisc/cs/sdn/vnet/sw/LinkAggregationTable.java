@@ -0,0 +1,164 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Link aggregation groups configured on a switch.
+ */
+public class LinkAggregationTable
+{
+	/** Configured groups; maps a group name to a group */
+	private Map<String,LinkAggregationGroup> groups;
+
+	/** Maps each member interface to the group it belongs to */
+	private Map<Iface,LinkAggregationGroup> memberships;
+
+	/**
+	 * Initialize an empty link aggregation table.
+	 */
+	public LinkAggregationTable()
+	{
+		this.groups = new ConcurrentHashMap<String,LinkAggregationGroup>();
+		this.memberships = new ConcurrentHashMap<Iface,LinkAggregationGroup>();
+	}
+
+	/**
+	 * Lookup the group an interface belongs to.
+	 * @param iface interface
+	 * @return the group the interface is a member of, null if none
+	 */
+	public LinkAggregationGroup lookup(Iface iface)
+	{ return this.memberships.get(iface); }
+
+	/**
+	 * @return all configured groups
+	 */
+	public Collection<LinkAggregationGroup> getGroups()
+	{ return this.groups.values(); }
+
+	/**
+	 * @return true if no group is configured
+	 */
+	public boolean isEmpty()
+	{ return this.groups.isEmpty(); }
+
+	/**
+	 * Add a group to the table.
+	 * @param group the group to add
+	 * @return true if the group was added, false if one of its members
+	 *         already belongs to another group
+	 */
+	public boolean insert(LinkAggregationGroup group)
+	{
+		for (Iface member : group.getMembers())
+		{
+			if (this.memberships.containsKey(member))
+			{ return false; }
+		}
+		this.groups.put(group.getName(), group);
+		for (Iface member : group.getMembers())
+		{ this.memberships.put(member, group); }
+		return true;
+	}
+
+	/**
+	 * Populate the table from a file. Each line names a group followed by two
+	 * or more member interfaces, e.g. "po1 eth1 eth2".
+	 * @param filename name of the file containing the groups
+	 * @param sw the switch the groups are configured on
+	 * @return true if the groups were successfully loaded, otherwise false
+	 */
+	public boolean load(String filename, Switch sw)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+
+		while (true)
+		{
+			// Read a group from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{ continue; }
+
+			// Parse fields for the group
+			String[] fields = line.split("\\s+");
+			if (fields.length < 3)
+			{
+				System.err.println("Invalid entry in link aggregation file");
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			List<Iface> members = new ArrayList<Iface>();
+			for (int i = 1; i < fields.length; i++)
+			{
+				Iface iface = sw.getInterface(fields[i]);
+				if (null == iface)
+				{
+					System.err.println("Error loading link aggregation groups, invalid interface "
+							+ fields[i]);
+					try { reader.close(); } catch (IOException f) {};
+					return false;
+				}
+				members.add(iface);
+			}
+
+			// Add the group to the table
+			if (!this.insert(new LinkAggregationGroup(fields[0], members)))
+			{
+				System.err.println("Error loading link aggregation groups, interface in more than one group: "
+						+ line);
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return true;
+	}
+
+	public String toString()
+	{
+		if (0 == this.groups.size())
+		{ return " WARNING: no link aggregation groups"; }
+
+		String result = "Group\tMembers\n";
+		for (LinkAggregationGroup group : this.groups.values())
+		{ result += group.toString()+"\n"; }
+		return result;
+	}
+}
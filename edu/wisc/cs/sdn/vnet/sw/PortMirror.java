@@ -0,0 +1,291 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Port mirroring (SPAN) sessions for a switch. Frames received or sent on a
+ * mirrored port are handed to a bounded lock-free queue and copied to the
+ * session's monitor port by a background thread. When the queue is full the
+ * copy is dropped, so mirroring never delays forwarding.
+ */
+public class PortMirror extends Thread
+{
+	/** Default maximum number of copies waiting to be sent */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/** Switch the sessions are configured on */
+	private Switch sw;
+
+	/** Monitor port for frames received on each mirrored port */
+	private Map<Iface,Iface> ingressSessions;
+
+	/** Monitor port for frames sent on each mirrored port */
+	private Map<Iface,Iface> egressSessions;
+
+	/** Copies waiting to be sent to a monitor port */
+	private Queue<MirroredFrame> queue;
+
+	/** Number of copies in the queue; bounds the queue without locking */
+	private AtomicInteger queued;
+
+	/** Maximum number of copies in the queue */
+	private int capacity;
+
+	/** Copies sent to a monitor port */
+	private AtomicLong mirrored;
+
+	/** Copies dropped because the queue was full */
+	private AtomicLong dropped;
+
+	/** True while the mirror thread is parked waiting for copies */
+	private volatile boolean idle;
+
+	private volatile boolean running;
+
+	/** A frame to copy to a monitor port; the frame bytes are shared with
+	 *  the forwarding path and never modified */
+	private static class MirroredFrame
+	{
+		private final byte[] frame;
+		private final Iface monitor;
+
+		private MirroredFrame(byte[] frame, Iface monitor)
+		{
+			this.frame = frame;
+			this.monitor = monitor;
+		}
+	}
+
+	/**
+	 * Create a port mirror with no sessions; the mirror thread is started 
+	 * when the first session is added.
+	 * @param sw the switch the sessions are configured on
+	 */
+	public PortMirror(Switch sw)
+	{
+		this.sw = sw;
+		this.ingressSessions = new ConcurrentHashMap<Iface,Iface>();
+		this.egressSessions = new ConcurrentHashMap<Iface,Iface>();
+		this.queue = new ConcurrentLinkedQueue<MirroredFrame>();
+		this.queued = new AtomicInteger();
+		this.capacity = DEFAULT_QUEUE_CAPACITY;
+		this.mirrored = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.running = true;
+		this.setName("mirror-" + sw.getHost());
+		this.setDaemon(true);
+	}
+
+	/**
+	 * @param capacity maximum number of copies waiting to be sent
+	 */
+	public void setQueueCapacity(int capacity)
+	{ this.capacity = capacity; }
+
+	/**
+	 * Add a mirror session. The mirror thread is started with the first 
+	 * session, so a switch without sessions runs no mirror thread.
+	 * @param source port whose traffic is mirrored
+	 * @param ingress true to mirror frames received on the port
+	 * @param egress true to mirror frames sent on the port
+	 * @param monitor port to which copies are sent
+	 */
+	public synchronized void addSession(Iface source, boolean ingress, 
+			boolean egress, Iface monitor)
+	{
+		if (ingress)
+		{ this.ingressSessions.put(source, monitor); }
+		if (egress)
+		{ this.egressSessions.put(source, monitor); }
+		if (State.NEW == this.getState() && this.running)
+		{ this.start(); }
+	}
+
+	/**
+	 * @return true if no session is configured
+	 */
+	public boolean isEmpty()
+	{ return this.ingressSessions.isEmpty() && this.egressSessions.isEmpty(); }
+
+	/**
+	 * Mirror a frame received on a port, if the port is mirrored.
+	 * @param frame serialized frame
+	 * @param inIface interface on which the frame was received
+	 */
+	public void mirrorIngress(byte[] frame, Iface inIface)
+	{
+		Iface monitor = this.ingressSessions.get(inIface);
+		if (monitor != null && monitor != inIface)
+		{ this.offer(frame, monitor); }
+	}
+
+	/**
+	 * Mirror a frame sent on a port, if the port is mirrored.
+	 * @param frame serialized frame
+	 * @param outIface interface on which the frame was sent
+	 */
+	public void mirrorEgress(byte[] frame, Iface outIface)
+	{
+		Iface monitor = this.egressSessions.get(outIface);
+		if (monitor != null && monitor != outIface)
+		{ this.offer(frame, monitor); }
+	}
+
+	private void offer(byte[] frame, Iface monitor)
+	{
+		if (this.queued.incrementAndGet() > this.capacity)
+		{
+			this.queued.decrementAndGet();
+			this.dropped.incrementAndGet();
+			return;
+		}
+		this.queue.offer(new MirroredFrame(frame, monitor));
+		if (this.idle)
+		{ LockSupport.unpark(this); }
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			MirroredFrame copy = this.queue.poll();
+			if (null == copy)
+			{
+				if (!this.running)
+				{ return; }
+				this.idle = true;
+				// Recheck after publishing idle so a concurrent offer is not missed
+				if (this.queue.isEmpty() && this.running)
+				{ LockSupport.parkNanos(this, 100000000L); }
+				this.idle = false;
+				continue;
+			}
+			this.queued.decrementAndGet();
+			this.sw.transmit(copy.frame, copy.monitor);
+			this.mirrored.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Send the copies already queued and stop the mirror thread.
+	 */
+	public void shutdown()
+	{
+		this.running = false;
+		LockSupport.unpark(this);
+		try { this.join(); }
+		catch (InterruptedException e) { }
+	}
+
+	/**
+	 * @return number of copies sent to monitor ports
+	 */
+	public long getMirroredCount()
+	{ return this.mirrored.get(); }
+
+	/**
+	 * @return number of copies dropped because the monitor fell behind
+	 */
+	public long getDroppedCount()
+	{ return this.dropped.get(); }
+
+	/**
+	 * Load mirror sessions from a file. Each line names a mirrored port, a
+	 * direction (ingress, egress or both) and a monitor port, e.g.
+	 * "eth1 both eth3".
+	 * @param filename name of the file containing the sessions
+	 * @return true if the sessions were successfully loaded, otherwise false
+	 */
+	public boolean load(String filename)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+
+		while (true)
+		{
+			// Read a session from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{ continue; }
+
+			// Parse fields for the session
+			String[] fields = line.split("\\s+");
+			if (fields.length != 3 || !(fields[1].equals("ingress")
+					|| fields[1].equals("egress") || fields[1].equals("both")))
+			{
+				System.err.println("Invalid entry in mirror file");
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			Iface source = this.sw.getInterface(fields[0]);
+			Iface monitor = this.sw.getInterface(fields[2]);
+			if (null == source || null == monitor)
+			{
+				System.err.println("Error loading mirror sessions, invalid interface in "
+						+ line);
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Add the session
+			this.addSession(source, !fields[1].equals("egress"),
+					!fields[1].equals("ingress"), monitor);
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return true;
+	}
+
+	public String toString()
+	{
+		String result = "Source\tDirection\tMonitor\n";
+		for (Map.Entry<Iface,Iface> session : this.ingressSessions.entrySet())
+		{
+			result += String.format("%s\tingress\t\t%s\n",
+					session.getKey().getName(), session.getValue().getName());
+		}
+		for (Map.Entry<Iface,Iface> session : this.egressSessions.entrySet())
+		{
+			result += String.format("%s\tegress\t\t%s\n",
+					session.getKey().getName(), session.getValue().getName());
+		}
+		return result;
+	}
+}
@@ -1,15 +1,29 @@
 package edu.wisc.cs.sdn.vnet.sw;
 
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.DecodeDepth;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IGMP;
+import net.floodlightcontroller.packet.IPv4;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
 
 import java.io.Console;
-import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Each switch runs one thread of its own, the egress scheduler's sender,
+ * plus a mirror thread once it has mirror sessions; expired table entries
+ * of every switch in the process are removed by one shared thread.
  * @author Aaron Gember-Jacobson
  */
 public class Switch extends Device
@@ -18,16 +32,46 @@ public class Switch extends Device
 	// the switch MAC adddress is not relevant.  
 	// This comment testing assign3 git compatibility
 
+	/** Checks the tables of every switch in the process for expired rows */
+	private static final ScheduledExecutorService EXPIRY =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable task)
+				{
+					Thread thread = new Thread(task, "switch-expiry");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	/**
-	 * switchTable is a ConcurrentHashMap that uses the string representation
-	 * of a MacAddress as its key.  
+	 * switchTable is a ConcurrentHashMap that uses a MacAddress, packed into
+	 * the lower 48 bits of a long, as its key.  
 	 *  
 	 * 
 	 * The value contains the interface associated with that MacAddress as well
 	 * as the time that table entry was last refreshed.
 	 */
-	private ConcurrentHashMap<String, SwitchTableRow> switchTable;
-	private ExpirationChecker rowChecker;
+	private ConcurrentHashMap<Long, SwitchTableRow> switchTable;
+	private ScheduledFuture<?> rowChecker;
+
+	/** Multicast group membership learned by snooping IGMP messages */
+	private IgmpSnoopingTable igmpTable;
+
+	/** IP to MAC bindings learned by snooping ARP, used to answer requests */
+	private ArpSuppressionTable arpTable;
+
+	/** Link aggregation groups; a group is learned and forwarded to as a
+	 *  single logical port */
+	private LinkAggregationTable lagTable;
+
+	/** 802.1p priority egress queues and the thread that drains them */
+	private EgressScheduler egressScheduler;
+
+	/** Port mirroring sessions and the thread that sends the copies */
+	private PortMirror portMirror;
+
+	/** Match-action flow table consulted before normal MAC learning */
+	private FlowTable flowTable;
 
 	/**
 	 * Creates a router for a specific host.
@@ -36,34 +80,133 @@ public class Switch extends Device
 	public Switch(String host, DumpFile logfile)
 	{
 		super(host,logfile);
-		switchTable = new ConcurrentHashMap<String, SwitchTableRow>();
-		rowChecker = new ExpirationChecker(switchTable);
-		rowChecker.start();
+		// payloads are only decoded when the flow table, ARP or IGMP need them
+		this.setDecodeDepth(DecodeDepth.L2);
+		switchTable = new ConcurrentHashMap<Long, SwitchTableRow>();
+		igmpTable = new IgmpSnoopingTable();
+		arpTable = new ArpSuppressionTable();
+		lagTable = new LinkAggregationTable();
+		egressScheduler = new EgressScheduler(this);
+		egressScheduler.start();
+		portMirror = new PortMirror(this);
+		flowTable = new FlowTable();
+		rowChecker = EXPIRY.scheduleWithFixedDelay(
+				new ExpirationChecker(switchTable), 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return link aggregation groups configured on the switch
+	 */
+	public LinkAggregationTable getLagTable()
+	{ return this.lagTable; }
+
+	/**
+	 * Load link aggregation groups from a file.
+	 * @param lagFile the name of the file containing the groups
+	 * @return true if the groups were loaded, otherwise false
+	 */
+	public boolean loadLagTable(String lagFile)
+	{
+		if (!lagTable.load(lagFile, this))
+		{
+			System.err.println("Error setting up link aggregation groups from file "
+					+ lagFile);
+			return false;
+		}
+
+		System.out.println("Loaded link aggregation groups");
+		System.out.println("-------------------------------------------------");
+		System.out.print(this.lagTable.toString());
+		System.out.println("-------------------------------------------------");
+		return true;
+	}
+
+	/**
+	 * Load port mirroring sessions from a file.
+	 * @param mirrorFile the name of the file containing the sessions
+	 * @return true if the sessions were loaded, otherwise false
+	 */
+	public boolean loadMirrorSessions(String mirrorFile)
+	{
+		if (!portMirror.load(mirrorFile))
+		{
+			System.err.println("Error setting up mirror sessions from file "
+					+ mirrorFile);
+			return false;
+		}
+
+		System.out.println("Loaded mirror sessions");
+		System.out.println("-------------------------------------------------");
+		System.out.print(this.portMirror.toString());
+		System.out.println("-------------------------------------------------");
+		return true;
+	}
+
+	/**
+	 * @return match-action flow table of the switch
+	 */
+	public FlowTable getFlowTable()
+	{ return this.flowTable; }
+
+	/**
+	 * Load flow entries from a file.
+	 * @param flowFile the name of the file containing the flows
+	 * @return true if the flows were loaded, otherwise false
+	 */
+	public boolean loadFlowTable(String flowFile)
+	{
+		if (!flowTable.load(flowFile, this))
+		{
+			System.err.println("Error setting up flow table from file "
+					+ flowFile);
+			return false;
+		}
+
+		System.out.println("Loaded flow table");
+		System.out.println("-------------------------------------------------");
+		System.out.print(this.flowTable.toString());
+		System.out.println("-------------------------------------------------");
+		return true;
+	}
+
+	/**
+	 * Mark an interface as up or down. Traffic for a link aggregation group
+	 * is rebalanced over the members that remain up.
+	 * @param ifaceName name of the interface
+	 * @param up true if the link can carry traffic
+	 */
+	public void setLinkState(String ifaceName, boolean up)
+	{
+		Iface iface = this.getInterface(ifaceName);
+		if (null == iface)
+		{ return; }
+		LinkAggregationGroup lag = lagTable.lookup(iface);
+		if (lag != null)
+		{ lag.setMemberUp(iface, up); }
 	}
 
-	// Creates a thread that checks the table for expired rows once per second.
-	private class ExpirationChecker extends Thread{
+	// Checks the table for expired rows; run once per second.
+	private class ExpirationChecker implements Runnable{
 
-		private ConcurrentHashMap<String, SwitchTableRow> switchTableReference;
-		public ExpirationChecker(ConcurrentHashMap<String, SwitchTableRow> reference){
+		private ConcurrentHashMap<Long, SwitchTableRow> switchTableReference;
+		public ExpirationChecker(ConcurrentHashMap<Long, SwitchTableRow> reference){
 			this.switchTableReference = reference;
 		}
 
 		public void run(){
-			while(true){
-				try{
-					Thread.sleep(1000);
-					// Logic
-					for(String ifaceKey : this.switchTableReference.keySet()){
-						if(System.currentTimeMillis() - switchTableReference.get(ifaceKey).getTTL() > 15000){
-							switchTableReference.remove(ifaceKey);
-							//System.out.println("DEBUG: MacAddress " +ifaceKey+ " timed out of switchtable.");
-						}
+			try{
+				// Logic
+				for(Long ifaceKey : this.switchTableReference.keySet()){
+					if(System.currentTimeMillis() - switchTableReference.get(ifaceKey).getTTL() > 15000){
+						switchTableReference.remove(ifaceKey);
+						//System.out.println("DEBUG: MacAddress " +ifaceKey+ " timed out of switchtable.");
 					}
-				} catch(Exception e){
-					System.out.println(e.getMessage());
 				}
-			}// while
+				igmpTable.expire(System.currentTimeMillis());
+				arpTable.expire(System.currentTimeMillis());
+			} catch(Exception e){
+				System.out.println(e.getMessage());
+			}
 		}// run()
 	}// ExpirationChecker class
 
@@ -104,38 +247,328 @@ public class Switch extends Device
 	{
 		System.out.println("*** -> Received packet: " +
 				etherPacket.toString().replace("\n", "\n\t"));
+		this.forward(etherPacket, inIface);
+	}
+
+	/**
+	 * Handle an Ethernet frame received on a specific interface. Frames are
+	 * learned and forwarded straight from their headers; only frames that need
+	 * the flow table, ARP suppression or IGMP snooping are deserialized.
+	 * @param frame view of the frame that was received
+	 * @param inIface the interface on which the frame was received
+	 */
+	@Override
+	public void handleFrame(EthernetView frame, Iface inIface)
+	{
+		short etherType = frame.getEtherType();
+		if(!flowTable.isEmpty() || etherType == Ethernet.TYPE_ARP
+				|| (frame.isMulticast() && etherType == Ethernet.TYPE_IPv4)){
+			this.forward(frame.materialize(this.getDecodeDepth()), inIface);
+			return;
+		}
+
+		// the receive buffer is reused, so queued frames need their own copy
+		byte[] bytes = frame.toByteArray();
+		portMirror.mirrorIngress(bytes, inIface);
+		this.learn(frame.getSourceMAC(), inIface);
+
+		int hash = lagTable.isEmpty() ? 0 : LinkAggregationGroup.hashHeaders(frame);
+		SwitchTableRow row = switchTable.get(frame.getDestinationMAC());
+		if(row != null){
+			if(!this.isSameLogicalPort(row.getInterfaceName(), inIface)){
+				this.output(bytes, frame.getPriorityCode(), hash, row.getInterfaceName());
+			}
+		}
+		else {
+			this.flood(bytes, frame.getPriorityCode(), hash, inIface);
+		}
+	}
+
+	/**
+	 * Learn and forward a deserialized Ethernet packet.
+	 * @param etherPacket the Ethernet packet that was received
+	 * @param inIface the interface on which the packet was received
+	 */
+	private void forward(Ethernet etherPacket, Iface inIface)
+	{
+		// serialize once; the same bytes are forwarded, flooded and mirrored
+		byte[] frame = etherPacket.serialize();
+		portMirror.mirrorIngress(frame, inIface);
 
-		String sourceMacAddr = Arrays.toString(etherPacket.getSourceMACAddress());
-		String destMacAddr = Arrays.toString(etherPacket.getDestinationMACAddress());
+		// apply the flow table; a table miss falls through to normal MAC learning
+			if(!flowTable.isEmpty()){
+				FlowEntry flow = flowTable.lookup(FlowKey.fromPacket(etherPacket, inIface));
+				if(flow != null){
+					flow.count(frame.length);
+					frame = this.applyActions(flow, etherPacket, frame, inIface);
+					if(frame == null){
+						return;
+					}
+				}
+			}
 
 		//check if packet source is in table
-			if(!switchTable.containsKey(sourceMacAddr)){
-				// if MacAddress is not in table, add it
-				switchTable.put(sourceMacAddr, new SwitchTableRow(inIface, System.currentTimeMillis()));
-				//System.out.println("DEBUG: Source " +sourceMacAddr+ " added to table with interface " +inIface.getName());
-			}else{
-				// if source MacAddress is in table, refresh TTL
-				switchTable.get(sourceMacAddr).setTTL(System.currentTimeMillis());
+			this.learn(etherPacket.getSourceMACAsLong(), inIface);
+
+		// answer ARP requests for known bindings on the ingress port instead of flooding them
+			boolean arpRequest = false;
+			if(etherPacket.getEtherType() == Ethernet.TYPE_ARP && etherPacket.getPayload() instanceof ARP){
+				ARP arp = (ARP)etherPacket.getPayload();
+				arpTable.snoop(arp);
+				Ethernet reply = arpTable.buildReply(arp);
+				if(reply != null){
+					egressScheduler.enqueue(reply.serialize(), reply.getPriorityCode(), inIface);
+					return;
+				}
+				arpRequest = (arp.getOpCode() == ARP.OP_REQUEST);
+			}
+
+		// restrict multicast to the ports that joined the group
+			if(etherPacket.isMulticast() && etherPacket.getEtherType() == Ethernet.TYPE_IPv4){
+				if(this.handleMulticast(etherPacket, frame, inIface)){
+					return;
+				}
 			}
 
 		//check if packet dest is in table
-			if(switchTable.containsKey(destMacAddr)){
+			SwitchTableRow row = switchTable.get(etherPacket.getDestinationMACAsLong());
+			if(row != null){
 				// if match found, send the packet
-				this.sendPacket(etherPacket, switchTable.get(destMacAddr).getInterfaceName());
-				//System.out.println("DEBUG: Sending packet from " +sourceMacAddr+ " to " +destMacAddr);
+				Iface outIface = row.getInterfaceName();
+				if(!this.isSameLogicalPort(outIface, inIface)){
+					this.output(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), outIface);
+				}
 			}
 			else {
 				// if no match is found, flood all interfaces except the source
-				//System.out.println("DEBUG: No dest match found, Flooding");
-				for(String ifaceKey : this.interfaces.keySet()){
-					if(ifaceKey.equals(inIface.getName())){
-						// if key matches 
-						continue;
-					}else{
-						this.sendPacket(etherPacket, this.interfaces.get(ifaceKey));
-						//System.out.println("DEBUG: Sending packet from " +sourceMacAddr+ " to interface: " +ifaceKey);
-					}
+				if(arpRequest){
+					arpTable.countFlooded();
 				}
+				this.flood(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), inIface);
 			}
 	}
+
+	/**
+	 * Add or refresh the switch table row for a source MAC address.
+	 * @param sourceMac MAC address in the lower 48 bits of a long
+	 * @param inIface the interface on which the address was seen
+	 */
+	private void learn(long sourceMac, Iface inIface)
+	{
+		SwitchTableRow row = switchTable.get(sourceMac);
+		if(row == null || !this.isSameLogicalPort(row.getInterfaceName(), inIface)){
+			// new address, or host moved to another port; frames arriving on any member of the same LAG are not a move
+			switchTable.put(sourceMac, new SwitchTableRow(inIface, System.currentTimeMillis()));
+		}else{
+			// if source MacAddress is in table, refresh TTL
+			row.setTTL(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @return hash used to pick a link aggregation group member for a frame;
+	 *         0 if no groups are configured
+	 */
+	private int flowHash(Ethernet etherPacket)
+	{
+		return lagTable.isEmpty() ? 0 : LinkAggregationGroup.hashHeaders(etherPacket);
+	}
+
+	/**
+	 * Apply a flow entry's actions to a frame, in order. Output actions send
+	 * the frame as modified by the set-field actions before them.
+	 * @param flow the flow entry the frame matched
+	 * @param etherPacket the frame
+	 * @param frame the serialized frame
+	 * @param inIface the interface on which the frame was received
+	 * @return the (possibly modified) serialized frame if the entry has a
+	 *         normal action and MAC learning should forward it, otherwise null
+	 */
+	private byte[] applyActions(FlowEntry flow, Ethernet etherPacket, byte[] frame, Iface inIface)
+	{
+		boolean modified = false;
+		boolean normal = false;
+		for(FlowAction action : flow.getActions()){
+			if(action.isSetField()){
+				modified |= action.apply(etherPacket);
+				continue;
+			}
+			if(modified){
+				frame = etherPacket.serialize();
+				modified = false;
+			}
+			switch(action.getType()){
+			case OUTPUT:
+				this.output(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), action.getPort());
+				break;
+			case FLOOD:
+				this.flood(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), inIface);
+				break;
+			case NORMAL:
+				normal = true;
+				break;
+			default:
+				// drop
+				return null;
+			}
+		}
+		if(!normal){
+			return null;
+		}
+		return modified ? etherPacket.serialize() : frame;
+	}
+
+	/**
+	 * Send a serialized frame out a specific interface, copying it to the
+	 * monitor port if the interface's egress traffic is mirrored. Called by
+	 * the egress scheduler's sender thread.
+	 */
+	@Override
+	public boolean sendFrame(byte[] frame, Iface iface)
+	{
+		portMirror.mirrorEgress(frame, iface);
+		return this.transmit(frame, iface);
+	}
+
+	/**
+	 * Send a serialized frame without mirroring it.
+	 */
+	boolean transmit(byte[] frame, Iface iface)
+	{ return super.sendFrame(frame, iface); }
+
+	/**
+	 * Print forwarding statistics before shutting down the switch.
+	 */
+	@Override
+	public void destroy()
+	{
+		rowChecker.cancel(false);
+		egressScheduler.shutdown();
+		portMirror.shutdown();
+		System.out.println(arpTable.toString());
+		System.out.print(egressScheduler.toString());
+		System.out.println(String.format("Mirrored frames sent: %d dropped: %d",
+				portMirror.getMirroredCount(), portMirror.getDroppedCount()));
+		if(!flowTable.isEmpty()){
+			System.out.print(flowTable.toString());
+		}
+		super.destroy();
+	}
+
+	/**
+	 * Snoop IGMP messages and forward IPv4 multicast only to member and
+	 * router ports.
+	 * @param etherPacket an IPv4 multicast frame
+	 * @param frame the serialized frame
+	 * @param inIface the interface on which the frame was received
+	 * @return true if the frame was handled, false if it should be flooded
+	 */
+	private boolean handleMulticast(Ethernet etherPacket, byte[] frame, Iface inIface)
+	{
+		if(!(etherPacket.getPayload() instanceof IPv4)){
+			return false;
+		}
+		IPv4 ipPacket = (IPv4)etherPacket.getPayload();
+		if(ipPacket.getProtocol() == IPv4.PROTOCOL_IGMP){
+			// truncated messages are left undecoded, so just flood them
+			if(!(ipPacket.getPayload() instanceof IGMP)){
+				return false;
+			}
+			IGMP igmp = (IGMP)ipPacket.getPayload();
+			igmpTable.snoop(igmp, inIface);
+			// reports only need to reach the queriers; other hosts would suppress their own reports
+			if(igmp.isMembershipReport() || igmp.getIgmpType() == IGMP.TYPE_V2_LEAVE_GROUP){
+				if(igmpTable.getRouterPorts().isEmpty()){
+					return false;
+				}
+				this.outputAll(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), igmpTable.getRouterPorts(), inIface);
+				return true;
+			}
+			return false;
+		}
+
+		if(!IgmpSnoopingTable.isSnoopableGroup(ipPacket.getDestinationAddress())){
+			return false;
+		}
+		Set<Iface> ports = igmpTable.lookup(ipPacket.getDestinationAddress());
+		if(ports == null){
+			// unregistered group, so flood
+			return false;
+		}
+		this.outputAll(frame, etherPacket.getPriorityCode(), this.flowHash(etherPacket), ports, inIface);
+		return true;
+	}
+
+	/**
+	 * Send a frame out every interface except the one it was received on.
+	 * @param frame the serialized frame
+	 * @param pcp 802.1p priority of the frame
+	 * @param hash hash of the frame's headers, for link aggregation
+	 * @param inIface the interface on which the frame was received
+	 */
+	private void flood(byte[] frame, byte pcp, int hash, Iface inIface)
+	{
+		this.outputAll(frame, pcp, hash, this.interfaces.values(), inIface);
+	}
+
+	/**
+	 * Send a frame out a set of ports, once per logical port, skipping the
+	 * logical port the frame was received on.
+	 * @param frame the serialized frame
+	 * @param pcp 802.1p priority of the frame
+	 * @param hash hash of the frame's headers, for link aggregation
+	 * @param ports interfaces out which to send the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	private void outputAll(byte[] frame, byte pcp, int hash, Iterable<Iface> ports, Iface inIface)
+	{
+		Set<LinkAggregationGroup> lagsSent = new HashSet<LinkAggregationGroup>();
+		for(Iface port : ports){
+			if(this.isSameLogicalPort(port, inIface)){
+				continue;
+			}
+			LinkAggregationGroup lag = lagTable.lookup(port);
+			if(lag != null && !lagsSent.add(lag)){
+				// only one member of each LAG gets a copy
+				continue;
+			}
+			this.output(frame, pcp, hash, port);
+		}
+	}
+
+	/**
+	 * Send a frame out a logical port. If the interface is a member of a link
+	 * aggregation group, the member is chosen by the hash of the frame's
+	 * headers. The frame is placed in the port's egress queue for its 802.1p
+	 * priority.
+	 * @param frame the serialized frame
+	 * @param pcp 802.1p priority of the frame
+	 * @param hash hash of the frame's headers, for link aggregation
+	 * @param outIface the interface (or any member of the LAG) to send on
+	 */
+	private void output(byte[] frame, byte pcp, int hash, Iface outIface)
+	{
+		LinkAggregationGroup lag = lagTable.lookup(outIface);
+		if(lag != null){
+			outIface = lag.selectMember(hash);
+			if(outIface == null){
+				// every member is down
+				return;
+			}
+		}
+		egressScheduler.enqueue(frame, pcp, outIface);
+	}
+
+	/**
+	 * @return true if both interfaces are the same port or members of the
+	 *         same link aggregation group
+	 */
+	private boolean isSameLogicalPort(Iface a, Iface b)
+	{
+		if(a == b){
+			return true;
+		}
+		LinkAggregationGroup lag = lagTable.lookup(a);
+		return lag != null && lag == lagTable.lookup(b);
+	}
 }
@@ -0,0 +1,60 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of equally sized heap buffers that commands read from the server
+ * are copied into. Buffers may be released by a different thread than the
+ * one that acquired them.
+ */
+class CommandBufferPool
+{
+	/** Size of every buffer in the pool */
+	private final int bufferSize;
+
+	/** Buffers available for reuse */
+	private final BlockingQueue<ByteBuffer> free;
+
+	/**
+	 * Creates a pool.
+	 * @param bufferSize size of every buffer in the pool; the largest command
+	 *        that can be held
+	 * @param maxFree most buffers kept for reuse
+	 */
+	CommandBufferPool(int bufferSize, int maxFree)
+	{
+		this.bufferSize = bufferSize;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(maxFree);
+	}
+
+	/**
+	 * @return size of every buffer in the pool
+	 */
+	int getBufferSize()
+	{ return this.bufferSize; }
+
+	/**
+	 * Take a free buffer, or allocate one if none are free.
+	 * @return a cleared buffer
+	 */
+	ByteBuffer acquire()
+	{
+		ByteBuffer buf = this.free.poll();
+		if (null == buf)
+		{ buf = ByteBuffer.allocate(this.bufferSize); }
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Return a buffer to the pool; it must not be used afterwards.
+	 * @param buf a buffer acquired from this pool
+	 */
+	void release(ByteBuffer buf)
+	{
+		if (buf.capacity() == this.bufferSize)
+		{ this.free.offer(buf); }
+	}
+}
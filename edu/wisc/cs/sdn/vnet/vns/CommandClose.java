@@ -4,19 +4,43 @@ import java.nio.ByteBuffer;
 
 public class CommandClose extends Command
 {
+	public static final int MESSAGE_SIZE = 256;
+	
 	protected String mErrorMessage;
 	
 	public CommandClose()
-	{ super(Command.VNS_CLOSE); }
+	{ 
+		super(Command.VNS_CLOSE);
+		this.mLen = this.getSize();
+	}
+	
+	public CommandClose(String errorMessage)
+	{
+		this();
+		this.mErrorMessage = errorMessage;
+	}
 	
 	protected CommandClose deserialize(ByteBuffer buf)
 	{
 		super.deserialize(buf);
 				
-		byte[] tmpBytes = new byte[256];
+		byte[] tmpBytes = new byte[MESSAGE_SIZE];
 		buf.get(tmpBytes);
 		this.mErrorMessage = new String(tmpBytes);
 		
 		return this;
 	}
+	
+	protected byte[] serialize()
+	{
+		byte[] data = new byte[this.getSize()];
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		bb.put(super.serialize());
+		byte[] tmp = this.mErrorMessage.getBytes();
+		bb.put(tmp, 0, Math.min(tmp.length, MESSAGE_SIZE));
+		return data;
+	}
+	
+	protected int getSize()
+	{ return super.getSize() + MESSAGE_SIZE; }
 }
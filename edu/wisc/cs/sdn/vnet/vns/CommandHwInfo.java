@@ -11,7 +11,16 @@ public class CommandHwInfo extends Command
 	protected List<CommandHwEntry> mHwInfo;
 	
 	public CommandHwInfo()
-	{ super(Command.VNS_HW_INFO); }
+	{ 
+		super(Command.VNS_HW_INFO);
+		this.mHwInfo = new ArrayList<CommandHwEntry>();
+	}
+	
+	public CommandHwInfo(List<CommandHwEntry> hwInfo)
+	{
+		super(Command.VNS_HW_INFO);
+		this.mHwInfo = hwInfo;
+	}
 	
 	protected CommandHwInfo deserialize(ByteBuffer buf)
 	{
@@ -27,4 +36,21 @@ public class CommandHwInfo extends Command
 						
 		return this;
 	}
+	
+	protected byte[] serialize()
+	{
+		this.mLen = this.getSize();
+		byte[] data = new byte[this.mLen];
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		bb.put(super.serialize());
+		for (CommandHwEntry hwEntry : this.mHwInfo)
+		{ hwEntry.serialize(bb); }
+		return data;
+	}
+	
+	protected int getSize()
+	{ 
+		int entries = (this.mHwInfo != null) ? this.mHwInfo.size() : 0;
+		return super.getSize() + entries * CommandHwEntry.SIZE;
+	}
 }
@@ -6,48 +6,125 @@ import net.floodlightcontroller.packet.Ethernet;
 
 public class CommandPacket extends Command
 {
+	/** Length of the interface name field */
+	public static final int IFACE_NAME_SIZE = 16;
+	
+	/** Length of the command header that precedes the Ethernet frame */
+	public static final int HEADER_SIZE = 8 + IFACE_NAME_SIZE;
+	
 	protected String mInterfaceName;
 	protected Ethernet etherPacket;
 	
+	/** Serialized frame to send instead of serializing etherPacket */
+	protected byte[] frame;
+	
+	/** Interface name bytes of the last header deserialized */
+	private byte[] nameBytes = new byte[IFACE_NAME_SIZE];
+	
 	public CommandPacket()
 	{ super(Command.VNS_PACKET); }
 	
 	protected CommandPacket deserialize(ByteBuffer buf)
 	{
-		super.deserialize(buf);
-				
-		byte[] tmpBytes = new byte[16];
-		buf.get(tmpBytes);
-		this.mInterfaceName = new String(tmpBytes).trim();
+		this.deserializeHeader(buf);
 		
 		this.etherPacket = new Ethernet();
 		this.etherPacket.deserialize(buf.array(), buf.position(),
-				buf.capacity() - buf.position());
+				buf.limit() - buf.position());
 		
 		return this;
 	}
 	
-	protected int getSize()
-	{ return super.getSize() + 16; }
-	
-	protected byte[] serialize()
+	/**
+	 * Read the command header and interface name, leaving the buffer
+	 * positioned at the start of the Ethernet frame.
+	 */
+	protected CommandPacket deserializeHeader(ByteBuffer buf)
 	{
-		byte[] packet = this.etherPacket.serialize();
-		int size = this.getSize() + packet.length;
-		this.mLen = size;
-		
-		byte[] data = new byte[size];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		super.deserialize(buf);
 		
-		byte[] parentData = super.serialize();
+		// A command reused for consecutive packets on the same interface 
+		// keeps its name instead of decoding it again
+		boolean sameName = (this.mInterfaceName != null);
+		for (int i = 0; i < IFACE_NAME_SIZE; i++)
+		{
+			byte b = buf.get();
+			if (b != this.nameBytes[i])
+			{
+				this.nameBytes[i] = b;
+				sameName = false;
+			}
+		}
+		if (!sameName)
+		{ this.mInterfaceName = new String(this.nameBytes).trim(); }
 		
-		bb.put(parentData);
-		byte[] tmp = new byte[16];
-		System.arraycopy(this.mInterfaceName.getBytes(), 0, tmp, 0, 
-				this.mInterfaceName.length());
-		bb.put(tmp);
-		bb.put(packet);
+		return this;
+	}
+	
+	protected int getSize()
+	{ return super.getSize() + IFACE_NAME_SIZE; }
+	
+	/**
+	 * Write a packet command header into the {@link #HEADER_SIZE} bytes
+	 * immediately before a frame, so the header and frame can be sent with a
+	 * single write and without copying the frame.
+	 * @param buf buffer holding the frame
+	 * @param offset offset of the frame in the buffer; must be at least
+	 *        {@link #HEADER_SIZE}
+	 * @param length length of the frame
+	 * @param ifaceName interface name, padded with zeros to
+	 *        {@link #IFACE_NAME_SIZE} bytes
+	 * @return offset of the header in the buffer
+	 */
+	protected static int serializeHeaderInPlace(ByteBuffer buf, int offset,
+			int length, byte[] ifaceName)
+	{
+		int start = offset - HEADER_SIZE;
+		buf.putInt(start, HEADER_SIZE + length);
+		buf.putInt(start + 4, Command.VNS_PACKET);
+		for (int i = 0; i < IFACE_NAME_SIZE; i++)
+		{ buf.put(start + 8 + i, ifaceName[i]); }
+		return start;
+	}
+	
+	/**
+	 * @return number of bytes the command serializes to
+	 */
+	protected int getSerializedLength()
+	{
+		return HEADER_SIZE + ((this.frame != null) ? this.frame.length
+				: this.etherPacket.serializedLength());
+	}
+	
+	/**
+	 * Serialize the command into a buffer, starting at its position. The
+	 * Ethernet packet is encoded directly into the buffer.
+	 * @param bb buffer with at least {@link #getSerializedLength()} bytes
+	 *        remaining
+	 */
+	protected void serialize(ByteBuffer bb)
+	{
+		int start = bb.position();
+		bb.position(start + 8);
+		for (int i = 0; i < IFACE_NAME_SIZE; i++)
+		{
+			bb.put((i < this.mInterfaceName.length()) 
+					? (byte)this.mInterfaceName.charAt(i) : 0);
+		}
+		if (this.frame != null)
+		{ bb.put(this.frame); }
+		else
+		{ this.etherPacket.serialize(bb); }
 		
+		this.mLen = bb.position() - start;
+		bb.putInt(start, this.mLen);
+		bb.putInt(start + 4, this.mType);
+	}
+	
+	protected byte[] serialize()
+	{
+		byte[] data = new byte[this.getSerializedLength()];
+		this.serialize(ByteBuffer.wrap(data));
 		return data;
 	}
 }
@@ -0,0 +1,223 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded single-producer, single-consumer queue of commands between two
+ * pipeline stages. Every slot is a buffer allocated up front: the producer 
+ * claims the next free slot, fills it and publishes it; the consumer reads 
+ * published slots in place and then frees them. No locks are taken and 
+ * nothing is allocated per command. A stage that blocks announces itself 
+ * before checking the ring a last time, and the other stage wakes it after
+ * moving its sequence number, so no wake-up is lost.
+ */
+class CommandRing
+{
+	/** Buffers commands are held in */
+	private final ByteBuffer[] slots;
+	
+	/** Mask turning a sequence number into a slot index */
+	private final int mask;
+	
+	/** How stages wait for the ring to fill or drain */
+	private final WaitStrategy waitStrategy;
+	
+	/** Sequence number of the next slot to publish; written by the producer */
+	private final AtomicLong head = new AtomicLong();
+	
+	/** Sequence number of the next slot to consume; written by the consumer */
+	private final AtomicLong tail = new AtomicLong();
+	
+	/** Last tail seen by the producer, so it rarely reads the consumer's */
+	private long cachedTail;
+	
+	/** Last head seen by the consumer, so it rarely reads the producer's */
+	private long cachedHead;
+	
+	/** Set by the producer once nothing more will be published */
+	private volatile boolean closed;
+	
+	/** Consumer blocked waiting for a command; null if none */
+	private volatile Thread blockedConsumer;
+	
+	/** Producer blocked waiting for a free slot; null if none */
+	private volatile Thread blockedProducer;
+	
+	/** Most commands queued at once */
+	private volatile int maxDepth;
+	
+	/**
+	 * Creates a ring.
+	 * @param capacity number of slots; rounded up to a power of two
+	 * @param slotSize size of every slot, the largest command that can be 
+	 *        queued
+	 * @param waitStrategy how stages wait for the ring to fill or drain
+	 */
+	CommandRing(int capacity, int slotSize, WaitStrategy waitStrategy)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		this.slots = new ByteBuffer[size];
+		for (int i = 0; i < size; i++)
+		{ this.slots[i] = ByteBuffer.allocate(slotSize); }
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+	}
+	
+	/**
+	 * @return number of slots
+	 */
+	int getCapacity()
+	{ return this.slots.length; }
+	
+	/**
+	 * @return size of every slot, the largest command that can be queued
+	 */
+	int getSlotSize()
+	{ return this.slots[0].capacity(); }
+	
+	/**
+	 * @return number of commands published but not yet consumed
+	 */
+	int getDepth()
+	{ return (int)(this.head.get() - this.tail.get()); }
+	
+	/**
+	 * @return most commands queued at once
+	 */
+	int getMaxDepth()
+	{ return this.maxDepth; }
+	
+	/**
+	 * Claim the next slot for the producer to fill, waiting for one to be 
+	 * freed if the ring is full. The command is put at the slot's position.
+	 * @return a cleared slot
+	 */
+	ByteBuffer claim()
+	{
+		long seq = this.head.get();
+		if (seq - this.cachedTail >= this.slots.length)
+		{
+			int tries = 0;
+			while (seq - (this.cachedTail = this.tail.get()) 
+					>= this.slots.length)
+			{
+				if (this.waitStrategy.blocks(tries))
+				{
+					this.blockedProducer = Thread.currentThread();
+					if (seq - this.tail.get() >= this.slots.length)
+					{ LockSupport.park(this); }
+					this.blockedProducer = null;
+				}
+				else
+				{ this.waitStrategy.idle(tries++); }
+			}
+		}
+		ByteBuffer slot = this.slots[(int)seq & this.mask];
+		slot.clear();
+		return slot;
+	}
+	
+	/**
+	 * Publish the slot last claimed to the consumer, flipping it so the 
+	 * command lies between position 0 and its limit.
+	 */
+	void publish()
+	{
+		long seq = this.head.get();
+		this.slots[(int)seq & this.mask].flip();
+		seq++;
+		if (WaitStrategy.PARK == this.waitStrategy)
+		{
+			this.head.set(seq);
+			Thread consumer = this.blockedConsumer;
+			if (consumer != null)
+			{ LockSupport.unpark(consumer); }
+		}
+		else
+		{ this.head.lazySet(seq); }
+		int depth = (int)(seq - this.tail.get());
+		if (depth > this.maxDepth)
+		{ this.maxDepth = depth; }
+	}
+	
+	/**
+	 * Publish nothing more; the consumer drains what was published and then
+	 * stops.
+	 */
+	void close()
+	{
+		this.closed = true;
+		Thread consumer = this.blockedConsumer;
+		if (consumer != null)
+		{ LockSupport.unpark(consumer); }
+	}
+	
+	/**
+	 * Wait until a command is published.
+	 * @return number of commands the consumer can read; 0 if the ring has 
+	 *         been closed and drained
+	 */
+	int await()
+	{
+		long seq = this.tail.get();
+		int tries = 0;
+		while (seq >= this.cachedHead)
+		{
+			this.cachedHead = this.head.get();
+			if (seq < this.cachedHead)
+			{ break; }
+			if (this.closed)
+			{
+				// Check again, in case a command was published before closing
+				this.cachedHead = this.head.get();
+				if (seq >= this.cachedHead)
+				{ return 0; }
+				break;
+			}
+			if (this.waitStrategy.blocks(tries))
+			{
+				this.blockedConsumer = Thread.currentThread();
+				if (seq >= this.head.get() && !this.closed)
+				{ LockSupport.park(this); }
+				this.blockedConsumer = null;
+			}
+			else
+			{ this.waitStrategy.idle(tries++); }
+		}
+		return (int)(this.cachedHead - seq);
+	}
+	
+	/**
+	 * Get a published command without consuming it.
+	 * @param index index of the command after the oldest not yet consumed;
+	 *        less than the number {@link #await()} returned
+	 * @return the slot holding the command
+	 */
+	ByteBuffer peek(int index)
+	{ return this.slots[(int)(this.tail.get() + index) & this.mask]; }
+	
+	/**
+	 * Free the oldest published slots for the producer to reuse.
+	 * @param count number of slots to free
+	 */
+	void consume(int count)
+	{
+		if (WaitStrategy.PARK == this.waitStrategy)
+		{
+			this.tail.set(this.tail.get() + count);
+			Thread producer = this.blockedProducer;
+			if (producer != null)
+			{ LockSupport.unpark(producer); }
+		}
+		else
+		{ this.tail.lazySet(this.tail.get() + count); }
+	}
+	
+	public String toString()
+	{
+		return String.format("%d/%d queued (max %d)", this.getDepth(), 
+				this.slots.length, this.maxDepth);
+	}
+}
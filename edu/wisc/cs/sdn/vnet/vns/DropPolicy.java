@@ -0,0 +1,23 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+/**
+ * Which frame an egress queue drops when a frame is sent while it is full.
+ */
+public enum DropPolicy
+{
+	/** Drop the frame being sent, keeping the frames already queued */
+	TAIL_DROP,
+	
+	/** Drop the oldest queued frame to make room for the frame being sent,
+	 *  so what is written is as fresh as possible */
+	HEAD_DROP;
+	
+	/**
+	 * Parse a drop policy's name, ignoring case.
+	 * @param name tail or head
+	 * @return the drop policy
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static DropPolicy parse(String name)
+	{ return DropPolicy.valueOf(name.toUpperCase() + "_DROP"); }
+}
@@ -0,0 +1,20 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives frames devices send out interfaces of a {@link VNSServer} that 
+ * are not linked to another device, e.g. to measure traffic leaving a 
+ * topology.
+ */
+public interface FrameListener
+{
+	/**
+	 * Called on the thread serving the sending device.
+	 * @param host name of the device that sent the frame
+	 * @param iface name of the interface the frame was sent out
+	 * @param frame buffer holding the frame between position and limit; 
+	 *        only valid until this method returns
+	 */
+	public void frameSent(String host, String iface, ByteBuffer frame);
+}
@@ -0,0 +1,89 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * One end of a connection between a device and a {@link VNSServer} in the
+ * same process. Bytes are copied through a pair of {@link MemoryPipe}s, so
+ * no sockets or system calls are involved.
+ */
+class MemoryChannel implements ReadableByteChannel, GatheringByteChannel
+{
+	/** Capacity of each direction of a connection by default */
+	static final int DEFAULT_CAPACITY = 1024 * 1024;
+	
+	/** Bytes coming to this end */
+	private final MemoryPipe in;
+	
+	/** Bytes going to the other end */
+	private final MemoryPipe out;
+	
+	/** Set once this end is closed */
+	private volatile boolean closed;
+	
+	private MemoryChannel(MemoryPipe in, MemoryPipe out)
+	{
+		this.in = in;
+		this.out = out;
+	}
+	
+	/**
+	 * Create both ends of a connection.
+	 * @param capacity most bytes in flight in each direction
+	 * @return the two ends of the connection
+	 */
+	static MemoryChannel[] pair(int capacity)
+	{
+		MemoryPipe forward = new MemoryPipe(capacity);
+		MemoryPipe backward = new MemoryPipe(capacity);
+		return new MemoryChannel[] { new MemoryChannel(backward, forward),
+				new MemoryChannel(forward, backward) };
+	}
+	
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if (this.closed)
+		{ throw new ClosedChannelException(); }
+		return this.in.read(dst);
+	}
+	
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (this.closed)
+		{ throw new ClosedChannelException(); }
+		return this.out.write(src);
+	}
+	
+	public long write(ByteBuffer[] srcs, int offset, int length) 
+			throws IOException
+	{
+		long written = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			while (srcs[i].hasRemaining())
+			{ written += this.write(srcs[i]); }
+		}
+		return written;
+	}
+	
+	public long write(ByteBuffer[] srcs) throws IOException
+	{ return this.write(srcs, 0, srcs.length); }
+	
+	public boolean isOpen()
+	{ return !this.closed; }
+	
+	/**
+	 * Close this end; the other end reads what was written and then sees the
+	 * end of the stream.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.out.close();
+		this.in.close();
+	}
+}
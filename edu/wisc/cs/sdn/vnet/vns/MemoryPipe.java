@@ -0,0 +1,110 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * A bounded stream of bytes from one thread to another, held in memory. 
+ * Writers block while the pipe is full and readers while it is empty.
+ */
+class MemoryPipe
+{
+	/** Bytes written but not yet read, starting at head */
+	private final byte[] data;
+	
+	/** Index of the oldest byte not yet read */
+	private int head;
+	
+	/** Number of bytes written but not yet read */
+	private int count;
+	
+	/** Set once nothing more will be written */
+	private boolean closed;
+	
+	/**
+	 * Creates a pipe.
+	 * @param capacity most bytes written but not yet read
+	 */
+	MemoryPipe(int capacity)
+	{ this.data = new byte[capacity]; }
+	
+	/**
+	 * Write as many bytes as fit, waiting until at least one does.
+	 * @param src bytes to write, between position and limit
+	 * @return number of bytes written
+	 */
+	synchronized int write(ByteBuffer src) throws IOException
+	{
+		if (!src.hasRemaining())
+		{ return 0; }
+		while (this.count == this.data.length && !this.closed)
+		{ this.await(); }
+		if (this.closed)
+		{ throw new ClosedChannelException(); }
+		
+		int written = 0;
+		while (src.hasRemaining() && this.count < this.data.length)
+		{
+			int tail = (this.head + this.count) % this.data.length;
+			int chunk = Math.min(src.remaining(), 
+					Math.min(this.data.length - this.count, 
+							this.data.length - tail));
+			src.get(this.data, tail, chunk);
+			this.count += chunk;
+			written += chunk;
+		}
+		this.notifyAll();
+		return written;
+	}
+	
+	/**
+	 * Read as many bytes as are available, waiting until at least one is.
+	 * @param dst buffer to read into
+	 * @return number of bytes read; -1 if the pipe was closed and drained
+	 */
+	synchronized int read(ByteBuffer dst) throws IOException
+	{
+		if (!dst.hasRemaining())
+		{ return 0; }
+		while (0 == this.count && !this.closed)
+		{ this.await(); }
+		if (0 == this.count)
+		{ return -1; }
+		
+		int read = 0;
+		while (dst.hasRemaining() && this.count > 0)
+		{
+			int chunk = Math.min(dst.remaining(), 
+					Math.min(this.count, this.data.length - this.head));
+			dst.put(this.data, this.head, chunk);
+			this.head = (this.head + chunk) % this.data.length;
+			this.count -= chunk;
+			read += chunk;
+		}
+		this.notifyAll();
+		return read;
+	}
+	
+	/**
+	 * Write nothing more; readers drain what was written and then see the 
+	 * end of the stream.
+	 */
+	synchronized void close()
+	{
+		this.closed = true;
+		this.notifyAll();
+	}
+	
+	private void await() throws IOException
+	{
+		try
+		{ this.wait(); }
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
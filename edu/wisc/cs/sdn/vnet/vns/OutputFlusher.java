@@ -0,0 +1,60 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes out commands coalesced by a {@link VNSComm} once the oldest has
+ * waited a maximum delay, so a device that keeps receiving does not hold 
+ * its output indefinitely. Call start() to begin flushing.
+ */
+class OutputFlusher extends Thread
+{
+	/** Communication manager whose output is flushed */
+	private final VNSComm vnsComm;
+	
+	/** How long a coalesced command may wait, in nanoseconds */
+	private final long maxDelayNanos;
+	
+	/** Set to stop flushing */
+	private volatile boolean stopped;
+	
+	/**
+	 * Creates a flusher.
+	 * @param vnsComm communication manager whose output is flushed
+	 * @param maxDelayNanos how long a coalesced command may wait
+	 */
+	OutputFlusher(VNSComm vnsComm, long maxDelayNanos)
+	{
+		super("OutputFlusher");
+		this.vnsComm = vnsComm;
+		this.maxDelayNanos = maxDelayNanos;
+		this.stopped = false;
+		this.setDaemon(true);
+	}
+	
+	/**
+	 * Stop flushing.
+	 */
+	void shutdown()
+	{
+		this.stopped = true;
+		LockSupport.unpark(this);
+	}
+	
+	public void run()
+	{
+		long wait = this.maxDelayNanos;
+		while (!this.stopped)
+		{
+			LockSupport.parkNanos(wait);
+			try
+			{ wait = this.vnsComm.flushOlderThan(this.maxDelayNanos); }
+			catch (IOException e)
+			{
+				System.err.println("Error writing packet");
+				wait = this.maxDelayNanos;
+			}
+		}
+	}
+}
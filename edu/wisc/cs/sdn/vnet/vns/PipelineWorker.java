@@ -0,0 +1,51 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The middle pipeline stage: handles packet commands queued by the thread
+ * reading from the server, passing each to the device. Packets the device 
+ * sends are queued for the {@link PipelineWriter}. Call start() to begin 
+ * handling.
+ */
+class PipelineWorker extends Thread
+{
+	/** Communication manager the commands were read by */
+	private final VNSComm vnsComm;
+	
+	/** Commands read from the server */
+	private final CommandRing rxRing;
+	
+	/** Packet command reused for every packet handled */
+	private final CommandPacket recvPacket = new CommandPacket();
+	
+	/**
+	 * Creates a worker.
+	 * @param vnsComm communication manager the commands were read by
+	 * @param rxRing commands read from the server
+	 * @param index index of the worker among the pipeline's workers
+	 */
+	PipelineWorker(VNSComm vnsComm, CommandRing rxRing, int index)
+	{
+		super("PipelineWorker-" + index);
+		this.vnsComm = vnsComm;
+		this.rxRing = rxRing;
+	}
+	
+	public void run()
+	{
+		int count;
+		while ((count = this.rxRing.await()) > 0)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				ByteBuffer buf = this.rxRing.peek(0);
+				try
+				{ this.vnsComm.handleQueuedCommand(buf, this.recvPacket); }
+				catch (RuntimeException e)
+				{ e.printStackTrace(); }
+				this.rxRing.consume(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * The last pipeline stage: writes queued commands to the server. All the 
+ * commands queued when the writer wakes up are written with one gathering 
+ * write, so writes are batched as much as the load allows without delaying
+ * any command. Call start() to begin writing.
+ */
+class PipelineWriter extends Thread
+{
+	/** Most commands written at once */
+	private static final int MAX_BATCH = 64;
+	
+	/** Channel to the server */
+	private final GatheringByteChannel channel;
+	
+	/** Commands to write to the server */
+	private final CommandRing txRing;
+	
+	/** Commands being written */
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+	
+	/** Set once a write has failed; nothing more is written */
+	private boolean failed;
+	
+	/**
+	 * Creates a writer.
+	 * @param channel channel to the server
+	 * @param txRing commands to write to the server
+	 */
+	PipelineWriter(GatheringByteChannel channel, CommandRing txRing)
+	{
+		super("PipelineWriter");
+		this.channel = channel;
+		this.txRing = txRing;
+	}
+	
+	public void run()
+	{
+		int count;
+		while ((count = this.txRing.await()) > 0)
+		{
+			count = Math.min(count, MAX_BATCH);
+			
+			// Once writing has failed, commands are still consumed and 
+			// discarded, so senders never block on a full ring
+			if (!this.failed)
+			{
+				for (int i = 0; i < count; i++)
+				{ this.batch[i] = this.txRing.peek(i); }
+				try
+				{
+					while (this.batch[count - 1].hasRemaining())
+					{ this.channel.write(this.batch, 0, count); }
+				}
+				catch (IOException e)
+				{ this.fail(e); }
+			}
+			this.txRing.consume(count);
+		}
+	}
+	
+	/**
+	 * Stop writing after a write failed. A partial write leaves the stream
+	 * mid-command, so the channel is closed and the reader sees the 
+	 * connection end.
+	 * @param e why the write failed
+	 */
+	private void fail(IOException e)
+	{
+		System.err.println("Error writing packet, closing connection: " + e);
+		this.failed = true;
+		try { this.channel.close(); } catch (IOException f) { }
+	}
+}
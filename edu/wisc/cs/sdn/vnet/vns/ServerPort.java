@@ -0,0 +1,84 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * An interface of a device attached to a {@link VNSServer}, and the 
+ * interface at the other end of its link, if any.
+ */
+class ServerPort
+{
+	/** Name of the device the interface belongs to */
+	final String host;
+	
+	/** Name of the interface */
+	final String name;
+	
+	/** Name of the interface padded for the packet command header */
+	final byte[] nameBytes;
+	
+	/** MAC address of the interface */
+	final MACAddress mac;
+	
+	/** IP address of the interface; 0 if it has none */
+	final int ip;
+	
+	/** Subnet mask of the interface; 0 if it has none */
+	final int mask;
+	
+	/** Interface at the other end of the link; null if not linked */
+	ServerPort peer;
+	
+	ServerPort(String host, String name, MACAddress mac, int ip, int mask)
+	{
+		this.host = host;
+		this.name = name;
+		this.nameBytes = new byte[CommandPacket.IFACE_NAME_SIZE];
+		byte[] tmp = name.getBytes();
+		System.arraycopy(tmp, 0, this.nameBytes, 0, 
+				Math.min(tmp.length, this.nameBytes.length));
+		this.mac = mac;
+		this.ip = ip;
+		this.mask = mask;
+	}
+	
+	/**
+	 * Check whether a packet command was sent out this interface.
+	 * @param buf buffer holding the command
+	 * @param offset offset of the interface name in the buffer
+	 * @return true if the command names this interface
+	 */
+	boolean matches(ByteBuffer buf, int offset)
+	{
+		for (int i = 0; i < this.nameBytes.length; i++)
+		{
+			if (buf.get(offset + i) != this.nameBytes[i])
+			{ return false; }
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the hardware info entries describing the interface
+	 */
+	List<CommandHwEntry> getHwEntries()
+	{
+		List<CommandHwEntry> entries = new ArrayList<CommandHwEntry>();
+		entries.add(new CommandHwEntry(CommandHwEntry.HW_INTERFACE, 
+				this.name.getBytes()));
+		entries.add(new CommandHwEntry(CommandHwEntry.HW_ETHER, 
+				this.mac.toBytes()));
+		entries.add(new CommandHwEntry(CommandHwEntry.HW_ETH_IP, 
+				ByteBuffer.allocate(4).putInt(this.ip).array()));
+		entries.add(new CommandHwEntry(CommandHwEntry.HW_MASK, 
+				ByteBuffer.allocate(4).putInt(this.mask).array()));
+		return entries;
+	}
+	
+	public String toString()
+	{ return this.host + ":" + this.name; }
+}
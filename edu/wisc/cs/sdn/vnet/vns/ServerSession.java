@@ -0,0 +1,298 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link VNSServer}'s session with one device: answers the device's
+ * VNS_OPEN with its hardware info, then relays the packets it sends. Frames
+ * for the device are queued per interface and written by the session's 
+ * own writer, so relaying a frame never blocks the sending device's 
+ * session; a frame is dropped if its queue is full. Call start() to begin 
+ * serving the device.
+ */
+class ServerSession extends Thread
+{
+	/** Most frames queued for each of the device's interfaces */
+	static final int QUEUE_LENGTH = 256;
+	
+	/** How long to wait before checking again for room in a full queue */
+	private static final long ROOM_WAIT_NANOS = 50 * 1000;
+	
+	/** Server the session belongs to */
+	private final VNSServer server;
+	
+	/** Channel commands are read from the device on */
+	private final ReadableByteChannel in;
+	
+	/** Channel commands are written to the device on */
+	private final GatheringByteChannel out;
+	
+	/** Commands read from the device but not yet handled, between position
+	 *  and limit */
+	private final ByteBuffer recvBuffer;
+	
+	/** Writes the frames queued for the device */
+	private final TxWriter writer;
+	
+	/** True from when the writer is started until it is stopped; set 
+	 *  while holding this */
+	private volatile boolean writing;
+	
+	/** Name of the device; null until it has opened the session */
+	private volatile String host;
+	
+	/** The device's interfaces; null until it has opened the session */
+	private List<ServerPort> ports;
+	
+	/**
+	 * Creates a session.
+	 * @param server server the session belongs to
+	 * @param in channel commands are read from the device on
+	 * @param out channel commands are written to the device on
+	 */
+	ServerSession(VNSServer server, ReadableByteChannel in, 
+			GatheringByteChannel out)
+	{
+		super("ServerSession");
+		this.server = server;
+		this.in = in;
+		this.out = out;
+		this.recvBuffer = ByteBuffer.allocate(
+				Math.max(VNSComm.MIN_RECV_BUFFER_SIZE, 
+						2 * server.getMaxCommandLength()));
+		this.recvBuffer.limit(0);
+		this.writer = new TxWriter(out, server.getMaxCommandLength(), 
+				QUEUE_LENGTH, DropPolicy.TAIL_DROP);
+	}
+	
+	/**
+	 * @return name of the device; null until it has opened the session
+	 */
+	String getHost()
+	{ return this.host; }
+	
+	public void run()
+	{
+		try
+		{
+			while (this.handleCommand());
+		}
+		catch (EOFException e)
+		{ }
+		catch (IOException e)
+		{ System.err.println("Session with " + this.host + " failed: " + e); }
+		finally
+		{
+			this.server.closed(this);
+			this.closeChannels();
+			this.stopWriter();
+		}
+	}
+	
+	/**
+	 * Read and handle one command from the device.
+	 * @return false if the session is over, otherwise true
+	 */
+	private boolean handleCommand() throws IOException
+	{
+		this.fill(4);
+		int len = this.recvBuffer.getInt(this.recvBuffer.position());
+		if (len < 8 || len > this.server.getMaxCommandLength())
+		{ throw new IOException("Bad command length " + len); }
+		this.fill(len);
+		
+		int start = this.recvBuffer.position();
+		int command = this.recvBuffer.getInt(start + 4);
+		try
+		{
+			switch (command)
+			{
+			case Command.VNS_OPEN:
+				ByteBuffer cmd = this.recvBuffer.duplicate();
+				cmd.limit(start + len);
+				CommandOpen cmdOpen = new CommandOpen();
+				cmdOpen.deserialize(cmd);
+				return this.open(cmdOpen.mVirtualHostId.trim());
+				
+			case Command.VNS_PACKET:
+				if (this.ports != null && len >= CommandPacket.HEADER_SIZE)
+				{ this.relay(start, len); }
+				return true;
+				
+			case Command.VNS_CLOSE:
+				return false;
+				
+			default:
+				System.err.println(String.format(
+						"Session with %s: unknown command %d", this.host, 
+						command));
+				return true;
+			}
+		}
+		finally
+		{ this.recvBuffer.position(start + len); }
+	}
+	
+	/**
+	 * Open the session for a device and send it its hardware info. Frames 
+	 * relayed to the device are queued until the hardware info has been 
+	 * sent, and only then is the writer started.
+	 * @param host name of the device
+	 * @return false if the device is unknown or already connected
+	 */
+	private synchronized boolean open(String host) throws IOException
+	{
+		this.host = host;
+		this.ports = this.server.open(this);
+		if (null == this.ports)
+		{
+			this.sendClose("Unknown or already connected host " + host);
+			this.host = null;
+			return false;
+		}
+		
+		CommandHwInfo hwInfo = new CommandHwInfo();
+		for (ServerPort port : this.ports)
+		{ hwInfo.mHwInfo.addAll(port.getHwEntries()); }
+		this.send(hwInfo.serialize());
+		this.writer.start();
+		this.writing = true;
+		return true;
+	}
+	
+	/**
+	 * Pass a frame the device sent to the server.
+	 * @param start offset of the packet command in the receive buffer
+	 * @param len length of the command
+	 */
+	private void relay(int start, int len)
+	{
+		ServerPort port = null;
+		for (ServerPort candidate : this.ports)
+		{
+			if (candidate.matches(this.recvBuffer, start + 8))
+			{
+				port = candidate;
+				break;
+			}
+		}
+		
+		int limit = this.recvBuffer.limit();
+		this.recvBuffer.limit(start + len);
+		this.recvBuffer.position(start + CommandPacket.HEADER_SIZE);
+		try
+		{ this.server.relay(port, this.recvBuffer); }
+		finally
+		{ this.recvBuffer.limit(limit); }
+	}
+	
+	/**
+	 * Queue a frame to be sent to the device as if it was received on an 
+	 * interface; never blocks.
+	 * @param port interface the frame is received on
+	 * @param frame buffer holding the frame between position and limit; its
+	 *        position is advanced to its limit
+	 * @return false if the frame was dropped because the interface's queue 
+	 *         was full, the frame was too large, or the session failed
+	 */
+	boolean sendPacket(ServerPort port, ByteBuffer frame)
+	{
+		int length = CommandPacket.HEADER_SIZE + frame.remaining();
+		if (length > this.writer.getBufferSize())
+		{
+			frame.position(frame.limit());
+			return false;
+		}
+		
+		ByteBuffer buf = this.writer.acquire();
+		buf.putInt(length);
+		buf.putInt(Command.VNS_PACKET);
+		buf.put(port.nameBytes);
+		buf.put(frame);
+		buf.flip();
+		return this.writer.enqueue(port.name, buf);
+	}
+	
+	/**
+	 * Wait until a frame for an interface can be queued without being 
+	 * dropped, or the session has ended. Sessions' readers never wait, so 
+	 * sessions relaying frames to each other cannot wait on each other; 
+	 * this is for frames injected from other threads.
+	 * @param port interface the frame is received on
+	 */
+	void awaitRoom(ServerPort port)
+	{
+		while (this.writing && this.writer.isFull(port.name) 
+				&& !this.writer.hasFailed())
+		{ LockSupport.parkNanos(ROOM_WAIT_NANOS); }
+	}
+	
+	/**
+	 * Tell the device the session is over and close it, once the frames
+	 * queued for it have been written.
+	 * @param reason why the session is closed
+	 */
+	synchronized void sendClose(String reason)
+	{
+		this.stopWriter();
+		try
+		{ this.send(new CommandClose(reason).serialize()); }
+		catch (IOException e)
+		{ }
+		this.closeChannels();
+	}
+	
+	/**
+	 * Stop the writer, if it was started, once everything queued has been
+	 * written or writing has failed.
+	 */
+	private synchronized void stopWriter()
+	{
+		if (!this.writing)
+		{ return; }
+		this.writing = false;
+		try
+		{ this.writer.shutdown(); }
+		catch (InterruptedException e)
+		{ Thread.currentThread().interrupt(); }
+	}
+	
+	private synchronized void send(byte[] cmd) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.wrap(cmd);
+		while (buf.hasRemaining())
+		{ this.out.write(buf); }
+	}
+	
+	/**
+	 * Read from the device until the receive buffer holds at least a number
+	 * of bytes.
+	 * @param needed number of bytes needed
+	 */
+	private void fill(int needed) throws IOException
+	{
+		while (this.recvBuffer.remaining() < needed)
+		{
+			this.recvBuffer.compact();
+			int ret;
+			try
+			{ ret = this.in.read(this.recvBuffer); }
+			finally
+			{ this.recvBuffer.flip(); }
+			if (ret < 0)
+			{ throw new EOFException(); }
+		}
+	}
+	
+	private void closeChannels()
+	{
+		try { this.in.close(); } catch (IOException e) { }
+		try { this.out.close(); } catch (IOException e) { }
+	}
+}
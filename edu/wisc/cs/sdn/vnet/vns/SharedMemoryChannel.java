@@ -0,0 +1,274 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One end of a connection between a device and a {@link VNSServer} on the
+ * same host, through a memory-mapped file holding a {@link SharedMemoryPipe}
+ * for each direction. Commands are written to the pipes exactly as they 
+ * would be to a socket; each command starts with its length, so commands 
+ * need no other framing. The server creates the file and the device maps
+ * it; either end may be in another process.
+ * <p>
+ * The file starts with a header holding a magic number, the capacity of 
+ * each pipe and a flag the device sets once it attaches, followed by the 
+ * pipe to the device and the pipe to the server. Each end holds a lock on 
+ * a byte of the file while it is open, so an end waiting on a pipe can 
+ * tell the other end's process has died: the lock is gone.
+ */
+class SharedMemoryChannel implements ReadableByteChannel, GatheringByteChannel
+{
+	/** Capacity of each direction of a connection by default */
+	static final int DEFAULT_CAPACITY = 1024 * 1024;
+	
+	/** Identifies a file holding a connection; written last, once the 
+	 *  pipes are ready */
+	private static final int MAGIC = 0x564e5348;
+	
+	/** Bytes in front of the pipes */
+	private static final int HEADER_SIZE = 64;
+	
+	/** Offset in the header of the flag the device sets once it holds its
+	 *  lock */
+	private static final int DEVICE_ATTACHED = 8;
+	
+	/** Byte of the file the server holds a lock on while its end is open */
+	private static final int SERVER_LOCK = 0;
+	
+	/** Byte of the file the device holds a lock on while its end is open */
+	private static final int DEVICE_LOCK = 1;
+	
+	/** Reads and writes the header with memory ordering */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(
+			long[].class, ByteOrder.nativeOrder());
+	
+	/** How the ends wait for each other */
+	private static final WaitStrategy WAIT_STRATEGY = WaitStrategy.PARK;
+	
+	/** How long the server's end sleeps between checks for the device 
+	 *  attaching; a session may wait for its device a long time */
+	private static final long ATTACH_POLL_NANOS = 100 * 1000 * 1000;
+	
+	/** The file, kept open to hold this end's lock */
+	private final FileChannel file;
+	
+	/** The mapped file */
+	private final MappedByteBuffer map;
+	
+	/** Lock on this end's byte of the file, released if the process dies */
+	private final FileLock lock;
+	
+	/** True for the server's end */
+	private final boolean server;
+	
+	/** Bytes coming to this end */
+	private final SharedMemoryPipe in;
+	
+	/** Bytes going to the other end */
+	private final SharedMemoryPipe out;
+	
+	/** Set once this end is closed */
+	private volatile boolean closed;
+	
+	/** Set once the device is known to have attached */
+	private boolean attached;
+	
+	private SharedMemoryChannel(FileChannel file, MappedByteBuffer map, 
+			FileLock lock, int capacity, boolean server)
+	{
+		this.file = file;
+		this.map = map;
+		this.lock = lock;
+		this.server = server;
+		this.attached = !server;
+		int pipeSize = SharedMemoryPipe.HEADER_SIZE + capacity;
+		SharedMemoryPipe toDevice = new SharedMemoryPipe(
+				map.slice(HEADER_SIZE, pipeSize), WAIT_STRATEGY, 
+				this::isPeerAlive);
+		SharedMemoryPipe toServer = new SharedMemoryPipe(
+				map.slice(HEADER_SIZE + pipeSize, pipeSize), WAIT_STRATEGY,
+				this::isPeerAlive);
+		this.in = server ? toServer : toDevice;
+		this.out = server ? toDevice : toServer;
+	}
+	
+	/**
+	 * Create a file for a connection and return the server's end.
+	 * @param path file to create; an existing file is replaced
+	 * @param capacity most bytes in flight in each direction; rounded up to
+	 *        a whole number of cache lines
+	 * @return the server's end of the connection
+	 */
+	static SharedMemoryChannel create(Path path, int capacity) 
+			throws IOException
+	{
+		capacity = (capacity + 63) & ~63;
+		Files.deleteIfExists(path);
+		FileChannel file = FileChannel.open(path, 
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, 
+				StandardOpenOption.WRITE);
+		try
+		{
+			// A new file is filled with zeros, so its pipes are empty
+			MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 
+					0, HEADER_SIZE 
+					+ 2 * (SharedMemoryPipe.HEADER_SIZE + capacity));
+			FileLock lock = file.lock(SERVER_LOCK, 1, false);
+			SharedMemoryChannel channel = new SharedMemoryChannel(file, map, 
+					lock, capacity, true);
+			LONGS.setRelease(map, 0, ((long)MAGIC << 32) | capacity);
+			return channel;
+		}
+		catch (IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Map a file created by the server and return the device's end.
+	 * @param path the file
+	 * @return the device's end of the connection
+	 */
+	static SharedMemoryChannel open(Path path) throws IOException
+	{
+		FileChannel file = FileChannel.open(path, StandardOpenOption.READ, 
+				StandardOpenOption.WRITE);
+		try
+		{
+			long size = file.size();
+			if (size < HEADER_SIZE)
+			{ throw new IOException(path + " is not a shared memory channel"); }
+			MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 
+					0, size);
+			long header = (long)LONGS.getAcquire(map, 0);
+			int capacity = (int)header;
+			if ((int)(header >>> 32) != MAGIC || HEADER_SIZE 
+					+ 2 * (SharedMemoryPipe.HEADER_SIZE + (long)capacity) != size)
+			{ throw new IOException(path + " is not a shared memory channel"); }
+			
+			FileLock lock;
+			try
+			{ lock = file.tryLock(DEVICE_LOCK, 1, false); }
+			catch (OverlappingFileLockException e)
+			{ lock = null; }
+			if (null == lock || (long)LONGS.getAcquire(map, DEVICE_ATTACHED) != 0)
+			{ throw new IOException(path + " is already in use"); }
+			SharedMemoryChannel channel = new SharedMemoryChannel(file, map, 
+					lock, capacity, false);
+			LONGS.setRelease(map, DEVICE_ATTACHED, 1L);
+			return channel;
+		}
+		catch (IOException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Check whether the other end is still there: its process holds a lock
+	 * on its byte of the file, which is released if the process dies. A 
+	 * device that has not attached yet is expected to come.
+	 * @return false if the other end is gone
+	 */
+	private boolean isPeerAlive()
+	{
+		if (this.server 
+				&& 0 == (long)LONGS.getAcquire(this.map, DEVICE_ATTACHED))
+		{ return true; }
+		try
+		{
+			FileLock peerLock = this.file.tryLock(
+					this.server ? DEVICE_LOCK : SERVER_LOCK, 1, false);
+			if (null == peerLock)
+			{ return true; }
+			peerLock.release();
+			return false;
+		}
+		catch (OverlappingFileLockException e)
+		{
+			// The other end is in this process and holds its lock
+			return true;
+		}
+		catch (IOException e)
+		{ return false; }
+	}
+	
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if (this.closed)
+		{ throw new ClosedChannelException(); }
+		
+		// Nothing arrives before the device attaches, so wait for it slowly
+		while (!this.attached)
+		{
+			if (this.closed)
+			{ throw new ClosedChannelException(); }
+			this.attached = 
+					((long)LONGS.getAcquire(this.map, DEVICE_ATTACHED) != 0);
+			if (!this.attached)
+			{ LockSupport.parkNanos(ATTACH_POLL_NANOS); }
+		}
+		return this.in.read(dst);
+	}
+	
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (this.closed)
+		{ throw new ClosedChannelException(); }
+		return this.out.write(src);
+	}
+	
+	public long write(ByteBuffer[] srcs, int offset, int length) 
+			throws IOException
+	{
+		long written = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			while (srcs[i].hasRemaining())
+			{ written += this.write(srcs[i]); }
+		}
+		return written;
+	}
+	
+	public long write(ByteBuffer[] srcs) throws IOException
+	{ return this.write(srcs, 0, srcs.length); }
+	
+	public boolean isOpen()
+	{ return !this.closed; }
+	
+	/**
+	 * Close this end; the other end reads what was written and then sees the
+	 * end of the stream.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.out.close();
+		this.in.close();
+		try
+		{
+			this.lock.release();
+			this.file.close();
+		}
+		catch (IOException e)
+		{ }
+	}
+}
@@ -0,0 +1,170 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded stream of bytes from one process to another, held in a region 
+ * of a memory-mapped file. Only one thread at a time may write and only one
+ * may read; they share nothing but the region, so the writer may be in a 
+ * different process than the reader. Neither takes a lock: the writer 
+ * publishes bytes by advancing the tail with a release store after copying
+ * them, and the reader frees them by advancing the head the same way. A 
+ * writer waits while the pipe is full and a reader while it is empty, 
+ * sleeping longer the longer it waits; now and then it checks that the 
+ * other end is still there, and if not the pipe is closed.
+ * <p>
+ * The region holds the tail, the head and a closed flag, each on its own 
+ * cache line, followed by the data.
+ */
+class SharedMemoryPipe
+{
+	/** Bytes in front of the data, for the indexes and the closed flag */
+	static final int HEADER_SIZE = 192;
+	
+	/** Offset of the total number of bytes ever written */
+	private static final int TAIL = 0;
+	
+	/** Offset of the total number of bytes ever read */
+	private static final int HEAD = 64;
+	
+	/** Offset of the flag set once either end is closed */
+	private static final int CLOSED = 128;
+	
+	/** Waits between checks that the other end is still there */
+	private static final int PEER_CHECK_TRIES = 100;
+	
+	/** Reads and writes longs in the region with memory ordering */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(
+			long[].class, ByteOrder.nativeOrder());
+	
+	/** The region; indexes and the flag are at the offsets above */
+	private final ByteBuffer region;
+	
+	/** Bytes written but not yet read, at their index modulo the capacity */
+	private final ByteBuffer data;
+	
+	/** Most bytes written but not yet read */
+	private final int capacity;
+	
+	/** How the reader and writer wait for each other */
+	private final WaitStrategy waitStrategy;
+	
+	/** Tells whether the other end is still there */
+	private final BooleanSupplier peerAlive;
+	
+	/**
+	 * Creates a pipe in a region of mapped memory. A region that is all zeros
+	 * is an empty, open pipe.
+	 * @param region the region, aligned to a cache line
+	 * @param waitStrategy how the reader and writer wait for each other
+	 * @param peerAlive tells whether the other end is still there
+	 */
+	SharedMemoryPipe(ByteBuffer region, WaitStrategy waitStrategy, 
+			BooleanSupplier peerAlive)
+	{
+		this.region = region;
+		this.data = region.duplicate().position(HEADER_SIZE).slice();
+		this.capacity = this.data.capacity();
+		this.waitStrategy = waitStrategy;
+		this.peerAlive = peerAlive;
+	}
+	
+	/**
+	 * Write as many bytes as fit, waiting until at least one does.
+	 * @param src bytes to write, between position and limit
+	 * @return number of bytes written
+	 */
+	int write(ByteBuffer src) throws IOException
+	{
+		if (!src.hasRemaining())
+		{ return 0; }
+		long tail = (long)LONGS.getOpaque(this.region, TAIL);
+		int free;
+		int tries = 0;
+		while (true)
+		{
+			if (this.isClosed())
+			{ throw new ClosedChannelException(); }
+			long head = (long)LONGS.getAcquire(this.region, HEAD);
+			free = this.capacity - (int)(tail - head);
+			if (free > 0)
+			{ break; }
+			this.idle(tries++);
+		}
+		
+		int written = Math.min(free, src.remaining());
+		int index = (int)(tail % this.capacity);
+		int chunk = Math.min(written, this.capacity - index);
+		this.data.put(index, src, src.position(), chunk);
+		this.data.put(0, src, src.position() + chunk, written - chunk);
+		src.position(src.position() + written);
+		LONGS.setRelease(this.region, TAIL, tail + written);
+		return written;
+	}
+	
+	/**
+	 * Read as many bytes as are available, waiting until at least one is.
+	 * @param dst buffer to read into
+	 * @return number of bytes read; -1 if the pipe was closed and drained
+	 */
+	int read(ByteBuffer dst) throws IOException
+	{
+		if (!dst.hasRemaining())
+		{ return 0; }
+		long head = (long)LONGS.getOpaque(this.region, HEAD);
+		int available;
+		int tries = 0;
+		while (true)
+		{
+			// Check the flag first, so bytes written before closing are seen
+			boolean closed = this.isClosed();
+			long tail = (long)LONGS.getAcquire(this.region, TAIL);
+			available = (int)(tail - head);
+			if (available > 0)
+			{ break; }
+			if (closed)
+			{ return -1; }
+			this.idle(tries++);
+		}
+		
+		int read = Math.min(available, dst.remaining());
+		int index = (int)(head % this.capacity);
+		int chunk = Math.min(read, this.capacity - index);
+		dst.put(dst.position(), this.data, index, chunk);
+		dst.put(dst.position() + chunk, this.data, 0, read - chunk);
+		dst.position(dst.position() + read);
+		LONGS.setRelease(this.region, HEAD, head + read);
+		return read;
+	}
+	
+	/**
+	 * Write nothing more, and stop waiting for room; the reader drains what
+	 * was written and then sees the end of the stream.
+	 */
+	void close()
+	{ LONGS.setRelease(this.region, CLOSED, 1L); }
+	
+	/**
+	 * Wait once for the other end, closing the pipe if it is gone.
+	 * @param tries number of times already waited for the same condition
+	 */
+	private void idle(int tries)
+	{
+		this.waitStrategy.idle(tries);
+		if (tries > 0 && 0 == tries % PEER_CHECK_TRIES 
+				&& !this.peerAlive.getAsBoolean())
+		{ this.close(); }
+	}
+	
+	/**
+	 * @return true once either end is closed
+	 */
+	boolean isClosed()
+	{ return (long)LONGS.getAcquire(this.region, CLOSED) != 0; }
+}
@@ -0,0 +1,114 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of commands waiting to be written out one interface. 
+ * Offering a command never blocks; when the queue is full a command is 
+ * dropped according to the queue's policy. Counters are kept of what was
+ * queued, written and dropped.
+ */
+class TxQueue
+{
+	/** Name of the interface the commands are sent out */
+	private final String ifaceName;
+	
+	/** Most commands queued at once */
+	private final int capacity;
+	
+	/** Which command to drop when the queue is full */
+	private final DropPolicy policy;
+	
+	/** Commands waiting to be written, oldest first; guarded by this */
+	private final ArrayDeque<ByteBuffer> commands;
+	
+	/** Commands queued */
+	private long enqueued;
+	
+	/** Commands taken from the queue to be written */
+	private long dequeued;
+	
+	/** Commands dropped because the queue was full */
+	private long dropped;
+	
+	/** Most commands that have been queued at once */
+	private int highWater;
+	
+	/**
+	 * Creates a queue.
+	 * @param ifaceName name of the interface the commands are sent out
+	 * @param capacity most commands queued at once
+	 * @param policy which command to drop when the queue is full
+	 */
+	TxQueue(String ifaceName, int capacity, DropPolicy policy)
+	{
+		this.ifaceName = ifaceName;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.commands = new ArrayDeque<ByteBuffer>(capacity);
+	}
+	
+	/**
+	 * @return name of the interface the commands are sent out
+	 */
+	String getIfaceName()
+	{ return this.ifaceName; }
+	
+	/**
+	 * Queue a command, or drop a command if the queue is full.
+	 * @param buf the command, flipped for writing
+	 * @return the command that was dropped, which may be the one offered; 
+	 *         null if none was dropped
+	 */
+	synchronized ByteBuffer offer(ByteBuffer buf)
+	{
+		ByteBuffer drop = null;
+		if (this.commands.size() >= this.capacity)
+		{
+			this.dropped++;
+			if (DropPolicy.TAIL_DROP == this.policy)
+			{ return buf; }
+			drop = this.commands.poll();
+		}
+		this.commands.add(buf);
+		this.enqueued++;
+		this.highWater = Math.max(this.highWater, this.commands.size());
+		return drop;
+	}
+	
+	/**
+	 * Take the oldest commands from the queue.
+	 * @param batch array the commands are put in
+	 * @param offset index in the array of the first command taken
+	 * @param max most commands to take
+	 * @return number of commands taken
+	 */
+	synchronized int drain(ByteBuffer[] batch, int offset, int max)
+	{
+		int count = Math.min(max, this.commands.size());
+		for (int i = 0; i < count; i++)
+		{ batch[offset + i] = this.commands.poll(); }
+		this.dequeued += count;
+		return count;
+	}
+	
+	/**
+	 * @return number of commands queued now
+	 */
+	synchronized int getDepth()
+	{ return this.commands.size(); }
+	
+	/**
+	 * @return number of commands dropped because the queue was full
+	 */
+	synchronized long getDropped()
+	{ return this.dropped; }
+	
+	public synchronized String toString()
+	{
+		return String.format("%s %d/%d queued (max %d), %d sent, %d dropped", 
+				this.ifaceName, this.commands.size(), this.capacity, 
+				this.highWater, this.dequeued, this.dropped);
+	}
+}
@@ -0,0 +1,256 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes commands queued per interface to the server, so a slow server 
+ * never stalls the threads sending frames. Queues are served round robin,
+ * a few commands from each at a time, so one busy interface cannot starve 
+ * the others; everything taken in one round is written with one gathering
+ * write. Call start() to begin writing.
+ */
+class TxWriter extends Thread
+{
+	/** Most commands written at once */
+	private static final int MAX_BATCH = 64;
+	
+	/** Most commands taken from one queue in a round */
+	private static final int MAX_PER_QUEUE = 16;
+	
+	/** Channel to the server */
+	private final GatheringByteChannel channel;
+	
+	/** Most commands queued for each interface */
+	private final int capacity;
+	
+	/** Which command to drop when a queue is full */
+	private final DropPolicy policy;
+	
+	/** Buffers commands are queued in */
+	private final CommandBufferPool bufferPool;
+	
+	/** Queue for each interface, by interface name */
+	private final Map<String,TxQueue> queuesByName = 
+			new ConcurrentHashMap<String,TxQueue>();
+	
+	/** Queue for each interface, in the order they were created */
+	private final List<TxQueue> queues = new CopyOnWriteArrayList<TxQueue>();
+	
+	/** Commands being written */
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+	
+	/** Queue the next round starts with */
+	private int next;
+	
+	/** True while the writer is parked waiting for commands */
+	private volatile boolean sleeping;
+	
+	/** False once the writer should stop after writing what is queued */
+	private volatile boolean running = true;
+	
+	/** Set once a write has failed; nothing more is written */
+	private volatile boolean failed;
+	
+	/**
+	 * Creates a writer.
+	 * @param channel channel to the server
+	 * @param maxCommandLength length of the largest command sent
+	 * @param capacity most commands queued for each interface
+	 * @param policy which command to drop when a queue is full
+	 */
+	TxWriter(GatheringByteChannel channel, int maxCommandLength, int capacity,
+			DropPolicy policy)
+	{
+		super("TxWriter");
+		this.channel = channel;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.bufferPool = new CommandBufferPool(maxCommandLength, 
+				capacity * 4);
+	}
+	
+	/**
+	 * @return size of the buffers commands are queued in
+	 */
+	int getBufferSize()
+	{ return this.bufferPool.getBufferSize(); }
+	
+	/**
+	 * @return a cleared buffer to put a command in
+	 */
+	ByteBuffer acquire()
+	{ return this.bufferPool.acquire(); }
+	
+	/**
+	 * Queue a command to be written; never blocks.
+	 * @param ifaceName name of the interface the command sends a frame out
+	 * @param buf the command, flipped for writing, in a buffer from 
+	 *        {@link #acquire()}
+	 * @return false if a command was dropped because the queue was full,
+	 *         or the offered command was dropped because writing failed
+	 */
+	boolean enqueue(String ifaceName, ByteBuffer buf)
+	{
+		if (this.failed)
+		{
+			this.bufferPool.release(buf);
+			return false;
+		}
+		
+		TxQueue queue = this.queuesByName.get(ifaceName);
+		if (null == queue)
+		{
+			queue = new TxQueue(ifaceName, this.capacity, this.policy);
+			TxQueue existing = this.queuesByName.putIfAbsent(ifaceName, queue);
+			if (existing != null)
+			{ queue = existing; }
+			else
+			{ this.queues.add(queue); }
+		}
+		
+		ByteBuffer drop = queue.offer(buf);
+		if (drop != null)
+		{ this.bufferPool.release(drop); }
+		if (this.sleeping)
+		{ LockSupport.unpark(this); }
+		return (null == drop);
+	}
+	
+	/**
+	 * Stop the writer once everything queued has been written, and wait 
+	 * for it to finish.
+	 */
+	void shutdown() throws InterruptedException
+	{
+		this.running = false;
+		LockSupport.unpark(this);
+		this.join();
+	}
+	
+	/**
+	 * @return total number of commands dropped because a queue was full
+	 */
+	long getDropped()
+	{
+		long dropped = 0;
+		for (TxQueue queue : this.queues)
+		{ dropped += queue.getDropped(); }
+		return dropped;
+	}
+	
+	/**
+	 * @param ifaceName name of an interface
+	 * @return true if a command queued for the interface now would be 
+	 *         dropped
+	 */
+	boolean isFull(String ifaceName)
+	{
+		TxQueue queue = this.queuesByName.get(ifaceName);
+		return (queue != null) && queue.getDepth() >= this.capacity;
+	}
+	
+	/**
+	 * @return true if a write has failed and the writer has stopped
+	 */
+	boolean hasFailed()
+	{ return this.failed; }
+	
+	public void run()
+	{
+		while (!this.failed)
+		{
+			if (this.writeRound() > 0)
+			{ continue; }
+			if (!this.running)
+			{ break; }
+			
+			// Check once more after announcing the writer is going to sleep,
+			// so a command queued meanwhile is not left waiting; whoever
+			// queues a command after the check sees the writer sleeping and
+			// wakes it
+			this.sleeping = true;
+			if (!this.hasQueued() && this.running)
+			{ LockSupport.park(this); }
+			this.sleeping = false;
+		}
+	}
+	
+	/**
+	 * Take commands from each queue in turn and write them to the server.
+	 * @return number of commands written
+	 */
+	private int writeRound()
+	{
+		int queueCount = this.queues.size();
+		int count = 0;
+		for (int i = 0; i < queueCount && count < MAX_BATCH; i++)
+		{
+			TxQueue queue = this.queues.get((this.next + i) % queueCount);
+			count += queue.drain(this.batch, count, 
+					Math.min(MAX_PER_QUEUE, MAX_BATCH - count));
+		}
+		if (queueCount > 0)
+		{ this.next = (this.next + 1) % queueCount; }
+		if (0 == count)
+		{ return 0; }
+		
+		try
+		{
+			while (this.batch[count - 1].hasRemaining())
+			{ this.channel.write(this.batch, 0, count); }
+		}
+		catch (IOException e)
+		{ this.fail(e); }
+		for (int i = 0; i < count; i++)
+		{
+			this.bufferPool.release(this.batch[i]);
+			this.batch[i] = null;
+		}
+		return count;
+	}
+	
+	/**
+	 * Stop writing after a write failed. A partial write leaves the stream
+	 * mid-command, so the channel is closed: whoever reads from it sees the
+	 * connection end rather than a mis-framed command.
+	 * @param e why the write failed
+	 */
+	private void fail(IOException e)
+	{
+		System.err.println("Error writing packet, closing connection: " + e);
+		this.failed = true;
+		try { this.channel.close(); } catch (IOException f) { }
+	}
+	
+	/**
+	 * @return true if any queue holds commands
+	 */
+	private boolean hasQueued()
+	{
+		for (TxQueue queue : this.queues)
+		{
+			if (queue.getDepth() > 0)
+			{ return true; }
+		}
+		return false;
+	}
+	
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder();
+		for (TxQueue queue : this.queues)
+		{
+			if (result.length() > 0)
+			{ result.append(", "); }
+			result.append(queue);
+		}
+		return result.toString();
+	}
+}
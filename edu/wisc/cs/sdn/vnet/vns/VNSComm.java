@@ -1,14 +1,23 @@
 package edu.wisc.cs.sdn.vnet.vns;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.MACAddress;
 
 import edu.wisc.cs.sdn.vnet.Device;
@@ -16,17 +25,401 @@ import edu.wisc.cs.sdn.vnet.Iface;
 
 public class VNSComm 
 {
-	private Socket socket;
+	/** Largest command accepted from the server by default */
+	public static final int DEFAULT_MAX_COMMAND_LENGTH = 10000;
+	
+	/** Smallest receive buffer by default; a single read can bring in many 
+	 *  commands */
+	public static final int MIN_RECV_BUFFER_SIZE = 256 * 1024;
+	
+	/** Most command buffers kept for reuse */
+	private static final int MAX_FREE_COMMAND_BUFFERS = 64;
+	
+	/** Size of the buffer outgoing commands are coalesced in by default */
+	public static final int DEFAULT_COALESCE_BUFFER_SIZE = 64 * 1024;
+	
+	/** Channel commands are read from the server on */
+	private ReadableByteChannel inChannel;
+	
+	/** Channel commands are written to the server on; usually the same 
+	 *  channel as inChannel */
+	private GatheringByteChannel outChannel;
+	
 	private Device device;
 	
+	/** Largest command accepted from the server */
+	private int maxCommandLength;
+	
+	/** Smallest size of the receive buffer */
+	private int recvBufferSize = MIN_RECV_BUFFER_SIZE;
+	
+	/** Bytes read from the server but not yet handled, between position and
+	 *  limit; only used by the thread reading from the server */
+	private ByteBuffer recvBuffer;
+	
+	/** Buffers each received command is copied into while it is handled */
+	private CommandBufferPool bufferPool;
+	
+	/** Serializes writes from the packet handling and egress threads */
+	private final Object sendLock = new Object();
+	
+	/** Buffer packet commands are encoded into; guarded by sendLock */
+	private ByteBuffer sendBuffer = ByteBuffer.allocate(2048);
+	
+	/** Packet command header sent in front of a frame; guarded by sendLock */
+	private ByteBuffer headerBuffer = 
+			ByteBuffer.allocate(CommandPacket.HEADER_SIZE);
+	
+	/** Header and frame for gathering writes; guarded by sendLock */
+	private ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+	
+	/** Commands sent but not yet written to the server, before position; 
+	 *  null to write each command as it is sent. Guarded by sendLock */
+	private ByteBuffer coalesceBuffer = 
+			ByteBuffer.allocateDirect(DEFAULT_COALESCE_BUFFER_SIZE);
+	
+	/** When the oldest command in the coalesce buffer was sent; guarded by
+	 *  sendLock */
+	private long coalesceStartNanos;
+	
+	/** True while the reading thread has no commands left to handle; sends 
+	 *  are written out immediately, since no more input will flush them */
+	private volatile boolean readerIdle = true;
+	
+	/** Writes out coalesced commands that wait too long; null if unbounded */
+	private OutputFlusher flusher;
+	
+	/** Packet commands read from the server for each pipeline worker; null 
+	 *  if commands are handled by the thread reading them */
+	private CommandRing[] rxRings;
+	
+	/** Commands sent, queued for the pipeline writer; null if commands are 
+	 *  written by the thread sending them */
+	private CommandRing txRing;
+	
+	/** Pipeline stages handling packets, one per receive ring; null if not
+	 *  pipelined */
+	private PipelineWorker[] workers;
+	
+	/** Pipeline stage writing to the server; null if not pipelined */
+	private PipelineWriter writer;
+	
+	/** Writes commands queued per interface to the server; null if 
+	 *  commands are not queued per interface */
+	private TxWriter txWriter;
+	
+	/** Packet command reused for every packet received; only used by the 
+	 *  thread reading from the server, pipeline workers have their own */
+	private CommandPacket recvPacket = new CommandPacket();
+	
+	/** Interface names padded for the packet command header, by name */
+	private Map<String,byte[]> ifaceNameBytes = 
+			new ConcurrentHashMap<String,byte[]>();
+	
 	public VNSComm(Device device)
 	{ 
 		this.device = device;
 		this.device.setVNSComm(this);
+		this.setMaxCommandLength(DEFAULT_MAX_COMMAND_LENGTH);
+	}
+	
+	/**
+	 * Set the largest command accepted from the server, e.g. to allow jumbo
+	 * frames. Must be called before reading from the server.
+	 * @param maxCommandLength largest command length, in bytes, including
+	 *        the command header
+	 */
+	public void setMaxCommandLength(int maxCommandLength)
+	{
+		this.maxCommandLength = maxCommandLength;
+		this.recvBuffer = ByteBuffer.allocateDirect(
+				Math.max(this.recvBufferSize, 2 * maxCommandLength));
+		this.recvBuffer.limit(0);
+		this.bufferPool = new CommandBufferPool(maxCommandLength,
+				MAX_FREE_COMMAND_BUFFERS);
+	}
+	
+	/**
+	 * Set the size of the buffer data read from the server is received in; 
+	 * it always holds at least two of the largest commands. Devices hosted 
+	 * many to a process use a smaller buffer to save memory. Must be called 
+	 * before reading from the server.
+	 * @param size buffer size in bytes
+	 */
+	public void setReceiveBufferSize(int size)
+	{
+		this.recvBufferSize = size;
+		this.setMaxCommandLength(this.maxCommandLength);
+	}
+	
+	/**
+	 * Set the largest Ethernet frame accepted from the server.
+	 * @param maxFrameLength largest frame length, in bytes
+	 */
+	public void setMaxFrameLength(int maxFrameLength)
+	{ this.setMaxCommandLength(CommandPacket.HEADER_SIZE + maxFrameLength); }
+	
+	/**
+	 * @return largest command accepted from the server, in bytes
+	 */
+	public int getMaxCommandLength()
+	{ return this.maxCommandLength; }
+	
+	/**
+	 * Set the size of the buffer sent commands are coalesced in. Coalesced
+	 * commands are written to the server when the buffer fills, when the 
+	 * commands received so far have all been handled, or when the oldest 
+	 * has waited the maximum flush delay. Larger buffers trade latency for 
+	 * fewer writes.
+	 * @param size buffer size in bytes; 0 to write every command as it is 
+	 *        sent
+	 */
+	public void setCoalesceBufferSize(int size)
+	{
+		synchronized(this.sendLock)
+		{
+			try
+			{ this.flush(); }
+			catch (IOException e)
+			{ System.err.println("Error writing packet"); }
+			this.coalesceBuffer = (size > 0) ? ByteBuffer.allocateDirect(size)
+					: null;
+		}
+	}
+	
+	/**
+	 * Bound how long a sent command may wait in the coalesce buffer.
+	 * @param micros maximum delay in microseconds; 0 for no bound beyond 
+	 *        flushing when input runs out
+	 */
+	public void setMaxFlushDelay(long micros)
+	{
+		synchronized(this.sendLock)
+		{
+			if (this.flusher != null)
+			{
+				this.flusher.shutdown();
+				this.flusher = null;
+			}
+			if (micros > 0)
+			{
+				this.flusher = new OutputFlusher(this, micros * 1000);
+				this.flusher.start();
+			}
+		}
+	}
+	
+	/**
+	 * Split receiving, handling and sending packets into a pipeline of 
+	 * three threads connected by ring buffers: the thread calling 
+	 * {@link #readFromServer()} only reads and frames commands, a worker
+	 * passes packets to the device, and a writer writes what the device 
+	 * sends to the server. Must be called after connecting to the server 
+	 * and reading the hardware info.
+	 * @param slots number of commands each ring buffer can hold
+	 * @param waitStrategy how stages wait for a ring buffer to fill or drain
+	 */
+	public void startPipeline(int slots, WaitStrategy waitStrategy)
+	{ this.startPipeline(slots, waitStrategy, 1); }
+	
+	/**
+	 * Start a pipeline, see {@link #startPipeline(int, WaitStrategy)}, with
+	 * several workers. Each packet is queued for the worker chosen by a hash
+	 * of its IPv4 5-tuple, so the packets of a flow are handled in order;
+	 * packets that are not IPv4 all go to the first worker. Devices that 
+	 * cannot handle frames concurrently get one worker.
+	 * @param slots number of commands each ring buffer can hold
+	 * @param waitStrategy how stages wait for a ring buffer to fill or drain
+	 * @param workerCount number of threads handling packets
+	 */
+	public void startPipeline(int slots, WaitStrategy waitStrategy, 
+			int workerCount)
+	{
+		if (workerCount > 1 && !this.device.isConcurrent())
+		{
+			System.err.println(String.format(
+					"Device cannot handle frames concurrently, using 1 worker instead of %d",
+					workerCount));
+			workerCount = 1;
+		}
+		
+		synchronized(this.sendLock)
+		{
+			try
+			{ this.flush(); }
+			catch (IOException e)
+			{ System.err.println("Error writing packet"); }
+			this.rxRings = new CommandRing[Math.max(workerCount, 1)];
+			for (int i = 0; i < this.rxRings.length; i++)
+			{
+				this.rxRings[i] = new CommandRing(slots, 
+						this.maxCommandLength, waitStrategy);
+			}
+			if (null == this.txWriter)
+			{
+				this.txRing = new CommandRing(slots, this.maxCommandLength, 
+						waitStrategy);
+			}
+		}
+		this.workers = new PipelineWorker[this.rxRings.length];
+		for (int i = 0; i < this.workers.length; i++)
+		{
+			this.workers[i] = new PipelineWorker(this, this.rxRings[i], i);
+			this.workers[i].start();
+		}
+		if (this.txRing != null)
+		{
+			this.writer = new PipelineWriter(this.outChannel, this.txRing);
+			this.writer.start();
+		}
+	}
+	
+	/**
+	 * Stop the pipeline once the packets read so far have been handled and 
+	 * everything sent has been written.
+	 */
+	public void stopPipeline()
+	{
+		if (null == this.rxRings)
+		{ return; }
+		for (CommandRing rxRing : this.rxRings)
+		{ rxRing.close(); }
+		try
+		{
+			for (PipelineWorker worker : this.workers)
+			{ worker.join(); }
+			if (this.writer != null)
+			{
+				this.txRing.close();
+				this.writer.join();
+			}
+		}
+		catch (InterruptedException e)
+		{ Thread.currentThread().interrupt(); }
+	}
+	
+	/**
+	 * @return the current and largest depths of the pipeline's queues; null
+	 *         if not pipelined
+	 */
+	public String getQueueDepths()
+	{
+		if (null == this.rxRings)
+		{ return null; }
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < this.rxRings.length; i++)
+		{
+			if (i > 0)
+			{ result.append(", "); }
+			result.append(String.format("rx%d %s", i, this.rxRings[i]));
+		}
+		if (this.txRing != null)
+		{ result.append(String.format(", tx %s", this.txRing)); }
+		return result.toString();
+	}
+	
+	/**
+	 * Queue the commands sent for each interface, up to a limit, and write 
+	 * them to the server from a separate thread. Sending never blocks on a 
+	 * slow server: once an interface's queue is full, commands sent out it
+	 * are dropped according to the policy. Must be called after connecting 
+	 * and before starting the pipeline, which then writes through the 
+	 * queues.
+	 * @param capacity most commands queued for each interface
+	 * @param policy which command to drop when a queue is full
+	 */
+	public void startEgressQueues(int capacity, DropPolicy policy)
+	{
+		synchronized(this.sendLock)
+		{
+			try
+			{ this.flush(); }
+			catch (IOException e)
+			{ System.err.println("Error writing packet"); }
+			this.txWriter = new TxWriter(this.outChannel, 
+					this.maxCommandLength, capacity, policy);
+		}
+		this.txWriter.start();
+	}
+	
+	/**
+	 * Stop queueing once everything queued has been written.
+	 */
+	public void stopEgressQueues()
+	{
+		if (null == this.txWriter)
+		{ return; }
+		try
+		{ this.txWriter.shutdown(); }
+		catch (InterruptedException e)
+		{ Thread.currentThread().interrupt(); }
+	}
+	
+	/**
+	 * @return the depth, largest depth, and commands written and dropped 
+	 *         for each interface's egress queue; null if not queued
+	 */
+	public String getEgressStats()
+	{
+		if (null == this.txWriter)
+		{ return null; }
+		return this.txWriter.toString();
 	}
 	
 	public boolean connectToServer(short port, String server)
 	{
+		// Talk to a server in this process through memory
+		if (server.equals(VNSServer.LOCAL))
+		{
+			VNSServer localServer = VNSServer.getLocal();
+			if (null == localServer)
+			{
+				System.err.println("No server running in this process");
+				return false;
+			}
+			MemoryChannel memChannel = localServer.connectLocal();
+			return this.connect(memChannel, memChannel);
+		}
+		
+		// Talk to a server on this host through a file it created for us
+		if (server.startsWith(VNSServer.SHARED_MEMORY_PREFIX))
+		{
+			String dir = server.substring(
+					VNSServer.SHARED_MEMORY_PREFIX.length());
+			SharedMemoryChannel shmChannel;
+			try
+			{
+				shmChannel = SharedMemoryChannel.open(
+						Paths.get(dir, this.device.getHost()));
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				return false;
+			}
+			return this.connect(shmChannel, shmChannel);
+		}
+		
+		// Talk to a server on this host through a Unix domain socket; 
+		// commands are framed just as they are over TCP
+		if (server.startsWith(VNSServer.UNIX_SOCKET_PREFIX))
+		{
+			String path = server.substring(
+					VNSServer.UNIX_SOCKET_PREFIX.length());
+			SocketChannel unixChannel;
+			try
+			{
+				unixChannel = SocketChannel.open(StandardProtocolFamily.UNIX);
+				unixChannel.connect(UnixDomainSocketAddress.of(path));
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				return false;
+			}
+			return this.connect(unixChannel, unixChannel);
+		}
+		
 		// Grab server address from name
 		InetAddress addr;
 		try 
@@ -38,14 +431,33 @@ public class VNSComm
 		}
 		
 		// Create socket and attempt to connect to the server
+		SocketChannel channel;
 		try 
-		{ socket = new Socket(addr, port); }
+		{
+			channel = SocketChannel.open(new InetSocketAddress(addr, port));
+			// Commands are coalesced here, so don't wait to fill segments
+			channel.socket().setTcpNoDelay(true);
+		}
 		catch (IOException e) 
 		{
 			e.printStackTrace();
 			return false;
 		}
 		
+		return this.connect(channel, channel);
+	}
+	
+	/**
+	 * Open a session with the server over already connected channels.
+	 * @param in channel commands are read from the server on
+	 * @param out channel commands are written to the server on
+	 * @return true if the session was opened, otherwise false
+	 */
+	public boolean connect(ReadableByteChannel in, GatheringByteChannel out)
+	{
+		this.inChannel = in;
+		this.outChannel = out;
+		
 		// Send VNS_OPEN message to server
 		CommandOpen cmdOpen = new CommandOpen();
 		cmdOpen.mVirtualHostId = this.device.getHost();
@@ -53,9 +465,8 @@ public class VNSComm
 		
 		try
 		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-			outStream.flush();
+			synchronized(this.sendLock)
+			{ this.write(ByteBuffer.wrap(buf)); }
 		}
 		catch(IOException e)
 		{
@@ -108,73 +519,136 @@ public class VNSComm
 	
 	public boolean readFromServerExpect(int expectedCmd)
 	{
-		int bytesRead = 0;
-		InputStream inStream = null;
-		
-		// Get input stream
-		try 
-		{ inStream = this.socket.getInputStream(); } 
-		catch (IOException e) 
+		// Attempt to read the size of the incoming packet
+		int len;
+		try
+		{
+			if (!this.fillRecvBuffer(4))
+			{ throw new EOFException(); }
+			len = this.recvBuffer.getInt(this.recvBuffer.position());
+		}
+		catch (IOException e)
 		{
 			e.printStackTrace();
 			return false;
 		}
 		
-		// Attempt to read the size of the incoming packet
-		byte[] lenBytes = new byte[4];
-		while (bytesRead < 4)
+		if (len > this.maxCommandLength || len < 8)
 		{
-			try 
-			{
-				int ret = inStream.read(lenBytes, bytesRead, 4 - bytesRead);
-				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
-			{
-				e.printStackTrace();
-				return false;
-			}
+			System.err.println(String.format(
+					"Error: command length %d outside limit %d", len,
+					this.maxCommandLength));
+			this.close();
+			return false;
 		}
 		
-		int len = ByteBuffer.wrap(lenBytes).getInt();
-		
-		if (len > 10000 || len < 0)
+		// Read the rest of the command
+		try
 		{
-			System.err.println(String.format(
-					"Error: comamnd length too large %d", len));
-			try { socket.close(); } catch (IOException e) { }
+			if (!this.fillRecvBuffer(len))
+			{ throw new EOFException(); }
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.err.println("Error: failed reading command body");
+			this.close();
 			return false;
 		}
 		
-		// Allocate buffer
-		ByteBuffer buf = ByteBuffer.allocate(len);
+		// Queue packets for a pipeline worker, if there are any
+		if (this.rxRings != null && Command.VNS_PACKET 
+				== this.recvBuffer.getInt(this.recvBuffer.position() + 4))
+		{
+			CommandRing rxRing = this.rxRings[0];
+			if (this.rxRings.length > 1 && len > CommandPacket.HEADER_SIZE)
+			{
+				EthernetView frame = EthernetView.local().wrap(
+						this.recvBuffer, 
+						this.recvBuffer.position() + CommandPacket.HEADER_SIZE,
+						len - CommandPacket.HEADER_SIZE);
+				rxRing = this.rxRings[Math.floorMod(frame.flowHash(), 
+						this.rxRings.length)];
+			}
+			ByteBuffer slot = rxRing.claim();
+			int recvLimit = this.recvBuffer.limit();
+			this.recvBuffer.limit(this.recvBuffer.position() + len);
+			slot.put(this.recvBuffer);
+			this.recvBuffer.limit(recvLimit);
+			rxRing.publish();
+			return true;
+		}
 		
-		// Set first field of command since we've already read it
-		buf.putInt(len);
+		// Copy the command out of the receive buffer, which the next read 
+		// compacts, into a pooled buffer it can be handled and sent from
+		ByteBuffer buf = this.bufferPool.acquire();
+		int recvLimit = this.recvBuffer.limit();
+		this.recvBuffer.limit(this.recvBuffer.position() + len);
+		buf.put(this.recvBuffer);
+		this.recvBuffer.limit(recvLimit);
+		buf.flip();
 		
-		// Read the rest of the command
-		while (bytesRead < len)
+		try
+		{ return this.handleCommand(buf, expectedCmd, this.recvPacket); }
+		finally
+		{ this.bufferPool.release(buf); }
+	}
+	
+	/**
+	 * Read from the server until the receive buffer holds at least a number
+	 * of bytes. Each read takes as much as the buffer has room for, so one 
+	 * read usually brings in many commands.
+	 * @param needed number of bytes needed
+	 * @return false if the server closed the connection first
+	 */
+	private boolean fillRecvBuffer(int needed) throws IOException
+	{
+		while (this.recvBuffer.remaining() < needed)
 		{
-			try 
+			// Every command received has been handled, so write out what 
+			// handling them sent before waiting for more
+			this.readerIdle = true;
+			if (null == this.txRing && null == this.txWriter)
 			{
-				int ret = inStream.read(buf.array(), bytesRead, len - bytesRead);
-				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
+				synchronized(this.sendLock)
+				{ this.flush(); }
+			}
+			
+			this.recvBuffer.compact();
+			int ret;
+			try
+			{ ret = this.inChannel.read(this.recvBuffer); }
+			finally
 			{
-				e.printStackTrace();
-				System.err.println("Error: failed reading command body");
-				try { socket.close(); } catch (IOException e2) { }
-				return false;
+				this.recvBuffer.flip();
+				this.readerIdle = false;
 			}
+			if (ret < 0)
+			{ return false; }
 		}
-		
+		return true;
+	}
+	
+	/**
+	 * Handle a packet command queued for a pipeline worker.
+	 * @param buf buffer holding exactly the command
+	 * @param cmdPkt packet command reused by the worker
+	 */
+	void handleQueuedCommand(ByteBuffer buf, CommandPacket cmdPkt)
+	{ this.handleCommand(buf, 0, cmdPkt); }
+	
+	/**
+	 * Handle a command read from the server.
+	 * @param buf buffer holding exactly the command
+	 * @param expectedCmd command expected; 0 if any command is expected
+	 * @param cmdPkt packet command reused by the handling thread
+	 * @return false if the command was unexpected, otherwise true
+	 */
+	private boolean handleCommand(ByteBuffer buf, int expectedCmd, 
+			CommandPacket cmdPkt)
+	{
 		// Make sure the command is what we expected if we were expecting something
-		int command = buf.getInt();
+		int command = buf.getInt(4);
 		if (expectedCmd != 0 && command != expectedCmd)
 		{
 			if (command != Command.VNS_CLOSE) // VNS_CLOSE is always ok
@@ -190,16 +664,26 @@ public class VNSComm
 		switch(command)
 		{
 		case Command.VNS_PACKET:
-			CommandPacket cmdPkt = new CommandPacket();
-			cmdPkt.deserialize(buf);
+			cmdPkt.deserializeHeader(buf);
+			EthernetView frame = EthernetView.local().wrap(buf, 
+					buf.position(), buf.limit() - buf.position());
 			
 			// Log packet
 			if (this.device.getLogFile() != null)
-			{ this.device.getLogFile().dump(cmdPkt.etherPacket); }
+			{ 
+				this.device.getLogFile().dump(buf, frame.getOffset(), 
+						frame.getLength()); 
+			}
 			
-			// Pass to device, student's code should take over here
-			this.device.handlePacket(cmdPkt.etherPacket, 
-					this.device.getInterface(cmdPkt.mInterfaceName));
+			// Pass to device, student's code should take over here; packets 
+			// deserialized from the frame are recycled once it returns
+			try
+			{
+				this.device.handleFrame(frame, 
+						this.device.getInterface(cmdPkt.mInterfaceName));
+			}
+			finally
+			{ frame.release(); }
 			break;
 			
 		case Command.VNS_CLOSE:
@@ -248,29 +732,295 @@ public class VNSComm
 		cmdPacket.mInterfaceName = ifaceName;
 		cmdPacket.etherPacket = etherPacket;
 		
-		byte[] buf = cmdPacket.serialize();
-		
 		/*if (!etherAddrsMatchInterface(etherPacket, ifaceName))
 		{
 			System.err.println("*** Error: problem with ethernet header, check log");
 			return false;
 		}*/
 		
+		return this.send(cmdPacket);
+	}
+	
+	/**
+	 * Send an already serialized Ethernet frame.
+	 * @param frame a serialized Ethernet frame
+	 * @param ifaceName name of the interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendFrame(byte[] frame, String ifaceName)
+	{ return this.sendFrame(ByteBuffer.wrap(frame), 0, frame.length, ifaceName); }
+	
+	/**
+	 * Send an Ethernet frame without copying or serializing it. If the frame
+	 * has room in front of it, which held the header of the command the 
+	 * frame was received in, the packet command header is written there and
+	 * the header and frame are written to the server together; otherwise 
+	 * the header and frame are sent with one gathering write.
+	 * @param buf buffer holding the frame
+	 * @param offset offset of the frame in the buffer
+	 * @param length length of the frame
+	 * @param ifaceName name of the interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendFrame(ByteBuffer buf, int offset, int length, 
+			String ifaceName)
+	{
 		// Log packet
 		if (this.device.getLogFile() != null)
-		{ this.device.getLogFile().dump(etherPacket); }
+		{ this.device.getLogFile().dump(buf, offset, length); }
 		
+		byte[] nameBytes = this.getIfaceNameBytes(ifaceName);
+		int position = buf.position();
+		int limit = buf.limit();
 		try
 		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-			outStream.flush();
+			synchronized(this.sendLock)
+			{
+				ByteBuffer out = this.reserve(CommandPacket.HEADER_SIZE + length);
+				if (out != null)
+				{
+					int start = out.position();
+					CommandPacket.serializeHeaderInPlace(out, 
+							start + CommandPacket.HEADER_SIZE, length, nameBytes);
+					out.position(start + CommandPacket.HEADER_SIZE);
+					buf.limit(offset + length).position(offset);
+					out.put(buf);
+					this.appended(out, ifaceName);
+				}
+				else if (offset >= CommandPacket.HEADER_SIZE)
+				{
+					int start = CommandPacket.serializeHeaderInPlace(buf, 
+							offset, length, nameBytes);
+					buf.limit(offset + length).position(start);
+					this.write(buf);
+				}
+				else
+				{
+					this.headerBuffer.clear();
+					CommandPacket.serializeHeaderInPlace(this.headerBuffer, 
+							CommandPacket.HEADER_SIZE, length, nameBytes);
+					buf.limit(offset + length).position(offset);
+					this.gatherBuffers[0] = this.headerBuffer;
+					this.gatherBuffers[1] = buf;
+					this.write(this.gatherBuffers);
+					this.gatherBuffers[1] = null;
+				}
+			}
 		}
 		catch(IOException e)
 		{
 			System.err.println("Error writing packet");
 			return false;
 		}
+		finally
+		{ buf.limit(limit).position(position); }
 		return true;
 	}
+	
+	private byte[] getIfaceNameBytes(String ifaceName)
+	{
+		byte[] nameBytes = this.ifaceNameBytes.get(ifaceName);
+		if (null == nameBytes)
+		{
+			nameBytes = new byte[CommandPacket.IFACE_NAME_SIZE];
+			byte[] tmp = ifaceName.getBytes();
+			System.arraycopy(tmp, 0, nameBytes, 0, 
+					Math.min(tmp.length, nameBytes.length));
+			this.ifaceNameBytes.put(ifaceName, nameBytes);
+		}
+		return nameBytes;
+	}
+	
+	private boolean send(CommandPacket cmdPacket)
+	{
+		try
+		{
+			synchronized(this.sendLock)
+			{
+				// Encode the command straight into the reused send buffer
+				int length = cmdPacket.getSerializedLength();
+				if (this.sendBuffer.capacity() < length)
+				{ this.sendBuffer = ByteBuffer.allocate(length); }
+				this.sendBuffer.clear();
+				cmdPacket.serialize(this.sendBuffer);
+				
+				// Log packet
+				if (this.device.getLogFile() != null)
+				{
+					this.device.getLogFile().dump(this.sendBuffer, 
+							CommandPacket.HEADER_SIZE, 
+							length - CommandPacket.HEADER_SIZE);
+				}
+				
+				this.sendBuffer.flip();
+				ByteBuffer out = this.reserve(length);
+				if (out != null)
+				{
+					out.put(this.sendBuffer);
+					this.appended(out, cmdPacket.mInterfaceName);
+				}
+				else
+				{ this.write(this.sendBuffer); }
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Error writing packet");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Write any coalesced commands to the server now.
+	 * @return true if the commands were written successfully, otherwise false
+	 */
+	public boolean flushOutput()
+	{
+		try
+		{
+			synchronized(this.sendLock)
+			{ this.flush(); }
+		}
+		catch(IOException e)
+		{
+			System.err.println("Error writing packet");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Write coalesced commands to the server if the oldest has waited at 
+	 * least a given time.
+	 * @param delayNanos how long the oldest command may wait
+	 * @return nanoseconds until the oldest command still waiting has waited 
+	 *         the given time; the given time if none are waiting
+	 */
+	long flushOlderThan(long delayNanos) throws IOException
+	{
+		synchronized(this.sendLock)
+		{
+			if (null == this.coalesceBuffer 
+					|| 0 == this.coalesceBuffer.position())
+			{ return delayNanos; }
+			long waited = System.nanoTime() - this.coalesceStartNanos;
+			if (waited < delayNanos)
+			{ return delayNanos - waited; }
+			this.flush();
+			return delayNanos;
+		}
+	}
+	
+	/**
+	 * Make room for a command in the coalesce buffer, in a slot queued 
+	 * for the pipeline writer, or in a buffer for an interface's egress 
+	 * queue; the caller holds sendLock, and calls 
+	 * {@link #appended(ByteBuffer, String)} after putting the command at 
+	 * the buffer's position.
+	 * @param length length of the command
+	 * @return the buffer to put the command in; null if the command should 
+	 *         be written directly, in which case anything coalesced has been
+	 *         written
+	 */
+	private ByteBuffer reserve(int length) throws IOException
+	{
+		if (this.txWriter != null)
+		{
+			if (length > this.txWriter.getBufferSize())
+			{ throw new IOException("Command too large to queue"); }
+			return this.txWriter.acquire();
+		}
+		if (this.txRing != null)
+		{
+			if (length > this.txRing.getSlotSize())
+			{ throw new IOException("Command too large to queue"); }
+			return this.txRing.claim();
+		}
+		
+		ByteBuffer out = this.coalesceBuffer;
+		if (null == out || length > out.capacity())
+		{
+			this.flush();
+			return null;
+		}
+		if (out.remaining() < length)
+		{ this.flush(); }
+		if (0 == out.position())
+		{ this.coalesceStartNanos = System.nanoTime(); }
+		return out;
+	}
+	
+	/**
+	 * Finish coalescing a command; the caller holds sendLock. A command for
+	 * an egress queue is queued, or dropped if the queue is full, without 
+	 * blocking. A command in a pipeline slot is handed to the writer. If the 
+	 * reader is waiting for input, nothing else is coming to fill the 
+	 * buffer, so the command is written out now.
+	 * @param out the buffer returned by {@link #reserve(int)}
+	 * @param ifaceName name of the interface the command sends a frame out
+	 * @throws ClosedChannelException if the egress queues' writer failed and
+	 *         closed the connection
+	 */
+	private void appended(ByteBuffer out, String ifaceName) throws IOException
+	{
+		if (this.txWriter != null)
+		{
+			out.flip();
+			if (!this.txWriter.enqueue(ifaceName, out) 
+					&& this.txWriter.hasFailed())
+			{ throw new ClosedChannelException(); }
+		}
+		else if (this.txRing != null)
+		{ this.txRing.publish(); }
+		else if (this.readerIdle)
+		{ this.flush(); }
+	}
+	
+	/**
+	 * Write coalesced commands to the server; the caller holds sendLock.
+	 */
+	private void flush() throws IOException
+	{
+		ByteBuffer out = this.coalesceBuffer;
+		if (null == out || 0 == out.position())
+		{ return; }
+		out.flip();
+		try
+		{ this.write(out); }
+		finally
+		{ out.clear(); }
+	}
+	
+	/**
+	 * Write a buffer to the server; the caller holds sendLock.
+	 */
+	private void write(ByteBuffer buf) throws IOException
+	{
+		while (buf.hasRemaining())
+		{ this.outChannel.write(buf); }
+	}
+	
+	/**
+	 * Write buffers to the server with gathering writes; the caller holds 
+	 * sendLock.
+	 */
+	private void write(ByteBuffer[] bufs) throws IOException
+	{
+		while (bufs[bufs.length - 1].hasRemaining())
+		{ this.outChannel.write(bufs); }
+	}
+	
+	/**
+	 * Close the connection to the server, e.g. when the device could not be
+	 * set up after connecting.
+	 */
+	public void disconnect()
+	{ this.close(); }
+	
+	private void close()
+	{
+		try { this.inChannel.close(); } catch (IOException e) { }
+		try { this.outChannel.close(); } catch (IOException e) { }
+	}
 }
@@ -0,0 +1,530 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * A stand-in for the Virtual Network Simulator server. Devices connect to 
+ * it over TCP, through a Unix domain socket or shared memory when they run 
+ * on the same host, or 
+ * through memory when they run in the same process, and are given their 
+ * interfaces from a topology file. Frames a device sends 
+ * out an interface are delivered to the device at the other end of the 
+ * interface's link; frames sent out unlinked interfaces go to the frame 
+ * listener, if any, and frames can be injected into any interface.
+ * <p>
+ * Each line of the topology file is one of
+ * <pre>
+ * iface host name mac [ip mask]
+ * link host iface host iface
+ * </pre>
+ * Blank lines and lines starting with # are ignored.
+ */
+public class VNSServer
+{
+	/** Server name devices use to connect to the server in their process */
+	public static final String LOCAL = "local";
+	
+	/** Prefix of the server name devices use to connect to the server 
+	 *  through shared memory; the rest is the directory holding a file for 
+	 *  each device */
+	public static final String SHARED_MEMORY_PREFIX = "shm:";
+	
+	/** Prefix of the server name devices use to connect to the server 
+	 *  through a Unix domain socket; the rest is the socket's path */
+	public static final String UNIX_SOCKET_PREFIX = "unix:";
+	
+	/** Server in this process that devices connect to through memory */
+	private static volatile VNSServer local;
+	
+	/** Interfaces of every device, by device name */
+	private Map<String,List<ServerPort>> ports;
+	
+	/** Sessions with connected devices, by device name */
+	private Map<String,ServerSession> sessions;
+	
+	/** Largest command accepted from a device */
+	private int maxCommandLength;
+	
+	/** Receives frames sent out unlinked interfaces; null to drop them */
+	private volatile FrameListener frameListener;
+	
+	/** Frames delivered to another device */
+	private final AtomicLong relayed = new AtomicLong();
+	
+	/** Frames dropped because their link or destination device was down,
+	 *  or the destination device's queue was full */
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Creates a server without any devices.
+	 */
+	public VNSServer()
+	{
+		this.ports = new LinkedHashMap<String,List<ServerPort>>();
+		this.sessions = new ConcurrentHashMap<String,ServerSession>();
+		this.maxCommandLength = VNSComm.DEFAULT_MAX_COMMAND_LENGTH;
+	}
+	
+	/**
+	 * @return server in this process that devices connect to through memory;
+	 *         null if none has been started
+	 */
+	public static VNSServer getLocal()
+	{ return local; }
+	
+	/**
+	 * Start a server in this process that devices connect to through memory
+	 * by using {@link #LOCAL} as the server name.
+	 * @param filename name of the topology file
+	 * @return the server; null if the topology could not be loaded
+	 */
+	public static VNSServer startLocal(String filename)
+	{
+		VNSServer server = new VNSServer();
+		if (!server.load(filename))
+		{ return null; }
+		local = server;
+		return server;
+	}
+	
+	/**
+	 * @return largest command accepted from a device, in bytes
+	 */
+	int getMaxCommandLength()
+	{ return this.maxCommandLength; }
+	
+	/**
+	 * Set the largest command accepted from a device, e.g. to allow jumbo
+	 * frames. Must be called before devices connect.
+	 * @param maxCommandLength largest command length, in bytes, including
+	 *        the command header
+	 */
+	public void setMaxCommandLength(int maxCommandLength)
+	{ this.maxCommandLength = maxCommandLength; }
+	
+	/**
+	 * Set the largest Ethernet frame accepted from a device. Must be called
+	 * before devices connect.
+	 * @param maxFrameLength largest frame length, in bytes
+	 */
+	public void setMaxFrameLength(int maxFrameLength)
+	{ this.setMaxCommandLength(CommandPacket.HEADER_SIZE + maxFrameLength); }
+	
+	/**
+	 * @param frameListener receives frames sent out unlinked interfaces; 
+	 *        null to drop them
+	 */
+	public void setFrameListener(FrameListener frameListener)
+	{ this.frameListener = frameListener; }
+	
+	/**
+	 * @return names of the devices in the topology
+	 */
+	public List<String> getHosts()
+	{ return new ArrayList<String>(this.ports.keySet()); }
+	
+	/**
+	 * @return number of frames delivered to another device
+	 */
+	public long getRelayed()
+	{ return this.relayed.get(); }
+	
+	/**
+	 * @return number of frames dropped because their link or destination 
+	 *         device was down, or the destination device's queue was full
+	 */
+	public long getDropped()
+	{ return this.dropped.get(); }
+	
+	/**
+	 * Add an interface to a device in the topology. Must be called before 
+	 * devices connect.
+	 * @param host name of the device
+	 * @param name name of the interface
+	 * @param mac MAC address of the interface
+	 * @param ip IP address of the interface; 0 if it has none
+	 * @param mask subnet mask of the interface; 0 if it has none
+	 */
+	public void addInterface(String host, String name, MACAddress mac, 
+			int ip, int mask)
+	{
+		List<ServerPort> hostPorts = this.ports.get(host);
+		if (null == hostPorts)
+		{
+			hostPorts = new ArrayList<ServerPort>();
+			this.ports.put(host, hostPorts);
+		}
+		hostPorts.add(new ServerPort(host, name, mac, ip, mask));
+	}
+	
+	/**
+	 * Link two interfaces in the topology. Must be called before devices 
+	 * connect.
+	 * @return false if either interface does not exist, otherwise true
+	 */
+	public boolean addLink(String host1, String iface1, String host2, 
+			String iface2)
+	{
+		ServerPort port1 = this.getPort(host1, iface1);
+		ServerPort port2 = this.getPort(host2, iface2);
+		if (null == port1 || null == port2)
+		{ return false; }
+		port1.peer = port2;
+		port2.peer = port1;
+		return true;
+	}
+	
+	/**
+	 * @param host name of a device
+	 * @return true if the device is connected to the server
+	 */
+	public boolean isConnected(String host)
+	{ return this.sessions.containsKey(host); }
+	
+	/**
+	 * @param host name of a device
+	 * @param iface name of one of the device's interfaces
+	 * @return MAC address of the interface; null if it doesn't exist
+	 */
+	public MACAddress getMacAddress(String host, String iface)
+	{
+		ServerPort port = this.getPort(host, iface);
+		return (port != null) ? port.mac : null;
+	}
+	
+	private ServerPort getPort(String host, String name)
+	{
+		List<ServerPort> hostPorts = this.ports.get(host);
+		if (null == hostPorts)
+		{ return null; }
+		for (ServerPort port : hostPorts)
+		{
+			if (port.name.equals(name))
+			{ return port; }
+		}
+		return null;
+	}
+	
+	/**
+	 * Populate the topology from a file.
+	 * @param filename name of the topology file
+	 * @return true if the topology was successfully loaded, otherwise false
+	 */
+	public boolean load(String filename)
+	{
+		BufferedReader reader;
+		try 
+		{ reader = new BufferedReader(new FileReader(filename)); }
+		catch (FileNotFoundException e) 
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+				{ continue; }
+				
+				String[] fields = line.split("\\s+");
+				if (fields[0].equals("iface") 
+						&& (4 == fields.length || 6 == fields.length))
+				{
+					MACAddress mac;
+					try
+					{ mac = MACAddress.valueOf(fields[3]); }
+					catch (IllegalArgumentException e)
+					{
+						System.err.println("Invalid MAC in topology file: " 
+								+ line);
+						return false;
+					}
+					int ip = 0, mask = 0;
+					if (6 == fields.length)
+					{
+						ip = IPv4.toIPv4Address(fields[4]);
+						mask = IPv4.toIPv4Address(fields[5]);
+					}
+					this.addInterface(fields[1], fields[2], mac, ip, mask);
+				}
+				else if (fields[0].equals("link") && 5 == fields.length)
+				{
+					if (!this.addLink(fields[1], fields[2], fields[3], 
+							fields[4]))
+					{
+						System.err.println("Unknown interface in topology file: "
+								+ line);
+						return false;
+					}
+				}
+				else
+				{
+					System.err.println("Invalid entry in topology file: " 
+							+ line);
+					return false;
+				}
+			}
+		}
+		catch (IOException e) 
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		finally
+		{
+			try { reader.close(); } catch (IOException f) {};
+		}
+		return true;
+	}
+	
+	/**
+	 * Accept devices connecting over TCP until the server is stopped.
+	 * @param port TCP port to listen on
+	 */
+	public void listen(short port) throws IOException
+	{ this.accept(this.bind(new InetSocketAddress(port))); }
+	
+	/**
+	 * Accept devices connecting over TCP, or through a Unix domain socket, 
+	 * on another thread; devices can connect as soon as this returns.
+	 * @param address TCP or Unix domain socket address to listen on; an 
+	 *        existing file at a Unix domain socket's path is replaced
+	 */
+	public void startListening(SocketAddress address) throws IOException
+	{
+		final ServerSocketChannel serverChannel = this.bind(address);
+		Thread acceptor = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{ accept(serverChannel); }
+				catch (IOException e)
+				{ System.err.println("VNS server stopped listening: " + e); }
+			}
+		}, "VNSServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	private ServerSocketChannel bind(SocketAddress address) throws IOException
+	{
+		ServerSocketChannel serverChannel;
+		if (address instanceof UnixDomainSocketAddress)
+		{
+			Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());
+			serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			serverChannel.bind(address);
+			System.out.println("VNS server listening on " + address);
+		}
+		else
+		{
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(address);
+			System.out.println(String.format("VNS server listening on port %d", 
+					((InetSocketAddress)address).getPort()));
+		}
+		return serverChannel;
+	}
+	
+	private void accept(ServerSocketChannel serverChannel) throws IOException
+	{
+		boolean tcp = (serverChannel.getLocalAddress() 
+				instanceof InetSocketAddress);
+		while (true)
+		{
+			SocketChannel channel = serverChannel.accept();
+			if (tcp)
+			{ channel.socket().setTcpNoDelay(true); }
+			new ServerSession(this, channel, channel).start();
+		}
+	}
+	
+	/**
+	 * Let each device in the topology connect once through shared memory, 
+	 * by creating a file named after the device that the device maps.
+	 * @param dir directory to create the files in
+	 */
+	public void listenShared(String dir) throws IOException
+	{
+		Files.createDirectories(Paths.get(dir));
+		for (String host : this.getHosts())
+		{
+			Path path = Paths.get(dir, host);
+			SharedMemoryChannel channel = SharedMemoryChannel.create(path, 
+					SharedMemoryChannel.DEFAULT_CAPACITY);
+			new ServerSession(this, channel, channel).start();
+		}
+		System.out.println("VNS server listening in " + dir);
+	}
+	
+	/**
+	 * Connect a device in this process to the server through memory.
+	 * @return the device's end of the connection
+	 */
+	MemoryChannel connectLocal()
+	{
+		MemoryChannel[] pair = MemoryChannel.pair(
+				MemoryChannel.DEFAULT_CAPACITY);
+		new ServerSession(this, pair[1], pair[1]).start();
+		return pair[0];
+	}
+	
+	/**
+	 * Register a session for a device that has opened it.
+	 * @param session the session
+	 * @return the device's interfaces; null if the device is unknown or 
+	 *         already connected
+	 */
+	List<ServerPort> open(ServerSession session)
+	{
+		List<ServerPort> hostPorts = this.ports.get(session.getHost());
+		if (null == hostPorts 
+				|| this.sessions.putIfAbsent(session.getHost(), session) != null)
+		{ return null; }
+		System.out.println("VNS server: " + session.getHost() + " connected");
+		return hostPorts;
+	}
+	
+	/**
+	 * Forget a session that has ended.
+	 * @param session the session
+	 */
+	void closed(ServerSession session)
+	{
+		if (session.getHost() != null)
+		{ this.sessions.remove(session.getHost(), session); }
+	}
+	
+	/**
+	 * Deliver a frame sent out an interface.
+	 * @param port interface the frame was sent out; null if the device 
+	 *        named an interface it doesn't have
+	 * @param frame buffer holding the frame between position and limit
+	 */
+	void relay(ServerPort port, ByteBuffer frame)
+	{
+		if (null == port)
+		{
+			this.dropped.incrementAndGet();
+			return;
+		}
+		
+		if (null == port.peer)
+		{
+			FrameListener listener = this.frameListener;
+			if (listener != null)
+			{ listener.frameSent(port.host, port.name, frame); }
+			else
+			{ this.dropped.incrementAndGet(); }
+			return;
+		}
+		
+		if (this.deliver(port.peer, frame, false))
+		{ this.relayed.incrementAndGet(); }
+		else
+		{ this.dropped.incrementAndGet(); }
+	}
+	
+	/**
+	 * Send a frame to a device as if it was received on an interface. If 
+	 * the device's queue for the interface is full, waits for room rather 
+	 * than dropping the frame, so frames are injected as fast as the device
+	 * takes them.
+	 * @param host name of the device
+	 * @param iface name of the interface
+	 * @param frame buffer holding the frame between position and limit
+	 * @return false if the interface doesn't exist, the device is not 
+	 *         connected, or the frame could not be queued; otherwise true
+	 */
+	public boolean inject(String host, String iface, ByteBuffer frame)
+	{
+		ServerPort port = this.getPort(host, iface);
+		return (port != null) && this.deliver(port, frame, true);
+	}
+	
+	private boolean deliver(ServerPort port, ByteBuffer frame, boolean wait)
+	{
+		ServerSession session = this.sessions.get(port.host);
+		if (null == session)
+		{ return false; }
+		if (wait)
+		{ session.awaitRoom(port); }
+		return session.sendPacket(port, frame);
+	}
+	
+	/**
+	 * Close every session.
+	 * @param reason why the sessions are closed
+	 */
+	public void shutdown(String reason)
+	{
+		for (ServerSession session : this.sessions.values())
+		{ session.sendClose(reason); }
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		short port = 8888;
+		String sharedDir = null;
+		String socketPath = null;
+		int maxFrameLength = 0;
+		String filename = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-p"))
+			{ port = Short.parseShort(args[++i]); }
+			else if (args[i].equals("-m"))
+			{ sharedDir = args[++i]; }
+			else if (args[i].equals("-u"))
+			{ socketPath = args[++i]; }
+			else if (args[i].equals("-j"))
+			{ maxFrameLength = Integer.parseInt(args[++i]); }
+			else
+			{ filename = args[i]; }
+		}
+		if (null == filename)
+		{
+			System.out.println("VNSServer [-p port] [-u unix_socket_path]");
+			System.out.println("     [-m shared_memory_dir] [-j max_frame_length]");
+			System.out.println("     topology_file");
+			return;
+		}
+		
+		VNSServer server = new VNSServer();
+		if (!server.load(filename))
+		{ System.exit(1); }
+		if (maxFrameLength > 0)
+		{ server.setMaxFrameLength(maxFrameLength); }
+		if (sharedDir != null)
+		{ server.listenShared(sharedDir); }
+		if (socketPath != null)
+		{ server.startListening(UnixDomainSocketAddress.of(socketPath)); }
+		server.listen(port);
+	}
+}
@@ -0,0 +1,72 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a pipeline stage waits for a ring buffer it reads from to fill, or one
+ * it writes to to drain. Spinning reacts fastest but keeps a core busy; 
+ * parking frees the core at the cost of wake-up latency. A parked stage is
+ * woken by the stage at the other end of the ring, so an idle pipeline 
+ * uses no CPU.
+ */
+public enum WaitStrategy
+{
+	/** Spin on the CPU */
+	SPIN,
+	
+	/** Spin briefly, then give up the CPU to other runnable threads */
+	YIELD,
+	
+	/** Spin briefly, then block until woken by the other stage */
+	PARK;
+	
+	/** Waits spent spinning before yielding or parking */
+	private static final int SPIN_TRIES = 100;
+	
+	/** How long a waiter that nothing wakes first sleeps before checking 
+	 *  again; each later sleep is twice as long, up to 
+	 *  {@link #MAX_PARK_NANOS} */
+	public static final long PARK_NANOS = 10 * 1000;
+	
+	/** Longest a waiter that nothing wakes sleeps before checking again */
+	public static final long MAX_PARK_NANOS = 1000 * 1000;
+	
+	/**
+	 * @param tries number of times the stage has already waited for the 
+	 *        same condition
+	 * @return true if the stage should now block until it is woken, 
+	 *         instead of calling {@link #idle(int)}
+	 */
+	boolean blocks(int tries)
+	{ return (this == PARK && tries >= SPIN_TRIES); }
+	
+	/**
+	 * Wait once. A parking waiter that nothing wakes sleeps, longer the 
+	 * longer it has waited, so a long wait costs little CPU.
+	 * @param tries number of times the stage has already waited for the 
+	 *        same condition
+	 */
+	void idle(int tries)
+	{
+		if (this == SPIN || tries < SPIN_TRIES)
+		{ Thread.onSpinWait(); }
+		else if (this == YIELD)
+		{ Thread.yield(); }
+		else
+		{
+			long nanos = PARK_NANOS;
+			for (int i = SPIN_TRIES; i < tries && nanos < MAX_PARK_NANOS; i++)
+			{ nanos <<= 1; }
+			LockSupport.parkNanos(Math.min(nanos, MAX_PARK_NANOS));
+		}
+	}
+	
+	/**
+	 * Parse a wait strategy's name, ignoring case.
+	 * @param name spin, yield or park
+	 * @return the wait strategy
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static WaitStrategy parse(String name)
+	{ return WaitStrategy.valueOf(name.toUpperCase()); }
+}
@@ -207,11 +207,13 @@ public class ARP extends BasePacket {
     }
 
     @Override
-    public byte[] serialize() {
-        int length = 8 + (2 * (0xff & this.hardwareAddressLength))
+    public int serializedLength() {
+        return 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public void serialize(ByteBuffer bb) {
         bb.putShort(this.hardwareType);
         bb.putShort(this.protocolType);
         bb.put(this.hardwareAddressLength);
@@ -221,7 +223,20 @@ public class ARP extends BasePacket {
         bb.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
         bb.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
         bb.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
-        return data;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        hardwareType = 0;
+        protocolType = 0;
+        hardwareAddressLength = 0;
+        protocolAddressLength = 0;
+        opCode = 0;
+        senderHardwareAddress = null;
+        senderProtocolAddress = null;
+        targetHardwareAddress = null;
+        targetProtocolAddress = null;
     }
 
     @Override
@@ -17,15 +17,30 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
 */
-public abstract class BasePacket implements IPacket {
+public abstract class BasePacket implements IPacket, Cloneable {
     protected IPacket parent;
     protected IPacket payload;
 
+    /** Undecoded payload bytes, decoded by the first getPayload(); null if
+     *  the payload is decoded or absent */
+    private byte[] rawPayload;
+    private int rawPayloadOffset;
+    private int rawPayloadLength;
+
+    /** Factory of the pool the packet came from; null if not pooled */
+    Supplier<?> poolFactory;
+    private boolean retained;
+    private boolean released;
+    /** Where the packet was released; only recorded in debug mode */
+    private Throwable releasedAt;
+
     /**
      * @return the parent
      */
@@ -48,6 +63,9 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket getPayload() {
+        checkLive();
+        if (rawPayload != null)
+            decodeRawPayload();
         return payload;
     }
 
@@ -56,10 +74,152 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket setPayload(IPacket payload) {
+        checkLive();
+        this.rawPayload = null;
         this.payload = payload;
         return this;
     }
     
+    /**
+     * Serialize into a new array sized by {@link #serializedLength()}.
+     */
+    @Override
+    public byte[] serialize() {
+        checkLive();
+        byte[] data = new byte[serializedLength()];
+        serialize(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * @return the serialized length of the payload; 0 if there is none
+     */
+    protected int payloadLength() {
+        checkLive();
+        if (rawPayload != null)
+            return rawPayloadLength;
+        return (payload == null) ? 0 : payload.serializedLength();
+    }
+
+    /**
+     * Serialize the payload, if any, at the buffer's position. A payload that
+     * was never decoded is copied as is.
+     */
+    protected void serializePayload(ByteBuffer out) {
+        checkLive();
+        if (rawPayload != null) {
+            out.put(rawPayload, rawPayloadOffset, rawPayloadLength);
+        } else if (payload != null) {
+            payload.setParent(this);
+            payload.serialize(out);
+        }
+    }
+
+    /**
+     * Decodes all layers.
+     */
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length,
+            DecodeDepth depth) {
+        return deserialize(data, offset, length);
+    }
+
+    /**
+     * Decode the payload now, or keep a reference to its bytes and decode it
+     * on the first {@link #getPayload()}.
+     * @param data buffer holding the payload
+     * @param offset offset of the payload in the buffer
+     * @param length length of the payload
+     * @param depth decode depth passed on to the payload
+     * @param decodeNow false to defer decoding
+     */
+    protected void deserializePayload(byte[] data, int offset, int length,
+            DecodeDepth depth, boolean decodeNow) {
+        if (decodeNow) {
+            rawPayload = null;
+            payload = newPayload().deserialize(data, offset, length, depth);
+            if (payload != null)
+                payload.setParent(this);
+        } else {
+            payload = null;
+            rawPayload = data;
+            rawPayloadOffset = offset;
+            rawPayloadLength = length;
+        }
+    }
+
+    /**
+     * @return an empty packet to decode this packet's payload
+     */
+    protected IPacket newPayload() {
+        return PacketPool.local().acquireData();
+    }
+
+    private void decodeRawPayload() {
+        byte[] data = rawPayload;
+        rawPayload = null;
+        deserializePayload(data, rawPayloadOffset, rawPayloadLength,
+                DecodeDepth.FULL, true);
+    }
+
+    @Override
+    public void release() {
+        if (retained)
+            return;
+        if (released) {
+            checkLive();
+            return;
+        }
+        // payloads shared with another packet are left to their owner
+        if (payload != null && payload.getParent() == this)
+            payload.release();
+        released = true;
+        if (PacketPool.DEBUG)
+            releasedAt = new Throwable("Packet released here");
+        reset();
+        if (poolFactory != null)
+            PacketPool.local().recycle(this, poolFactory);
+    }
+
+    @Override
+    public IPacket retain() {
+        // a retained packet must not refer to a receive buffer that is reused
+        IPacket payload = getPayload();
+        retained = true;
+        if (payload != null)
+            payload.retain();
+        return this;
+    }
+
+    /**
+     * Restore the fields to those of a newly constructed packet. Subclasses
+     * with fields of their own override this and call super.
+     */
+    protected void reset() {
+        parent = null;
+        payload = null;
+        rawPayload = null;
+    }
+
+    /**
+     * Make a released packet usable again as it leaves a pool.
+     */
+    void revive() {
+        released = false;
+        retained = false;
+        releasedAt = null;
+    }
+
+    /**
+     * In debug mode, fail if the packet has been released.
+     * @throws IllegalStateException if the packet is used after release
+     */
+    protected void checkLive() {
+        if (PacketPool.DEBUG && released)
+            throw new IllegalStateException(getClass().getSimpleName()
+                    + " used after release", releasedAt);
+    }
+
     @Override
     public void resetChecksum() {
         if (this.parent != null)
@@ -73,6 +233,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -89,28 +250,40 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        IPacket payload = getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (other.getPayload() != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(other.getPayload()))
             return false;
         return true;
     }
     
+    /**
+     * Copy the packet field by field, then copy the payload the same way.
+     * Byte arrays (addresses, options, data) are shared with the original
+     * rather than copied: setters replace arrays instead of writing into
+     * them, so neither copy sees the other's changes. Subclasses with
+     * mutable collections override this to copy them.
+     */
     @Override
     public Object clone() {
-        IPacket pkt;
+        // decode first, so the copy does not refer to a receive buffer
+        getPayload();
+        BasePacket pkt;
         try {
-            pkt = this.getClass().newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Could not clone packet");
+            pkt = (BasePacket) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Could not clone packet", e);
+        }
+        // the copy belongs to the caller, not to a pool
+        pkt.poolFactory = null;
+        pkt.retained = false;
+        if (this.payload != null) {
+            pkt.payload = (IPacket) this.payload.clone();
+            pkt.payload.setParent(pkt);
         }
-        // TODO: we are using serialize()/deserialize() to perform the 
-        // cloning. Not the most efficient way but simple. We can revisit
-        // if we hit performance problems.
-        byte[] data = this.serialize();
-        pkt.deserialize(this.serialize(), 0, data.length);
         pkt.setParent(this.parent);
         return pkt;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internet checksum (RFC 1071) helpers, including incremental updates
+ * (RFC 1624) so a header field can be changed without summing the header
+ * again.
+ */
+public class Checksum {
+    /** Offset of the checksum field in an IPv4 header */
+    public static final int IPV4_CHECKSUM_OFFSET = 10;
+
+    public static final int IPV4_MIN_HEADER_LENGTH = 20;
+    public static final int IPV4_MAX_HEADER_LENGTH = 60;
+
+    private Checksum() {
+    }
+
+    /**
+     * Add 16-bit words to a running one's complement sum. An odd trailing
+     * byte is padded with zero.
+     * @param sum running sum
+     * @param buf buffer holding the words
+     * @param offset offset of the first word
+     * @param length number of bytes to add
+     * @return the new running sum, not yet folded
+     */
+    public static int add(int sum, ByteBuffer buf, int offset, int length) {
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2)
+            sum += buf.getShort(i) & 0xffff;
+        if ((length & 1) != 0)
+            sum += (buf.get(end) & 0xff) << 8;
+        return sum;
+    }
+
+    /**
+     * Add a 16-bit word to a running one's complement sum.
+     * @param sum running sum
+     * @param word the word to add
+     * @return the new running sum, not yet folded
+     */
+    public static int add(int sum, short word) {
+        return sum + (word & 0xffff);
+    }
+
+    /**
+     * Add a 32-bit value, as two 16-bit words, to a running one's complement
+     * sum.
+     * @param sum running sum
+     * @param value the value to add
+     * @return the new running sum, not yet folded
+     */
+    public static int add(int sum, int value) {
+        return sum + (value >>> 16) + (value & 0xffff);
+    }
+
+    /**
+     * Fold a running sum into 16 bits and complement it.
+     * @param sum running sum
+     * @return the checksum
+     */
+    public static short fold(int sum) {
+        while ((sum >>> 16) != 0)
+            sum = (sum & 0xffff) + (sum >>> 16);
+        return (short) ~sum;
+    }
+
+    /**
+     * Compute the checksum of a range of bytes.
+     * @param buf buffer holding the bytes
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @return the checksum; 0 if the range includes a correct checksum
+     */
+    public static short compute(ByteBuffer buf, int offset, int length) {
+        return fold(add(0, buf, offset, length));
+    }
+
+    /**
+     * Verify an IPv4 header checksum, summing only the header.
+     * @param buf buffer holding the header
+     * @param offset offset of the header in the buffer
+     * @return true if the header length is valid (20-60 bytes) and the
+     *         checksum is correct
+     */
+    public static boolean verifyIPv4Header(ByteBuffer buf, int offset) {
+        int headerLength = (buf.get(offset) & 0xf) * 4;
+        if (headerLength < IPV4_MIN_HEADER_LENGTH
+                || offset + headerLength > buf.limit())
+            return false;
+        return 0 == compute(buf, offset, headerLength);
+    }
+
+    /**
+     * Compute the checksum of an IPv4 header and write it into the header.
+     * @param buf buffer holding the header
+     * @param offset offset of the header in the buffer
+     * @return the checksum
+     */
+    public static short resetIPv4Header(ByteBuffer buf, int offset) {
+        int headerLength = (buf.get(offset) & 0xf) * 4;
+        buf.putShort(offset + IPV4_CHECKSUM_OFFSET, (short) 0);
+        short checksum = compute(buf, offset, headerLength);
+        buf.putShort(offset + IPV4_CHECKSUM_OFFSET, checksum);
+        return checksum;
+    }
+
+    /**
+     * Update a checksum for a change to one 16-bit word it covers, using
+     * HC' = ~(~HC + ~m + m') from RFC 1624.
+     * @param checksum the current checksum
+     * @param oldWord the old value of the word
+     * @param newWord the new value of the word
+     * @return the updated checksum
+     */
+    public static short update(short checksum, short oldWord, short newWord) {
+        int sum = (~checksum & 0xffff) + (~oldWord & 0xffff)
+                + (newWord & 0xffff);
+        return fold(sum);
+    }
+
+    /**
+     * Update a checksum for a change to a 32-bit value (e.g. an address) it
+     * covers.
+     * @param checksum the current checksum
+     * @param oldValue the old value
+     * @param newValue the new value
+     * @return the updated checksum
+     */
+    public static short update(short checksum, int oldValue, int newValue) {
+        int sum = (~checksum & 0xffff)
+                + (~(oldValue >>> 16) & 0xffff) + (~oldValue & 0xffff)
+                + (newValue >>> 16) + (newValue & 0xffff);
+        return fold(sum);
+    }
+}
@@ -0,0 +1,16 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * How many layers of a frame {@link Ethernet#deserialize(byte[], int, int,
+ * DecodeDepth)} decodes up front. Layers below the depth keep their bytes
+ * and are decoded on the first call to {@link IPacket#getPayload()}, so code
+ * that only reads outer headers never pays for the inner ones.
+ */
+public enum DecodeDepth {
+    /** Decode the Ethernet header only */
+    L2,
+    /** Decode the Ethernet and network (IPv4, ARP) headers */
+    L3,
+    /** Decode every layer */
+    FULL
+}
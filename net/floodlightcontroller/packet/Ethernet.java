@@ -19,8 +19,6 @@ package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.openflow.util.HexString;
 
@@ -37,17 +35,10 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
 
-    static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-    }
-
-    protected MACAddress destinationMACAddress;
-    protected MACAddress sourceMACAddress;
+    /** MAC addresses, in the lower 48 bits */
+    protected long destinationMACAddress;
+    protected long sourceMACAddress;
     protected byte priorityCode;
     protected short vlanID;
     protected short etherType;
@@ -65,21 +56,51 @@ public class Ethernet extends BasePacket {
      * @return the destination MAC as a byte array
      */
     public byte[] getDestinationMACAddress() {
-        return destinationMACAddress.toBytes();
+        checkLive();
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.toBytes(destinationMACAddress, address, 0);
+        return address;
+    }
+
+    /**
+     * Write the destination MAC into a buffer, without allocating.
+     * @param dst buffer to write the MAC into
+     * @param offset offset in the buffer to write the MAC at
+     */
+    public void getDestinationMACAddress(byte[] dst, int offset) {
+        checkLive();
+        MACAddress.toBytes(destinationMACAddress, dst, offset);
+    }
+
+    /**
+     * @return the destination MAC in the lower 48 bits of a long
+     */
+    public long getDestinationMACAsLong() {
+        checkLive();
+        return destinationMACAddress;
     }
     
     /**
      * @return the destination MAC
      */
     public MACAddress getDestinationMAC() {
-        return destinationMACAddress;
+        checkLive();
+        return MACAddress.valueOf(destinationMACAddress);
+    }
+
+    /**
+     * @param destinationMAC the destination MAC to set
+     */
+    public Ethernet setDestinationMAC(MACAddress destinationMAC) {
+        this.destinationMACAddress = destinationMAC.toLong();
+        return this;
     }
 
     /**
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress).toLong();
         return this;
     }
 
@@ -87,7 +108,16 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress).toLong();
+        return this;
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set, in the lower 48
+     *        bits of a long
+     */
+    public Ethernet setDestinationMACAddress(long destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress & 0xffffffffffffL;
         return this;
     }
 
@@ -95,21 +125,51 @@ public class Ethernet extends BasePacket {
      * @return the source MACAddress as a byte array
      */
     public byte[] getSourceMACAddress() {
-        return sourceMACAddress.toBytes();
+        checkLive();
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.toBytes(sourceMACAddress, address, 0);
+        return address;
+    }
+
+    /**
+     * Write the source MAC into a buffer, without allocating.
+     * @param dst buffer to write the MAC into
+     * @param offset offset in the buffer to write the MAC at
+     */
+    public void getSourceMACAddress(byte[] dst, int offset) {
+        checkLive();
+        MACAddress.toBytes(sourceMACAddress, dst, offset);
+    }
+
+    /**
+     * @return the source MAC in the lower 48 bits of a long
+     */
+    public long getSourceMACAsLong() {
+        checkLive();
+        return sourceMACAddress;
     }
     
     /**
      * @return the source MACAddress
      */
     public MACAddress getSourceMAC() {
-        return sourceMACAddress;
+        checkLive();
+        return MACAddress.valueOf(sourceMACAddress);
+    }
+
+    /**
+     * @param sourceMAC the source MAC to set
+     */
+    public Ethernet setSourceMAC(MACAddress sourceMAC) {
+        this.sourceMACAddress = sourceMAC.toLong();
+        return this;
     }
 
     /**
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress).toLong();
         return this;
     }
 
@@ -117,7 +177,16 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress).toLong();
+        return this;
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set, in the lower 48 bits of
+     *        a long
+     */
+    public Ethernet setSourceMACAddress(long sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress & 0xffffffffffffL;
         return this;
     }
 
@@ -155,6 +224,7 @@ public class Ethernet extends BasePacket {
      * @return the etherType
      */
     public short getEtherType() {
+        checkLive();
         return etherType;
     }
 
@@ -170,15 +240,14 @@ public class Ethernet extends BasePacket {
      * @return True if the Ethernet frame is broadcast, false otherwise
      */
     public boolean isBroadcast() {
-        assert(destinationMACAddress.length() == 6);
-        return destinationMACAddress.isBroadcast();
+        return destinationMACAddress == 0xffffffffffffL;
     }
     
     /**
      * @return True is the Ethernet frame is multicast, False otherwise
      */
     public boolean isMulticast() {
-        return destinationMACAddress.isMulticast();
+        return !isBroadcast() && (destinationMACAddress & 0x010000000000L) != 0;
     }
     /**
      * Pad this packet to 60 bytes minimum, filling with zeros?
@@ -197,50 +266,64 @@ public class Ethernet extends BasePacket {
         return this;
     }
 
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-        int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) +
-                          ((payloadData == null) ? 0 : payloadData.length);
+    @Override
+    public int serializedLength() {
+        int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) + payloadLength();
         if (pad && length < 60) {
             length = 60;
         }
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        return length;
+    }
+
+    @Override
+    public void serialize(ByteBuffer bb) {
+        int start = bb.position();
+        bb.putShort((short) (destinationMACAddress >>> 32));
+        bb.putInt((int) destinationMACAddress);
+        bb.putShort((short) (sourceMACAddress >>> 32));
+        bb.putInt((int) sourceMACAddress);
         if (vlanID != VLAN_UNTAGGED) {
             bb.putShort((short) 0x8100);
             bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
         }
         bb.putShort(etherType);
-        if (payloadData != null)
-            bb.put(payloadData);
+        serializePayload(bb);
         if (pad) {
-            Arrays.fill(data, bb.position(), data.length, (byte)0x0);
+            while (bb.position() - start < 60)
+                bb.put((byte) 0x0);
         }
-        return data;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        destinationMACAddress = 0;
+        sourceMACAddress = 0;
+        priorityCode = 0;
+        vlanID = VLAN_UNTAGGED;
+        etherType = 0;
+        pad = false;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        return deserialize(data, offset, length, DecodeDepth.FULL);
+    }
+
+    /**
+     * Deserialize the frame, decoding its payload now unless the depth is
+     * {@link DecodeDepth#L2}.
+     */
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length,
+            DecodeDepth depth) {
         if (length <= 0)
             return null;
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        this.destinationMACAddress = ((bb.getShort() & 0xffffL) << 32)
+                | (bb.getInt() & 0xffffffffL);
+        this.sourceMACAddress = ((bb.getShort() & 0xffffL) << 32)
+                | (bb.getInt() & 0xffffffffL);
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -253,22 +336,16 @@ public class Ethernet extends BasePacket {
         }
         this.etherType = etherType;
         
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        deserializePayload(data, bb.position(), bb.limit()-bb.position(),
+                depth, depth != DecodeDepth.L2);
         return this;
     }
 
+    @Override
+    protected IPacket newPayload() {
+        return ProtocolRegistry.newEtherTypePayload(this.etherType);
+    }
+
     /**
      * Checks to see if a string is a valid MAC address.
      * @param macAddress
@@ -324,12 +401,12 @@ public class Ethernet extends BasePacket {
     public int hashCode() {
         final int prime = 7867;
         int result = super.hashCode();
-        result = prime * result + destinationMACAddress.hashCode();
+        result = prime * result + Long.hashCode(destinationMACAddress);
         result = prime * result + etherType;
         result = prime * result + vlanID;
         result = prime * result + priorityCode;
         result = prime * result + (pad ? 1231 : 1237);
-        result = prime * result + sourceMACAddress.hashCode();
+        result = prime * result + Long.hashCode(sourceMACAddress);
         return result;
     }
 
@@ -345,7 +422,7 @@ public class Ethernet extends BasePacket {
         if (!(obj instanceof Ethernet))
             return false;
         Ethernet other = (Ethernet) obj;
-        if (!destinationMACAddress.equals(other.destinationMACAddress))
+        if (destinationMACAddress != other.destinationMACAddress)
             return false;
         if (priorityCode != other.priorityCode)
             return false;
@@ -355,7 +432,7 @@ public class Ethernet extends BasePacket {
             return false;
         if (pad != other.pad)
             return false;
-        if (!sourceMACAddress.equals(other.sourceMACAddress))
+        if (sourceMACAddress != other.sourceMACAddress)
             return false;
         return true;
     }
@@ -365,7 +442,7 @@ public class Ethernet extends BasePacket {
      */
     @Override
     public String toString() {
-
+        checkLive();
         StringBuffer sb = new StringBuffer("\n");
 
         IPacket pkt = (IPacket) this.getPayload();
@@ -386,9 +463,9 @@ public class Ethernet extends BasePacket {
         sb.append("\ndl_vlan_pcp: ");
         sb.append(this.getPriorityCode());
         sb.append("\ndl_src: ");
-        sb.append(HexString.toHexString(this.getSourceMACAddress()));
+        sb.append(HexString.toHexString(sourceMACAddress, 6));
         sb.append("\ndl_dst: ");
-        sb.append(HexString.toHexString(this.getDestinationMACAddress()));
+        sb.append(HexString.toHexString(destinationMACAddress, 6));
 
 
         if (pkt instanceof ARP) {
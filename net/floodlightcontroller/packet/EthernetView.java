@@ -0,0 +1,283 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight view of an Ethernet frame in a buffer. Fields are read and
+ * rewritten directly in the buffer at their offsets, so inspecting or
+ * forwarding a frame allocates nothing; the {@link Ethernet} object tree is
+ * only built when {@link #materialize()} is called. A view is reused for
+ * every frame it wraps, so it (and anything read through it) is only valid
+ * until the next call to {@link #wrap(ByteBuffer, int, int)}.
+ */
+public class EthernetView {
+    public static final int HEADER_LENGTH = 14;
+    public static final int VLAN_HEADER_LENGTH = 4;
+    public static final short TYPE_VLAN = (short) 0x8100;
+
+    private static final ThreadLocal<EthernetView> LOCAL =
+            new ThreadLocal<EthernetView>() {
+                @Override
+                protected EthernetView initialValue() {
+                    return new EthernetView();
+                }
+            };
+
+    protected ByteBuffer buf;
+    protected int offset;
+    protected int length;
+    protected int etherTypeOffset;
+
+    private IPv4View ipv4 = new IPv4View();
+    private Ethernet materialized;
+
+    /**
+     * @return the calling thread's view
+     */
+    public static EthernetView local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Point this view at a frame.
+     * @param buf buffer holding the frame
+     * @param offset offset of the frame in the buffer
+     * @param length length of the frame
+     * @return this view
+     */
+    public EthernetView wrap(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        this.materialized = null;
+        if (length >= HEADER_LENGTH + VLAN_HEADER_LENGTH
+                && buf.getShort(offset + 12) == TYPE_VLAN)
+            this.etherTypeOffset = offset + 16;
+        else
+            this.etherTypeOffset = offset + 12;
+        return this;
+    }
+
+    /**
+     * @return the buffer holding the frame
+     */
+    public ByteBuffer getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return the offset of the frame in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the length of the frame
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the destination MAC in the lower 48 bits of a long
+     */
+    public long getDestinationMAC() {
+        return readMAC(offset);
+    }
+
+    /**
+     * @return the source MAC in the lower 48 bits of a long
+     */
+    public long getSourceMAC() {
+        return readMAC(offset + 6);
+    }
+
+    private long readMAC(int index) {
+        return ((buf.getShort(index) & 0xffffL) << 32)
+                | (buf.getInt(index + 2) & 0xffffffffL);
+    }
+
+    /**
+     * @param destinationMAC the destination MAC to write, in the lower 48
+     *        bits of a long
+     */
+    public EthernetView setDestinationMAC(long destinationMAC) {
+        writeMAC(offset, destinationMAC);
+        materialized = null;
+        return this;
+    }
+
+    /**
+     * @param sourceMAC the source MAC to write, in the lower 48 bits of a
+     *        long
+     */
+    public EthernetView setSourceMAC(long sourceMAC) {
+        writeMAC(offset + 6, sourceMAC);
+        materialized = null;
+        return this;
+    }
+
+    private void writeMAC(int index, long mac) {
+        buf.putShort(index, (short) (mac >>> 32));
+        buf.putInt(index + 2, (int) mac);
+    }
+
+    /**
+     * @return True if the Ethernet frame is broadcast, false otherwise
+     */
+    public boolean isBroadcast() {
+        return getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    /**
+     * @return True is the Ethernet frame is multicast but not broadcast,
+     *         False otherwise, as for {@link Ethernet#isMulticast()}
+     */
+    public boolean isMulticast() {
+        return !isBroadcast() && (buf.get(offset) & 0x01) != 0;
+    }
+
+    /**
+     * @return True if the frame carries an 802.1Q tag
+     */
+    public boolean isTagged() {
+        return etherTypeOffset != offset + 12;
+    }
+
+    /**
+     * @return the priorityCode; 0 if the frame is untagged
+     */
+    public byte getPriorityCode() {
+        if (!isTagged())
+            return 0;
+        return (byte) ((buf.getShort(offset + 14) >> 13) & 0x07);
+    }
+
+    /**
+     * @return the vlanID; {@link Ethernet#VLAN_UNTAGGED} if the frame is
+     *         untagged
+     */
+    public short getVlanID() {
+        if (!isTagged())
+            return Ethernet.VLAN_UNTAGGED;
+        return (short) (buf.getShort(offset + 14) & 0x0fff);
+    }
+
+    /**
+     * @return the etherType
+     */
+    public short getEtherType() {
+        return buf.getShort(etherTypeOffset);
+    }
+
+    /**
+     * @return the offset of the payload in the buffer
+     */
+    public int getPayloadOffset() {
+        return etherTypeOffset + 2;
+    }
+
+    /**
+     * @return the length of the payload
+     */
+    public int getPayloadLength() {
+        return offset + length - getPayloadOffset();
+    }
+
+    /**
+     * @return a view of the IPv4 payload; null if the frame does not carry
+     *         a complete IPv4 header
+     */
+    public IPv4View getIPv4() {
+        if (getEtherType() != Ethernet.TYPE_IPv4)
+            return null;
+        if (getPayloadLength() < IPv4View.MIN_HEADER_LENGTH)
+            return null;
+        IPv4View view = ipv4.wrap(buf, getPayloadOffset(), getPayloadLength());
+        if (view.getHeaderLength() * 4 < IPv4View.MIN_HEADER_LENGTH
+                || view.getHeaderLength() * 4 > getPayloadLength())
+            return null;
+        return view;
+    }
+
+    /**
+     * @return a hash of the IPv4 5-tuple, see {@link IPv4View#flowHash()};
+     *         0 for frames that do not carry IPv4
+     */
+    public int flowHash() {
+        IPv4View ip = getIPv4();
+        return (ip == null) ? 0 : ip.flowHash();
+    }
+
+    /**
+     * @return a copy of the frame's bytes
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[length];
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(offset + length).position(offset);
+        dup.get(data);
+        return data;
+    }
+
+    /**
+     * Deserialize every layer of the frame; see
+     * {@link #materialize(DecodeDepth)}.
+     * @return the deserialized frame
+     */
+    public Ethernet materialize() {
+        return materialize(DecodeDepth.FULL);
+    }
+
+    /**
+     * Deserialize the frame into an {@link Ethernet} object tree, taken from
+     * the calling thread's {@link PacketPool}. Layers below the depth are
+     * decoded from the buffer when first accessed. The result is cached
+     * until the view wraps another frame or is released.
+     * @param depth how many layers to decode now
+     * @return the deserialized frame
+     */
+    public Ethernet materialize(DecodeDepth depth) {
+        if (materialized == null) {
+            materialized = PacketPool.local().acquireEthernet();
+            if (buf.hasArray())
+                materialized.deserialize(buf.array(),
+                        buf.arrayOffset() + offset, length, depth);
+            else
+                materialized.deserialize(toByteArray(), 0, length, depth);
+        }
+        return materialized;
+    }
+
+    /**
+     * Release the deserialized frame, if any; see {@link IPacket#release()}.
+     * Called once the frame has been handled, so the packet objects can be
+     * reused for the next frame.
+     */
+    public void release() {
+        if (materialized != null) {
+            materialized.release();
+            materialized = null;
+        }
+    }
+
+    /**
+     * @return a one-line summary of the frame's headers
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("dl_src: ").append(MACAddress.valueOf(getSourceMAC()));
+        sb.append(" dl_dst: ").append(MACAddress.valueOf(getDestinationMAC()));
+        sb.append(String.format(" dl_type: 0x%04x", getEtherType() & 0xffff));
+        if (isTagged())
+            sb.append(" dl_vlan: ").append(getVlanID())
+                .append(" dl_vlan_pcp: ").append(getPriorityCode());
+        IPv4View ip = getIPv4();
+        if (ip != null)
+            sb.append(' ').append(ip.toString());
+        sb.append(" len: ").append(length);
+        return sb.toString();
+    }
+}
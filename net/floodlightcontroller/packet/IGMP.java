@@ -0,0 +1,358 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Implements the IGMPv1/v2 message format (RFC 2236) and the IGMPv3 query
+ * and membership report formats (RFC 3376).
+ */
+public class IGMP extends BasePacket {
+    public static final byte TYPE_MEMBERSHIP_QUERY = 0x11;
+    public static final byte TYPE_V1_MEMBERSHIP_REPORT = 0x12;
+    public static final byte TYPE_V2_MEMBERSHIP_REPORT = 0x16;
+    public static final byte TYPE_V2_LEAVE_GROUP = 0x17;
+    public static final byte TYPE_V3_MEMBERSHIP_REPORT = 0x22;
+
+    /** Length of an IGMPv1/v2 message and of the fixed part of a v3 query */
+    public static final int V2_LENGTH = 8;
+    public static final int V3_QUERY_MIN_LENGTH = 12;
+
+    protected byte igmpType;
+    protected byte maxResponseCode;
+    protected short checksum;
+    protected int groupAddress;
+
+    // IGMPv3 query fields
+    protected boolean v3Query;
+    protected byte resvSQrv;
+    protected byte qqic;
+    protected int[] sources;
+
+    // IGMPv3 report fields
+    protected List<IGMPGroupRecord> groupRecords;
+
+    public IGMP() {
+        super();
+        this.sources = new int[0];
+        this.groupRecords = new LinkedList<IGMPGroupRecord>();
+    }
+
+    /**
+     * @return the IGMP message type
+     */
+    public byte getIgmpType() {
+        return igmpType;
+    }
+
+    /**
+     * @param igmpType the IGMP message type to set
+     */
+    public IGMP setIgmpType(byte igmpType) {
+        this.igmpType = igmpType;
+        return this;
+    }
+
+    /**
+     * @return the max response time (v2) or max response code (v3)
+     */
+    public byte getMaxResponseCode() {
+        return maxResponseCode;
+    }
+
+    /**
+     * @param maxResponseCode the max response code to set
+     */
+    public IGMP setMaxResponseCode(byte maxResponseCode) {
+        this.maxResponseCode = maxResponseCode;
+        return this;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public IGMP setChecksum(short checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    @Override
+    public void resetChecksum() {
+        this.checksum = 0;
+        super.resetChecksum();
+    }
+
+    /**
+     * @return the group address; 0 for general queries and v3 reports
+     */
+    public int getGroupAddress() {
+        return groupAddress;
+    }
+
+    /**
+     * @param groupAddress the group address to set
+     */
+    public IGMP setGroupAddress(int groupAddress) {
+        this.groupAddress = groupAddress;
+        return this;
+    }
+
+    /**
+     * @return true if this is a membership query in the IGMPv3 format
+     */
+    public boolean isV3Query() {
+        return v3Query;
+    }
+
+    /**
+     * @param v3Query true to serialize a query in the IGMPv3 format
+     */
+    public IGMP setV3Query(boolean v3Query) {
+        this.v3Query = v3Query;
+        return this;
+    }
+
+    /**
+     * @return the source addresses of a v3 group-and-source query
+     */
+    public int[] getSources() {
+        return sources;
+    }
+
+    /**
+     * @param sources the source addresses of a v3 query to set
+     */
+    public IGMP setSources(int[] sources) {
+        this.sources = sources;
+        return this;
+    }
+
+    /**
+     * @return the group records of a v3 membership report
+     */
+    public List<IGMPGroupRecord> getGroupRecords() {
+        return groupRecords;
+    }
+
+    /**
+     * @param groupRecords the group records of a v3 report to set
+     */
+    public IGMP setGroupRecords(List<IGMPGroupRecord> groupRecords) {
+        this.groupRecords = groupRecords;
+        return this;
+    }
+
+    public IGMP addGroupRecord(IGMPGroupRecord record) {
+        this.groupRecords.add(record);
+        return this;
+    }
+
+    /**
+     * @return true if this message is a membership report of any version
+     */
+    public boolean isMembershipReport() {
+        return igmpType == TYPE_V1_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V2_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V3_MEMBERSHIP_REPORT;
+    }
+
+    /**
+     * @return true if this message is a membership query of any version
+     */
+    public boolean isMembershipQuery() {
+        return igmpType == TYPE_MEMBERSHIP_QUERY;
+    }
+
+    @Override
+    public int serializedLength() {
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            int length = 8;
+            for (IGMPGroupRecord record : groupRecords)
+                length += record.getLength();
+            return length;
+        } else if (igmpType == TYPE_MEMBERSHIP_QUERY && v3Query) {
+            return V3_QUERY_MIN_LENGTH + 4 * sources.length;
+        } else {
+            return V2_LENGTH;
+        }
+    }
+
+    /**
+     * Serializes the packet. Will compute and set the following fields if they
+     * are set to specific values at the time serialize is called:
+     *      -checksum : 0
+     */
+    @Override
+    public void serialize(ByteBuffer bb) {
+        int start = bb.position();
+        bb.put(this.igmpType);
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            bb.put((byte) 0);
+            bb.putShort(this.checksum);
+            bb.putShort((short) 0);
+            bb.putShort((short) groupRecords.size());
+            for (IGMPGroupRecord record : groupRecords)
+                record.serialize(bb);
+        } else {
+            bb.put(this.maxResponseCode);
+            bb.putShort(this.checksum);
+            bb.putInt(this.groupAddress);
+            if (igmpType == TYPE_MEMBERSHIP_QUERY && v3Query) {
+                bb.put(this.resvSQrv);
+                bb.put(this.qqic);
+                bb.putShort((short) sources.length);
+                for (int source : sources)
+                    bb.putInt(source);
+            }
+        }
+        int length = bb.position() - start;
+
+        if (this.parent != null && this.parent instanceof IPv4)
+            ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_IGMP);
+
+        // compute checksum if needed
+        if (this.checksum == 0) {
+            this.checksum = Checksum.compute(bb, start, length);
+            bb.putShort(start + 2, this.checksum);
+        }
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        igmpType = 0;
+        maxResponseCode = 0;
+        checksum = 0;
+        groupAddress = 0;
+        v3Query = false;
+        resvSQrv = 0;
+        qqic = 0;
+        sources = new int[0];
+        groupRecords = new LinkedList<IGMPGroupRecord>();
+    }
+
+    /**
+     * Deserializes an IGMP message; counts of records and sources are
+     * limited to what the data holds.
+     * @return this message; the bytes as {@link Data} if they are too short
+     *         to be an IGMP message
+     */
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length) {
+        if (length < V2_LENGTH)
+            return PacketPool.local().acquireData().deserialize(data, offset,
+                    length);
+        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.igmpType = bb.get();
+        this.maxResponseCode = bb.get();
+        this.checksum = bb.getShort();
+        this.sources = new int[0];
+        this.groupRecords = new LinkedList<IGMPGroupRecord>();
+
+        if (this.igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            this.maxResponseCode = 0;
+            this.groupAddress = 0;
+            bb.getShort(); // Consume reserved field
+            int numRecords = bb.getShort() & 0xffff;
+            numRecords = Math.min(numRecords, bb.remaining() / 8);
+            for (int i = 0; i < numRecords && bb.remaining() >= 8; i++) {
+                IGMPGroupRecord record = new IGMPGroupRecord();
+                record.deserialize(data, bb.position(), bb.remaining());
+                bb.position(bb.position() + Math.min(record.getLength(),
+                        bb.remaining()));
+                this.groupRecords.add(record);
+            }
+            return this;
+        }
+
+        this.groupAddress = bb.getInt();
+
+        // A query longer than 8 bytes is an IGMPv3 query (RFC 3376 7.1)
+        this.v3Query = (this.igmpType == TYPE_MEMBERSHIP_QUERY
+                && length >= V3_QUERY_MIN_LENGTH);
+        if (this.v3Query) {
+            this.resvSQrv = bb.get();
+            this.qqic = bb.get();
+            int numSources = bb.getShort() & 0xffff;
+            numSources = Math.min(numSources, bb.remaining() / 4);
+            this.sources = new int[numSources];
+            for (int i = 0; i < numSources; i++)
+                this.sources[i] = bb.getInt();
+        }
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 4637;
+        int result = super.hashCode();
+        result = prime * result + igmpType;
+        result = prime * result + maxResponseCode;
+        result = prime * result + checksum;
+        result = prime * result + groupAddress;
+        result = prime * result + Arrays.hashCode(sources);
+        result = prime * result + groupRecords.hashCode();
+        return result;
+    }
+
+    @Override
+    public Object clone() {
+        IGMP pkt = (IGMP) super.clone();
+        pkt.groupRecords = new LinkedList<IGMPGroupRecord>();
+        for (IGMPGroupRecord record : this.groupRecords)
+            pkt.groupRecords.add(record.clone());
+        return pkt;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof IGMP))
+            return false;
+        IGMP other = (IGMP) obj;
+        if (igmpType != other.igmpType)
+            return false;
+        if (maxResponseCode != other.maxResponseCode)
+            return false;
+        if (checksum != other.checksum)
+            return false;
+        if (groupAddress != other.groupAddress)
+            return false;
+        if (v3Query != other.v3Query)
+            return false;
+        if (!Arrays.equals(sources, other.sources))
+            return false;
+        if (!groupRecords.equals(other.groupRecords))
+            return false;
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "IGMP [igmpType=" + igmpType + ", maxResponseCode="
+                + maxResponseCode + ", groupAddress="
+                + IPv4.fromIPv4Address(groupAddress) + ", groupRecords="
+                + groupRecords + "]";
+    }
+}
@@ -0,0 +1,184 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A group record carried in an IGMPv3 membership report (RFC 3376 4.2.4).
+ */
+public class IGMPGroupRecord implements Cloneable {
+    public static final byte MODE_IS_INCLUDE = 1;
+    public static final byte MODE_IS_EXCLUDE = 2;
+    public static final byte CHANGE_TO_INCLUDE_MODE = 3;
+    public static final byte CHANGE_TO_EXCLUDE_MODE = 4;
+    public static final byte ALLOW_NEW_SOURCES = 5;
+    public static final byte BLOCK_OLD_SOURCES = 6;
+
+    protected byte recordType;
+    protected byte auxDataLength;
+    protected int multicastAddress;
+    protected int[] sources;
+    protected byte[] auxData;
+
+    public IGMPGroupRecord() {
+        this.sources = new int[0];
+        this.auxData = new byte[0];
+    }
+
+    public IGMPGroupRecord(byte recordType, int multicastAddress, int[] sources) {
+        this.recordType = recordType;
+        this.multicastAddress = multicastAddress;
+        this.sources = sources;
+        this.auxData = new byte[0];
+    }
+
+    public byte getRecordType() {
+        return recordType;
+    }
+
+    public IGMPGroupRecord setRecordType(byte recordType) {
+        this.recordType = recordType;
+        return this;
+    }
+
+    public int getMulticastAddress() {
+        return multicastAddress;
+    }
+
+    public IGMPGroupRecord setMulticastAddress(int multicastAddress) {
+        this.multicastAddress = multicastAddress;
+        return this;
+    }
+
+    public int[] getSources() {
+        return sources;
+    }
+
+    public IGMPGroupRecord setSources(int[] sources) {
+        this.sources = sources;
+        return this;
+    }
+
+    /**
+     * Determines whether the sending host wants to receive traffic for the
+     * group after this record is applied. EXCLUDE mode (with any source list)
+     * or a non-empty INCLUDE list means the host is a member; an empty
+     * INCLUDE list means the host has left the group.
+     * @return true if the record joins or keeps the group, false if it leaves
+     */
+    public boolean isJoin() {
+        switch (recordType) {
+        case MODE_IS_EXCLUDE:
+        case CHANGE_TO_EXCLUDE_MODE:
+            return true;
+        case MODE_IS_INCLUDE:
+        case CHANGE_TO_INCLUDE_MODE:
+        case ALLOW_NEW_SOURCES:
+            return sources.length > 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * An INCLUDE record with no sources, whether a state change or a reply
+     * to a query, means the host no longer wants any traffic for the group
+     * (RFC 3376 6.4.1).
+     * @return true if the record leaves the group
+     */
+    public boolean isLeave() {
+        switch (recordType) {
+        case MODE_IS_INCLUDE:
+        case CHANGE_TO_INCLUDE_MODE:
+            return sources.length == 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the length of the serialized record in bytes
+     */
+    public int getLength() {
+        return 8 + 4 * sources.length + 4 * (auxData.length / 4);
+    }
+
+    public byte[] serialize() {
+        byte[] data = new byte[this.getLength()];
+        this.serialize(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Serialize the record at the buffer's position.
+     * @param bb buffer with at least {@link #getLength()} bytes remaining
+     */
+    public void serialize(ByteBuffer bb) {
+        this.auxDataLength = (byte) (auxData.length / 4);
+        bb.put(this.recordType);
+        bb.put(this.auxDataLength);
+        bb.putShort((short) sources.length);
+        bb.putInt(this.multicastAddress);
+        for (int source : sources)
+            bb.putInt(source);
+        bb.put(this.auxData, 0, 4 * (auxDataLength & 0xff));
+    }
+
+    public IGMPGroupRecord deserialize(byte[] data, int offset, int length) {
+        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.recordType = bb.get();
+        this.auxDataLength = bb.get();
+        int numSources = bb.getShort() & 0xffff;
+        this.multicastAddress = bb.getInt();
+        numSources = Math.min(numSources, bb.remaining() / 4);
+        this.sources = new int[numSources];
+        for (int i = 0; i < numSources; i++)
+            this.sources[i] = bb.getInt();
+        int auxLength = Math.min(4 * (auxDataLength & 0xff), bb.remaining());
+        this.auxData = new byte[auxLength];
+        bb.get(this.auxData);
+        return this;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 4651;
+        int result = 1;
+        result = prime * result + recordType;
+        result = prime * result + multicastAddress;
+        result = prime * result + Arrays.hashCode(sources);
+        return result;
+    }
+
+    /**
+     * Copy the record; the sources and auxiliary data arrays are shared.
+     */
+    @Override
+    public IGMPGroupRecord clone() {
+        try {
+            return (IGMPGroupRecord) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Could not clone group record", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof IGMPGroupRecord))
+            return false;
+        IGMPGroupRecord other = (IGMPGroupRecord) obj;
+        return recordType == other.recordType
+                && multicastAddress == other.multicastAddress
+                && Arrays.equals(sources, other.sources)
+                && Arrays.equals(auxData, other.auxData);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IGMPGroupRecord : {recordType=%d, group=%s, sources=%d}",
+                recordType, IPv4.fromIPv4Address(multicastAddress),
+                sources.length);
+    }
+}
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -60,6 +62,21 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * @return the number of bytes this packet and all payloads serialize to
+     */
+    public int serializedLength();
+
+    /**
+     * Sets all payloads parent packet if applicable, then serializes this
+     * packet and all payloads into a buffer, starting at its position. Each
+     * layer writes its payload in place after its header and back-fills
+     * lengths and checksums, so nothing is copied between layers.
+     * @param out buffer with at least {@link #serializedLength()} bytes
+     *        remaining; its position is advanced past the packet
+     */
+    public void serialize(ByteBuffer out);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
@@ -68,7 +85,36 @@ public interface IPacket {
      * @return the deserialized data
      */
     public IPacket deserialize(byte[] data, int offset, int length);
-    
+
+    /**
+     * Deserializes this packet layer and the payloads within a decode
+     * depth. Payloads below the depth keep a reference to the data and are
+     * decoded on the first {@link #getPayload()}, so the data must not
+     * change while the packet is in use.
+     * @param data
+     * @param offset offset to start deserializing from
+     * @param length length of the data to deserialize
+     * @param depth how many layers to decode now
+     * @return the deserialized data
+     */
+    public IPacket deserialize(byte[] data, int offset, int length,
+            DecodeDepth depth);
+
+    /**
+     * Release this packet and the payloads it owns: each is reset and, if it
+     * came from a {@link PacketPool}, returned to the calling thread's pool
+     * for reuse. The packet must not be used afterwards. Retained packets
+     * are left alone.
+     */
+    public void release();
+
+    /**
+     * Keep this packet and its payloads after the code that received them
+     * releases them; a retained packet is never recycled.
+     * @return this packet
+     */
+    public IPacket retain();
+
     /** Clone this packet and its payload packet but not its parent. 
      * 
      * @return
@@ -23,8 +23,6 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -32,16 +30,10 @@ import java.util.Map;
  */
 public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
+    public static final byte PROTOCOL_IGMP = 0x2;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
-
-    static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
-    }
+    public static final byte FLAG_MORE_FRAGMENTS = 0x1;
 
     protected byte version;
     protected byte headerLength;
@@ -215,6 +207,105 @@ public class IPv4 extends BasePacket {
         super.resetChecksum();
     }
 
+    /**
+     * Compute the header checksum from the header fields alone, without
+     * serializing the payload. The headerLength and totalLength must already
+     * be set, as they are for a deserialized packet.
+     * @return the checksum of the header with the checksum field as zero
+     */
+    public short computeHeaderChecksum() {
+        return Checksum.fold(sumHeader());
+    }
+
+    /**
+     * Verify the header checksum of a deserialized packet without
+     * serializing it.
+     * @return true if the checksum is correct
+     */
+    public boolean isChecksumValid() {
+        return 0 == Checksum.fold(Checksum.add(sumHeader(), this.checksum));
+    }
+
+    private int sumHeader() {
+        int sum = ((((this.version & 0xf) << 4) | (this.headerLength & 0xf)) << 8)
+                | (this.diffServ & 0xff);
+        sum = Checksum.add(sum, this.totalLength);
+        sum = Checksum.add(sum, this.identification);
+        sum = Checksum.add(sum, (short) (((this.flags & 0x7) << 13)
+                | (this.fragmentOffset & 0x1fff)));
+        sum = Checksum.add(sum, (short) (((this.ttl & 0xff) << 8)
+                | (this.protocol & 0xff)));
+        sum = Checksum.add(sum, this.sourceAddress);
+        sum = Checksum.add(sum, this.destinationAddress);
+        if (this.options != null)
+            sum = Checksum.add(sum, ByteBuffer.wrap(this.options), 0,
+                    this.options.length);
+        return sum;
+    }
+
+    /**
+     * Set the ttl and update a computed checksum incrementally (RFC 1624).
+     * @param ttl the ttl to set
+     */
+    public IPv4 updateTtl(byte ttl) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    (short) (((this.ttl & 0xff) << 8) | (this.protocol & 0xff)),
+                    (short) (((ttl & 0xff) << 8) | (this.protocol & 0xff)));
+        this.ttl = ttl;
+        return this;
+    }
+
+    /**
+     * Decrement the ttl and update a computed checksum incrementally.
+     */
+    public IPv4 decrementTtl() {
+        return updateTtl((byte) (this.ttl - 1));
+    }
+
+    /**
+     * Set the diffServ and update a computed checksum incrementally.
+     * @param diffServ the diffServ to set
+     */
+    public IPv4 updateDiffServ(byte diffServ) {
+        if (this.checksum != 0) {
+            short versionAndLength = (short) (((this.version & 0xf) << 4)
+                    | (this.headerLength & 0xf));
+            this.checksum = Checksum.update(this.checksum,
+                    (short) ((versionAndLength << 8) | (this.diffServ & 0xff)),
+                    (short) ((versionAndLength << 8) | (diffServ & 0xff)));
+        }
+        this.diffServ = diffServ;
+        return this;
+    }
+
+    /**
+     * Set the sourceAddress and update a computed checksum incrementally.
+     * The checksums of TCP and UDP payloads also cover the address.
+     * @param sourceAddress the sourceAddress to set
+     */
+    public IPv4 updateSourceAddress(int sourceAddress) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum, this.sourceAddress,
+                    sourceAddress);
+        this.sourceAddress = sourceAddress;
+        return this;
+    }
+
+    /**
+     * Set the destinationAddress and update a computed checksum
+     * incrementally. The checksums of TCP and UDP payloads also cover the
+     * address.
+     * @param destinationAddress the destinationAddress to set
+     */
+    public IPv4 updateDestinationAddress(int destinationAddress) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    this.destinationAddress, destinationAddress);
+        this.destinationAddress = destinationAddress;
+        return this;
+    }
+
     /**
      * @return the sourceAddress
      */
@@ -279,31 +370,35 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    @Override
+    public int serializedLength() {
+        int optionsLength = (this.options == null) ? 0 : this.options.length;
+        return 20 + optionsLength + payloadLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -headerLength : 0
      *      -totalLength : 0
+     * The payload is written first, after room for the header, so that it can
+     * set the protocol; the header is then back-filled.
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
+    @Override
+    public void serialize(ByteBuffer bb) {
+        int start = bb.position();
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
         this.headerLength = (byte) (5 + optionsLength);
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        bb.position(start + this.headerLength * 4);
+        serializePayload(bb);
+        int end = bb.position();
+        this.totalLength = (short) (end - start);
 
+        bb.position(start);
         bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
         bb.put(this.diffServ);
         bb.putShort(this.totalLength);
@@ -316,26 +411,51 @@ public class IPv4 extends BasePacket {
         bb.putInt(this.destinationAddress);
         if (this.options != null)
             bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
+            this.checksum = Checksum.compute(bb, start, this.headerLength * 4);
+            bb.putShort(start + 10, this.checksum);
         }
-        return data;
+        bb.position(end);
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        version = 4;
+        headerLength = 0;
+        diffServ = 0;
+        totalLength = 0;
+        identification = 0;
+        flags = 0;
+        fragmentOffset = 0;
+        ttl = 0;
+        protocol = 0;
+        checksum = 0;
+        sourceAddress = 0;
+        destinationAddress = 0;
+        options = null;
+        isTruncated = false;
+    }
+
+    @Override
+    protected IPacket newPayload() {
+        return ProtocolRegistry.newIpProtocolPayload(this.protocol);
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        return deserialize(data, offset, length, DecodeDepth.FULL);
+    }
+
+    /**
+     * Deserialize the packet, decoding its payload now only if the depth is
+     * {@link DecodeDepth#FULL}.
+     */
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length,
+            DecodeDepth depth) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         short sscratch;
 
@@ -360,19 +480,8 @@ public class IPv4 extends BasePacket {
             bb.get(this.options);
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        deserializePayload(data, bb.position(), bb.limit()-bb.position(),
+                depth, depth == DecodeDepth.FULL);
 
         if (this.totalLength != length)
             this.isTruncated = true;
@@ -0,0 +1,260 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight view of an IPv4 packet in a buffer; see
+ * {@link EthernetView}. Obtained from {@link EthernetView#getIPv4()} and only
+ * valid until that view wraps another frame.
+ */
+public class IPv4View {
+    public static final int MIN_HEADER_LENGTH = 20;
+
+    protected ByteBuffer buf;
+    protected int offset;
+    protected int length;
+
+    /**
+     * Point this view at a packet.
+     * @param buf buffer holding the packet
+     * @param offset offset of the packet in the buffer
+     * @param length length of the packet
+     * @return this view
+     */
+    public IPv4View wrap(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return the offset of the packet in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the length of the packet
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the version
+     */
+    public byte getVersion() {
+        return (byte) ((buf.get(offset) >> 4) & 0xf);
+    }
+
+    /**
+     * @return the headerLength, in 32-bit words
+     */
+    public byte getHeaderLength() {
+        return (byte) (buf.get(offset) & 0xf);
+    }
+
+    /**
+     * @return the diffServ
+     */
+    public byte getDiffServ() {
+        return buf.get(offset + 1);
+    }
+
+    /**
+     * @return the totalLength
+     */
+    public short getTotalLength() {
+        return buf.getShort(offset + 2);
+    }
+
+    /**
+     * @return the identification
+     */
+    public short getIdentification() {
+        return buf.getShort(offset + 4);
+    }
+
+    /**
+     * @return the fragmentOffset
+     */
+    public short getFragmentOffset() {
+        return (short) (buf.getShort(offset + 6) & 0x1fff);
+    }
+
+    /**
+     * @return True if the packet is a fragment: more fragments follow it or
+     *         it is not the first, so it may not carry the L4 header
+     */
+    public boolean isFragment() {
+        return (buf.getShort(offset + 6) & 0x3fff) != 0;
+    }
+
+    /**
+     * @return the ttl
+     */
+    public byte getTtl() {
+        return buf.get(offset + 8);
+    }
+
+    /**
+     * Write the ttl. The checksum is not updated; see {@link #decrementTtl()}.
+     * @param ttl the ttl to write
+     */
+    public IPv4View setTtl(byte ttl) {
+        buf.put(offset + 8, ttl);
+        return this;
+    }
+
+    /**
+     * @return the protocol
+     */
+    public byte getProtocol() {
+        return buf.get(offset + 9);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return buf.getShort(offset + 10);
+    }
+
+    /**
+     * @param checksum the checksum to write
+     */
+    public IPv4View setChecksum(short checksum) {
+        buf.putShort(offset + 10, checksum);
+        return this;
+    }
+
+    /**
+     * Recompute and write the header checksum.
+     */
+    public IPv4View resetChecksum() {
+        Checksum.resetIPv4Header(buf, offset);
+        return this;
+    }
+
+    /**
+     * Decrement the ttl and update the checksum incrementally (RFC 1624).
+     */
+    public IPv4View decrementTtl() {
+        short oldWord = buf.getShort(offset + 8);
+        short newWord = (short) (oldWord - 0x100);
+        buf.putShort(offset + 8, newWord);
+        return setChecksum(Checksum.update(getChecksum(), oldWord, newWord));
+    }
+
+    /**
+     * @return the sourceAddress
+     */
+    public int getSourceAddress() {
+        return buf.getInt(offset + 12);
+    }
+
+    /**
+     * @return the destinationAddress
+     */
+    public int getDestinationAddress() {
+        return buf.getInt(offset + 16);
+    }
+
+    /**
+     * @return the offset of the payload in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength() * 4;
+    }
+
+    /**
+     * @return the length of the payload
+     */
+    public int getPayloadLength() {
+        return offset + length - getPayloadOffset();
+    }
+
+    /**
+     * @return the TCP or UDP source port; 0 for other protocols
+     */
+    public short getSourcePort() {
+        if (!hasPorts())
+            return 0;
+        return buf.getShort(getPayloadOffset());
+    }
+
+    /**
+     * @return the TCP or UDP destination port; 0 for other protocols
+     */
+    public short getDestinationPort() {
+        if (!hasPorts())
+            return 0;
+        return buf.getShort(getPayloadOffset() + 2);
+    }
+
+    /**
+     * @return a hash of the source and destination addresses, the protocol
+     *         and, unless the packet is a fragment, the TCP or UDP ports;
+     *         the same for every packet of a flow
+     */
+    public int flowHash() {
+        int hash = getSourceAddress();
+        hash = 31 * hash + getDestinationAddress();
+        hash = 31 * hash + getProtocol();
+        if (!isFragment() && hasPorts())
+            hash = 31 * hash + buf.getInt(getPayloadOffset());
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean hasPorts() {
+        byte protocol = getProtocol();
+        return (protocol == IPv4.PROTOCOL_TCP || protocol == IPv4.PROTOCOL_UDP)
+                && getPayloadLength() >= 4;
+    }
+
+    /**
+     * @return the ICMP type; -1 if the packet is not ICMP
+     */
+    public int getIcmpType() {
+        if (getProtocol() != IPv4.PROTOCOL_ICMP || getPayloadLength() < 1)
+            return -1;
+        return buf.get(getPayloadOffset()) & 0xff;
+    }
+
+    /**
+     * @return True if the header checksum is correct
+     */
+    public boolean isChecksumValid() {
+        return Checksum.verifyIPv4Header(buf, offset);
+    }
+
+    /**
+     * Deserialize the packet into an {@link IPv4} object tree.
+     * @return the deserialized packet
+     */
+    public IPv4 materialize() {
+        IPv4 packet = new IPv4();
+        if (buf.hasArray()) {
+            packet.deserialize(buf.array(), buf.arrayOffset() + offset, length);
+        } else {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++)
+                data[i] = buf.get(offset + i);
+            packet.deserialize(data, 0, length);
+        }
+        return packet;
+    }
+
+    /**
+     * @return a one-line summary of the packet's headers
+     */
+    @Override
+    public String toString() {
+        return "nw_src: " + IPv4.fromIPv4Address(getSourceAddress())
+                + " nw_dst: " + IPv4.fromIPv4Address(getDestinationAddress())
+                + " nw_proto: " + (getProtocol() & 0xff)
+                + " nw_ttl: " + (getTtl() & 0xff);
+    }
+}
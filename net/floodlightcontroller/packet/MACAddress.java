@@ -1,18 +1,35 @@
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
- * The class representing MAC address.
+ * The class representing MAC address. The address is held in the lower 48
+ * bits of a long, so comparing, hashing and converting addresses allocates
+ * nothing.
  *
  * @author Sho Shimizu (sho.shimizu@gmail.com)
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+
+    private static final long MASK = 0xffffffffffffL;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** The broadcast address ff:ff:ff:ff:ff:ff */
+    public static final MACAddress BROADCAST = new MACAddress(MASK);
+
+    /** The all-zeros address 00:00:00:00:00:00 */
+    public static final MACAddress ZERO = new MACAddress(0L);
+
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        this(toLong(Arrays.copyOf(address, MAC_ADDRESS_LENGTH), 0));
+    }
+
+    private MACAddress(long address) {
+        this.address = address & MASK;
     }
 
     /**
@@ -29,13 +46,13 @@ public class MACAddress {
                     " separated pairwise by :'s.");
         }
 
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
+        long value = 0;
         for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
             String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
+            value = (value << 8) | (Integer.parseInt(element, 16) & 0xff);
         }
 
-        return new MACAddress(addressInBytes);
+        return valueOf(value);
     }
 
     /**
@@ -49,27 +66,49 @@ public class MACAddress {
             throw new IllegalArgumentException("the length is not " + MAC_ADDRESS_LENGTH);
         }
 
-        return new MACAddress(address);
+        return valueOf(toLong(address, 0));
     }
 
     /**
      * Returns a MAC address instance representing the specified {@code long} value.
      * The lower 48 bits of the long value are used to parse as a MAC address.
+     * The broadcast and all-zeros addresses are shared instances.
      * @param address the long value to be parsed. The lower 48 bits are used for a MAC address.
      * @return a MAC address instance representing the specified {@code long} value.
-     * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
+        address &= MASK;
+        if (address == MASK)
+            return BROADCAST;
+        if (address == 0)
+            return ZERO;
+        return new MACAddress(address);
+    }
 
-        return new MACAddress(addressInBytes);
+    /**
+     * Reads a MAC address from a buffer without copying it.
+     * @param data buffer holding the address
+     * @param offset offset of the address in the buffer
+     * @return the address in the lower 48 bits of a long
+     */
+    public static long toLong(byte[] data, int offset) {
+        long mac = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++)
+            mac = (mac << 8) | (data[offset + i] & 0xffL);
+        return mac;
+    }
+
+    /**
+     * Writes a MAC address into a buffer.
+     * @param address the address in the lower 48 bits of a long
+     * @param dst buffer to write the address into
+     * @param offset offset in the buffer to write the address at
+     */
+    public static void toBytes(long address, byte[] dst, int offset) {
+        for (int i = MAC_ADDRESS_LENGTH - 1; i >= 0; i--) {
+            dst[offset + i] = (byte) address;
+            address >>>= 8;
+        }
     }
 
     /**
@@ -77,7 +116,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +124,28 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        byte[] bytes = new byte[MAC_ADDRESS_LENGTH];
+        toBytes(address, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes the value of the {@code MACAddress} into a buffer.
+     * @param dst buffer with at least {@link #MAC_ADDRESS_LENGTH} bytes after
+     *        the offset
+     * @param offset offset in the buffer to write the address at
+     */
+    public void toBytes(byte[] dst, int offset) {
+        toBytes(address, dst, offset);
+    }
+
+    /**
+     * Writes the value of the {@code MACAddress} at a buffer's position.
+     * @param bb buffer to write the address into
+     */
+    public void write(ByteBuffer bb) {
+        bb.putShort((short) (address >>> 32));
+        bb.putInt((int) address);
     }
 
     /**
@@ -93,12 +153,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return address;
     }
 
     /**
@@ -106,11 +161,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return address == MASK;
     }
 
     /**
@@ -121,7 +172,7 @@ public class MACAddress {
         if (isBroadcast()) {
             return false;
         }
-        return (address[0] & 0x01) != 0;
+        return (address & 0x010000000000L) != 0;
     }
 
     @Override
@@ -135,23 +186,24 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return (int) (address ^ (address >>> 32));
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
-            if (builder.length() > 0) {
-                builder.append(":");
-            }
-            builder.append(String.format("%02X", b & 0xFF));
+        char[] chars = new char[MAC_ADDRESS_LENGTH * 3 - 1];
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int b = (int) (address >>> ((MAC_ADDRESS_LENGTH - 1 - i) * 8)) & 0xff;
+            if (i > 0)
+                chars[i * 3 - 1] = ':';
+            chars[i * 3] = HEX[b >>> 4];
+            chars[i * 3 + 1] = HEX[b & 0xf];
         }
-        return builder.toString();
+        return new String(chars);
     }
 }
@@ -0,0 +1,108 @@
+package net.floodlightcontroller.packet;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A per-thread pool of packet objects for the receive path. Decoders acquire
+ * packets from the calling thread's pool instead of allocating them, and
+ * {@link IPacket#release()} resets a packet and its payloads and returns
+ * them to the releasing thread's pool. Packets are pooled by the factory
+ * that created them, so a pool never hands out a packet of the wrong class.
+ * <p>
+ * Setting the system property {@code vnet.pool.debug} turns on
+ * use-after-release detection: released packets are never reused, and
+ * using or releasing one again throws an {@link IllegalStateException}
+ * whose cause records where it was released.
+ */
+public class PacketPool {
+    /** True if use of released packets should be detected */
+    public static final boolean DEBUG = Boolean.getBoolean("vnet.pool.debug");
+
+    /** Most free packets kept for each factory */
+    public static final int MAX_FREE = 256;
+
+    private static final Supplier<Ethernet> ETHERNET = Ethernet::new;
+    private static final Supplier<Data> DATA = Data::new;
+
+    private static final ThreadLocal<PacketPool> LOCAL =
+            new ThreadLocal<PacketPool>() {
+                @Override
+                protected PacketPool initialValue() {
+                    return new PacketPool();
+                }
+            };
+
+    private Map<Supplier<?>, ArrayDeque<BasePacket>> free =
+            new IdentityHashMap<Supplier<?>, ArrayDeque<BasePacket>>();
+    private long allocated;
+    private long reused;
+
+    /**
+     * @return the calling thread's pool
+     */
+    public static PacketPool local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Take a free packet created by a factory, or create one.
+     * @param factory creates an empty packet; must be the same instance
+     *        every time, since packets are pooled by factory
+     * @return an empty packet
+     */
+    public <T extends IPacket> T acquire(Supplier<T> factory) {
+        ArrayDeque<BasePacket> list = free.get(factory);
+        if (list != null && !list.isEmpty()) {
+            BasePacket pkt = list.pollFirst();
+            pkt.revive();
+            reused++;
+            @SuppressWarnings("unchecked")
+            T t = (T) pkt;
+            return t;
+        }
+        T pkt = factory.get();
+        if (pkt instanceof BasePacket)
+            ((BasePacket) pkt).poolFactory = factory;
+        allocated++;
+        return pkt;
+    }
+
+    /**
+     * @return an empty Ethernet packet
+     */
+    public Ethernet acquireEthernet() {
+        return acquire(ETHERNET);
+    }
+
+    /**
+     * @return an empty data payload
+     */
+    public Data acquireData() {
+        return acquire(DATA);
+    }
+
+    /**
+     * Keep a released packet for reuse; in debug mode it is dropped instead,
+     * so it stays marked as released.
+     */
+    void recycle(BasePacket pkt, Supplier<?> factory) {
+        if (DEBUG)
+            return;
+        ArrayDeque<BasePacket> list = free.get(factory);
+        if (list == null) {
+            list = new ArrayDeque<BasePacket>();
+            free.put(factory, list);
+        }
+        if (list.size() < MAX_FREE)
+            list.addFirst(pkt);
+    }
+
+    @Override
+    public String toString() {
+        return "PacketPool [allocated=" + allocated + ", reused=" + reused
+                + "]";
+    }
+}
@@ -0,0 +1,102 @@
+package net.floodlightcontroller.packet;
+
+import java.util.function.Supplier;
+
+/**
+ * Maps EtherTypes, IP protocol numbers and UDP ports to the packet classes
+ * that decode their payloads. Factories are kept in arrays indexed by the
+ * unsigned field value, so choosing a decoder needs no boxing, hashing or
+ * reflection. Extensions register their own decoders at startup, before
+ * packets are decoded. Payload packets are taken from the calling thread's
+ * {@link PacketPool}.
+ */
+public class ProtocolRegistry {
+    private static final Supplier<? extends IPacket>[] etherTypes = newTable(1 << 16);
+    private static final Supplier<? extends IPacket>[] ipProtocols = newTable(1 << 8);
+    private static final Supplier<? extends IPacket>[] udpPorts = newTable(1 << 16);
+
+    static {
+        registerEtherType(Ethernet.TYPE_ARP, ARP::new);
+        registerEtherType(Ethernet.TYPE_RARP, ARP::new);
+        registerEtherType(Ethernet.TYPE_IPv4, IPv4::new);
+
+        registerIpProtocol(IPv4.PROTOCOL_ICMP, ICMP::new);
+        registerIpProtocol(IPv4.PROTOCOL_IGMP, IGMP::new);
+        registerIpProtocol(IPv4.PROTOCOL_TCP, TCP::new);
+        registerIpProtocol(IPv4.PROTOCOL_UDP, UDP::new);
+
+        registerUdpPort(UDP.RIP_PORT, RIPv2::new);
+    }
+
+    private ProtocolRegistry() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<? extends IPacket>[] newTable(int size) {
+        return (Supplier<? extends IPacket>[]) new Supplier<?>[size];
+    }
+
+    /**
+     * @param etherType the EtherType to decode
+     * @param factory creates an empty packet that decodes the payload; null
+     *        to decode the payload as {@link Data}
+     */
+    public static synchronized void registerEtherType(short etherType,
+            Supplier<? extends IPacket> factory) {
+        etherTypes[etherType & 0xffff] = factory;
+    }
+
+    /**
+     * @param protocol the IP protocol number to decode
+     * @param factory creates an empty packet that decodes the payload; null
+     *        to decode the payload as {@link Data}
+     */
+    public static synchronized void registerIpProtocol(byte protocol,
+            Supplier<? extends IPacket> factory) {
+        ipProtocols[protocol & 0xff] = factory;
+    }
+
+    /**
+     * @param port the UDP port to decode, matched against either port
+     * @param factory creates an empty packet that decodes the payload; null
+     *        to decode the payload as {@link Data}
+     */
+    public static synchronized void registerUdpPort(short port,
+            Supplier<? extends IPacket> factory) {
+        udpPorts[port & 0xffff] = factory;
+    }
+
+    /**
+     * @param etherType EtherType of an Ethernet frame
+     * @return an empty packet to decode the frame's payload
+     */
+    public static IPacket newEtherTypePayload(short etherType) {
+        return newPacket(etherTypes[etherType & 0xffff]);
+    }
+
+    /**
+     * @param protocol protocol number of an IPv4 packet
+     * @return an empty packet to decode the packet's payload
+     */
+    public static IPacket newIpProtocolPayload(byte protocol) {
+        return newPacket(ipProtocols[protocol & 0xff]);
+    }
+
+    /**
+     * @param destinationPort destination port of a UDP datagram, which is
+     *        preferred
+     * @param sourcePort source port of the datagram
+     * @return an empty packet to decode the datagram's payload
+     */
+    public static IPacket newUdpPayload(short destinationPort, short sourcePort) {
+        Supplier<? extends IPacket> factory = udpPorts[destinationPort & 0xffff];
+        if (factory == null)
+            factory = udpPorts[sourcePort & 0xffff];
+        return newPacket(factory);
+    }
+
+    private static IPacket newPacket(Supplier<? extends IPacket> factory) {
+        PacketPool pool = PacketPool.local();
+        return (factory == null) ? pool.acquireData() : pool.acquire(factory);
+    }
+}
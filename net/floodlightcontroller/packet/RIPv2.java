@@ -40,19 +40,26 @@ public class RIPv2 extends BasePacket
 	{ return this.command; }
 
 	@Override
-	public byte[] serialize() 
-    {
-		int length = 1 + 1 + 2 + this.entries.size() * (5*4);
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+	public int serializedLength()
+	{ return 1 + 1 + 2 + this.entries.size() * (5*4); }
 
+	@Override
+	public void serialize(ByteBuffer bb) 
+    {
 		bb.put(this.command);
 		bb.put(this.version);
 		bb.putShort((short)0); // Put padding
 		for (RIPv2Entry entry : this.entries)
-		{ bb.put(entry.serialize()); }
+		{ entry.serialize(bb); }
+	}
 
-		return data;
+	@Override
+	protected void reset()
+	{
+		super.reset();
+		this.command = 0;
+		this.version = VERSION;
+		this.entries = new LinkedList<RIPv2Entry>();
 	}
 
 	@Override
@@ -74,6 +81,16 @@ public class RIPv2 extends BasePacket
 		return this;
 	}
 
+    @Override
+    public Object clone()
+    {
+        RIPv2 pkt = (RIPv2)super.clone();
+        pkt.entries = new LinkedList<RIPv2Entry>();
+        for (RIPv2Entry entry : this.entries)
+        { pkt.entries.add(entry.clone()); }
+        return pkt;
+    }
+
     public boolean equals(Object obj)
     {
         if (this == obj)
@@ -5,7 +5,7 @@ import java.nio.ByteBuffer;
 /**
   * @author Anubhavnidhi Abhashkumar and Aaron Gember-Jacobson
   */
-public class RIPv2Entry 
+public class RIPv2Entry implements Cloneable
 {
     public static final short ADDRESS_FAMILY_IPv4 = 2;
 
@@ -27,6 +27,15 @@ public class RIPv2Entry
         this.metric = metric;
     }
 
+    @Override
+    public RIPv2Entry clone()
+    {
+        try
+        { return (RIPv2Entry)super.clone(); }
+        catch (CloneNotSupportedException e)
+        { throw new RuntimeException("Could not clone RIPv2 entry", e); }
+    }
+
 	public String toString()
 	{
         return String.format("RIPv2Entry : {addressFamily=%d, routeTag=%d, address=%s, subnetMask=%s, nextHopAddress=%s, metric=%d}", 
@@ -74,17 +83,23 @@ public class RIPv2Entry
 
 	public byte[] serialize() 
     {
-		int length = 2*2 + 4*4;
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		byte[] data = new byte[2*2 + 4*4];
+		this.serialize(ByteBuffer.wrap(data));
+		return data;
+	}
 
+	/**
+	 * Serialize the entry at the buffer's position.
+	 * @param bb buffer with at least 20 bytes remaining
+	 */
+	public void serialize(ByteBuffer bb) 
+    {
 		bb.putShort(this.addressFamily);
 		bb.putShort(this.routeTag);
         bb.putInt(this.address);
         bb.putInt(this.subnetMask);
         bb.putInt(this.nextHopAddress);
         bb.putInt(this.metric);
-		return data;
 	}
 
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
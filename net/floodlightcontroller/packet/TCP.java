@@ -144,26 +144,22 @@ public class TCP extends BasePacket {
         return this;
     }
 
+    @Override
+    public int serializedLength() {
+        return ((dataOffset == 0) ? 5 : dataOffset) * 4 + payloadLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        int length;
+    @Override
+    public void serialize(ByteBuffer bb) {
+        int start = bb.position();
         if (dataOffset == 0)
             dataOffset = 5;  // default header length
-        length = dataOffset << 2;
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
 
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
@@ -180,42 +176,19 @@ public class TCP extends BasePacket {
             for (int i = 0; i < padding; i++)
                 bb.put((byte) 0);
         }
-        if (payloadData != null)
-            bb.put(payloadData);
+        serializePayload(bb);
+        int length = bb.position() - start;
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_TCP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            // compute pseudo header mac
-            if (this.parent != null && this.parent instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += length & 0xffff;
-            }
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(16, this.checksum);
+            int accumulation = UDP.sumPseudoHeader(this.parent, length);
+            accumulation = Checksum.add(accumulation, bb, start, length);
+            this.checksum = Checksum.fold(accumulation);
+            bb.putShort(start + 16, this.checksum);
         }
-        return data;
     }
 
     /* (non-Javadoc)
@@ -256,6 +229,21 @@ public class TCP extends BasePacket {
                (dataOffset == 5 || options.equals(other.options));
     }
 
+    @Override
+    protected void reset() {
+        super.reset();
+        sourcePort = 0;
+        destinationPort = 0;
+        sequence = 0;
+        acknowledge = 0;
+        dataOffset = 0;
+        flags = 0;
+        windowSize = 0;
+        checksum = 0;
+        urgentPointer = 0;
+        options = null;
+    }
+
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
@@ -282,7 +270,7 @@ public class TCP extends BasePacket {
             }
         }
         
-        this.payload = new Data();
+        this.payload = PacketPool.local().acquireData();
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
         return this;
@@ -18,24 +18,16 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
-    static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
-    }
-
     protected short sourcePort;
     protected short destinationPort;
     protected short length;
@@ -99,65 +91,56 @@ public class UDP extends BasePacket {
         super.resetChecksum();
     }
 
+    @Override
+    public int serializedLength() {
+        return 8 + payloadLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+    @Override
+    public void serialize(ByteBuffer bb) {
+        int start = bb.position();
+        bb.position(start + 8);
+        serializePayload(bb);
+        int end = bb.position();
+        this.length = (short) (end - start);
+
+        bb.position(start);
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putShort(this.length);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            // compute pseudo header mac
-            if (this.parent != null && this.parent instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
-            }
-
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            int accumulation = sumPseudoHeader(this.parent, this.length);
+            accumulation = Checksum.add(accumulation, bb, start, this.length & 0xffff);
+            this.checksum = Checksum.fold(accumulation);
+            bb.putShort(start + 6, this.checksum);
         }
-        return data;
+    }
+
+    /**
+     * Sum the IPv4 pseudo header covered by the checksum.
+     */
+    static int sumPseudoHeader(IPacket parent, int length) {
+        if (parent == null || !(parent instanceof IPv4))
+            return 0;
+        IPv4 ipv4 = (IPv4) parent;
+        int accumulation = Checksum.add(0, ipv4.getSourceAddress());
+        accumulation = Checksum.add(accumulation, ipv4.getDestinationAddress());
+        accumulation += ipv4.getProtocol() & 0xff;
+        accumulation += length & 0xffff;
+        return accumulation;
     }
 
     /* (non-Javadoc)
@@ -197,6 +180,15 @@ public class UDP extends BasePacket {
         return true;
     }
 
+    @Override
+    protected void reset() {
+        super.reset();
+        sourcePort = 0;
+        destinationPort = 0;
+        length = 0;
+        checksum = 0;
+    }
+
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
@@ -205,21 +197,8 @@ public class UDP extends BasePacket {
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
-        }
+        this.payload = ProtocolRegistry.newUdpPayload(this.destinationPort,
+                this.sourcePort);
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
         return this;
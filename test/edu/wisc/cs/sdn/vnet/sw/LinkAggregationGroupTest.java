@@ -0,0 +1,86 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+
+import org.junit.Test;
+
+public class LinkAggregationGroupTest
+{
+	private static byte[] frame(byte flags, short fragmentOffset, 
+			IPacket payload)
+	{
+		Ethernet ether = new Ethernet();
+		ether.setSourceMACAddress("00:00:00:00:00:01");
+		ether.setDestinationMACAddress("00:00:00:00:00:02");
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setProtocol(IPv4.PROTOCOL_UDP);
+		ip.setIdentification((short)7);
+		ip.setFlags(flags);
+		ip.setFragmentOffset(fragmentOffset);
+		ip.setSourceAddress("10.0.1.1");
+		ip.setDestinationAddress("10.0.2.1");
+		ip.setPayload(payload);
+		ether.setPayload(ip);
+		return ether.serialize();
+	}
+	
+	private static int hashPacket(byte[] frame)
+	{
+		Ethernet ether = new Ethernet();
+		ether.deserialize(frame, 0, frame.length);
+		return LinkAggregationGroup.hashHeaders(ether);
+	}
+	
+	private static int hashView(byte[] frame)
+	{
+		return LinkAggregationGroup.hashHeaders(new EthernetView().wrap(
+				ByteBuffer.wrap(frame), 0, frame.length));
+	}
+	
+	@Test
+	public void testFragmentsHashAlike()
+	{
+		UDP udp = new UDP();
+		udp.setSourcePort((short)5000);
+		udp.setDestinationPort((short)53);
+		udp.setPayload(new Data(new byte[16]));
+		byte[] first = frame(IPv4.FLAG_MORE_FRAGMENTS, (short)0, udp);
+		
+		// The rest of the datagram: payload bytes where the ports would be
+		byte[] rest = new byte[24];
+		for (int i = 0; i < rest.length; i++)
+		{ rest[i] = (byte)(i * 37 + 11); }
+		byte[] second = frame((byte)0, (short)3, new Data(rest));
+		
+		assertEquals(hashPacket(first), hashPacket(second));
+		assertEquals(hashView(first), hashView(second));
+		assertEquals(hashPacket(first), hashView(first));
+	}
+	
+	@Test
+	public void testPortsHashedWhenNotFragmented()
+	{
+		UDP udp = new UDP();
+		udp.setSourcePort((short)5000);
+		udp.setDestinationPort((short)53);
+		udp.setPayload(new Data(new byte[16]));
+		byte[] one = frame((byte)0, (short)0, udp);
+		udp.setSourcePort((short)5001);
+		udp.resetChecksum();
+		byte[] other = frame((byte)0, (short)0, udp);
+		
+		assertEquals(hashPacket(one), hashView(one));
+		assertFalse(hashView(one) == hashView(other));
+	}
+}
@@ -0,0 +1,81 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.ICMP;
+import net.floodlightcontroller.packet.IPv4;
+
+import org.junit.Test;
+
+/**
+ * A packet command is handled from a pooled buffer sized for the largest
+ * command, which still holds whatever larger command it carried before, so
+ * frames must decode from it exactly as they were sent.
+ */
+public class CommandBufferPoolTest
+{
+	private static Ethernet echoRequest()
+	{
+		Ethernet ether = new Ethernet();
+		ether.setSourceMACAddress("00:00:00:00:00:01");
+		ether.setDestinationMACAddress("00:00:00:00:00:02");
+		ether.setEtherType(Ethernet.TYPE_IPv4);
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)64);
+		ip.setProtocol(IPv4.PROTOCOL_ICMP);
+		ip.setSourceAddress("10.0.1.1");
+		ip.setDestinationAddress("10.0.2.1");
+		ICMP icmp = new ICMP();
+		icmp.setIcmpType(ICMP.TYPE_ECHO_REQUEST);
+		icmp.setPayload(new Data(new byte[] { 0, 1, 0, 1, 1, 2, 3, 4 }));
+		ip.setPayload(icmp);
+		ether.setPayload(ip);
+		return ether;
+	}
+	
+	@Test
+	public void testFrameFromReusedBuffer()
+	{
+		CommandBufferPool pool = new CommandBufferPool(
+				VNSComm.DEFAULT_MAX_COMMAND_LENGTH, 4);
+		
+		// Leave a full-sized command behind in the buffer
+		ByteBuffer buf = pool.acquire();
+		byte[] stale = new byte[buf.capacity()];
+		Arrays.fill(stale, (byte)0x5a);
+		buf.put(stale);
+		pool.release(buf);
+		
+		Ethernet sent = echoRequest();
+		byte[] frame = sent.serialize();
+		CommandPacket cmdPkt = new CommandPacket();
+		cmdPkt.mInterfaceName = "eth0";
+		cmdPkt.etherPacket = sent;
+		
+		buf = pool.acquire();
+		assertEquals(VNSComm.DEFAULT_MAX_COMMAND_LENGTH, buf.capacity());
+		cmdPkt.serialize(buf);
+		buf.flip();
+		
+		// Decode it the way VNSComm hands it to the device
+		CommandPacket received = new CommandPacket();
+		received.deserializeHeader(buf);
+		assertEquals("eth0", received.mInterfaceName);
+		EthernetView view = new EthernetView().wrap(buf, buf.position(),
+				buf.limit() - buf.position());
+		assertEquals(frame.length, view.getLength());
+		
+		Ethernet ether = view.materialize();
+		ICMP icmp = (ICMP)ether.getPayload().getPayload();
+		assertEquals(8, ((Data)icmp.getPayload()).getData().length);
+		assertArrayEquals(frame, ether.serialize());
+		view.release();
+		pool.release(buf);
+	}
+}
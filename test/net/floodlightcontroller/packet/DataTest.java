@@ -0,0 +1,81 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Decoding must stop at the frame's length, not at the end of the buffer
+ * holding it: received frames are decoded in place from pooled buffers that
+ * are much larger than the frame.
+ */
+public class DataTest {
+    private static final int BUFFER_LENGTH = 10024;
+    private static final int FRAME_OFFSET = 24;
+    private static final byte[] ECHO_DATA =
+            new byte[] { 0, 1, 0, 1, 1, 2, 3, 4 };
+
+    private static byte[] echoRequest() {
+        Ethernet ether = new Ethernet();
+        ether.setSourceMACAddress("00:00:00:00:00:01");
+        ether.setDestinationMACAddress("00:00:00:00:00:02");
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 64);
+        ip.setProtocol(IPv4.PROTOCOL_ICMP);
+        ip.setSourceAddress("10.0.1.1");
+        ip.setDestinationAddress("10.0.2.1");
+        ICMP icmp = new ICMP();
+        icmp.setIcmpType(ICMP.TYPE_ECHO_REQUEST);
+        icmp.setPayload(new Data(ECHO_DATA));
+        ip.setPayload(icmp);
+        ether.setPayload(ip);
+        return ether.serialize();
+    }
+
+    private static byte[] oversizedBuffer(byte[] frame) {
+        byte[] buffer = new byte[BUFFER_LENGTH];
+        Arrays.fill(buffer, (byte) 0x5a);
+        System.arraycopy(frame, 0, buffer, FRAME_OFFSET, frame.length);
+        return buffer;
+    }
+
+    @Test
+    public void testDeserializeStopsAtLength() {
+        byte[] buffer = new byte[] { 9, 1, 2, 3, 9, 9 };
+        Data data = (Data) new Data().deserialize(buffer, 1, 3);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, data.getData());
+    }
+
+    @Test
+    public void testDeserializeFromOversizedBuffer() {
+        byte[] frame = echoRequest();
+        assertEquals(46, frame.length);
+        byte[] buffer = oversizedBuffer(frame);
+
+        Ethernet ether = new Ethernet();
+        ether.deserialize(buffer, FRAME_OFFSET, frame.length);
+        ICMP icmp = (ICMP) ether.getPayload().getPayload();
+        assertArrayEquals(ECHO_DATA,
+                ((Data) icmp.getPayload()).getData());
+        assertArrayEquals(frame, ether.serialize());
+    }
+
+    @Test
+    public void testMaterializeFromOversizedBuffer() {
+        byte[] frame = echoRequest();
+        ByteBuffer buf = ByteBuffer.wrap(oversizedBuffer(frame));
+
+        EthernetView view = new EthernetView();
+        view.wrap(buf, FRAME_OFFSET, frame.length);
+        Ethernet ether = view.materialize();
+        ICMP icmp = (ICMP) ether.getPayload().getPayload();
+        assertArrayEquals(ECHO_DATA,
+                ((Data) icmp.getPayload()).getData());
+        assertArrayEquals(frame, ether.serialize());
+        view.release();
+    }
+}
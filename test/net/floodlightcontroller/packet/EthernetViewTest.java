@@ -0,0 +1,49 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class EthernetViewTest {
+    private static Ethernet frame(String destinationMAC) {
+        Ethernet ether = new Ethernet();
+        ether.setSourceMACAddress("00:00:00:00:00:01");
+        ether.setDestinationMACAddress(destinationMAC);
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        ether.setPayload(new Data(new byte[46]));
+        return ether;
+    }
+
+    private static void assertSameAddressing(String destinationMAC) {
+        Ethernet ether = frame(destinationMAC);
+        byte[] bytes = ether.serialize();
+        EthernetView view = new EthernetView().wrap(ByteBuffer.wrap(bytes),
+                0, bytes.length);
+        assertEquals(ether.isBroadcast(), view.isBroadcast());
+        assertEquals(ether.isMulticast(), view.isMulticast());
+    }
+
+    @Test
+    public void testBroadcastIsNotMulticast() {
+        assertSameAddressing("ff:ff:ff:ff:ff:ff");
+        Ethernet ether = frame("ff:ff:ff:ff:ff:ff");
+        byte[] bytes = ether.serialize();
+        EthernetView view = new EthernetView().wrap(ByteBuffer.wrap(bytes),
+                0, bytes.length);
+        assertTrue(view.isBroadcast());
+        assertFalse(view.isMulticast());
+    }
+
+    @Test
+    public void testMulticast() {
+        assertSameAddressing("01:00:5e:00:00:fb");
+        assertSameAddressing("33:33:00:00:00:01");
+    }
+
+    @Test
+    public void testUnicast() {
+        assertSameAddressing("00:00:00:00:00:02");
+    }
+}
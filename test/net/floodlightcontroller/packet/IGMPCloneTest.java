@@ -0,0 +1,87 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IGMPCloneTest {
+    private static final int GROUP = IPv4.toIPv4Address("239.1.1.1");
+    private static final int SOURCE = IPv4.toIPv4Address("10.0.1.1");
+
+    private static Ethernet frame() {
+        IGMP igmp = new IGMP();
+        igmp.setIgmpType(IGMP.TYPE_V3_MEMBERSHIP_REPORT);
+        igmp.addGroupRecord(new IGMPGroupRecord(
+                IGMPGroupRecord.MODE_IS_INCLUDE, GROUP, new int[] { SOURCE }));
+        igmp.addGroupRecord(new IGMPGroupRecord(
+                IGMPGroupRecord.MODE_IS_EXCLUDE,
+                IPv4.toIPv4Address("239.1.1.2"), new int[0]));
+
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 1);
+        ip.setProtocol(IPv4.PROTOCOL_IGMP);
+        ip.setSourceAddress("10.0.1.2");
+        ip.setDestinationAddress("224.0.0.22");
+        ip.setPayload(igmp);
+
+        Ethernet ether = new Ethernet();
+        ether.setSourceMACAddress("00:00:00:00:00:02");
+        ether.setDestinationMACAddress("01:00:5e:00:00:16");
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        ether.setPayload(ip);
+        return ether;
+    }
+
+    private static IGMP igmp(Ethernet ether) {
+        return (IGMP) ether.getPayload().getPayload();
+    }
+
+    @Test
+    public void testCloneSerializesIdentically() {
+        Ethernet original = frame();
+        byte[] bytes = original.serialize();
+        Ethernet copy = (Ethernet) original.clone();
+        assertNotSame(igmp(original), igmp(copy));
+        assertArrayEquals(bytes, copy.serialize());
+        assertEquals(igmp(original), igmp(copy));
+    }
+
+    @Test
+    public void testCloneChangesDoNotReachOriginal() {
+        Ethernet original = frame();
+        byte[] bytes = original.serialize();
+        Ethernet copy = (Ethernet) original.clone();
+
+        IGMP igmp = igmp(copy);
+        igmp.setMaxResponseCode((byte) 10);
+        igmp.getGroupRecords().get(0)
+                .setRecordType(IGMPGroupRecord.CHANGE_TO_INCLUDE_MODE)
+                .setSources(new int[0]);
+        igmp.getGroupRecords().get(1).setMulticastAddress(GROUP);
+        igmp.addGroupRecord(new IGMPGroupRecord(
+                IGMPGroupRecord.ALLOW_NEW_SOURCES, GROUP, new int[] { SOURCE }));
+        igmp.resetChecksum();
+        copy.serialize();
+
+        IGMP unchanged = igmp(original);
+        assertEquals(0, unchanged.getMaxResponseCode());
+        assertEquals(2, unchanged.getGroupRecords().size());
+        IGMPGroupRecord record = unchanged.getGroupRecords().get(0);
+        assertEquals(IGMPGroupRecord.MODE_IS_INCLUDE, record.getRecordType());
+        assertEquals(1, record.getSources().length);
+        assertEquals(IPv4.toIPv4Address("239.1.1.2"),
+                unchanged.getGroupRecords().get(1).getMulticastAddress());
+        assertArrayEquals(bytes, original.serialize());
+    }
+
+    @Test
+    public void testDecodedCloneSerializesIdentically() {
+        byte[] bytes = frame().serialize();
+        Ethernet decoded = (Ethernet) new Ethernet().deserialize(bytes, 0,
+                bytes.length);
+        Ethernet copy = (Ethernet) decoded.clone();
+        assertArrayEquals(bytes, copy.serialize());
+        igmp(copy).getGroupRecords().clear();
+        assertEquals(2, igmp(decoded).getGroupRecords().size());
+    }
+}
@@ -0,0 +1,34 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IGMPGroupRecordTest {
+    private static final int GROUP = IPv4.toIPv4Address("239.1.1.1");
+    private static final int SOURCE = IPv4.toIPv4Address("10.0.1.1");
+
+    @Test
+    public void testEmptyIncludeIsLeave() {
+        assertTrue(new IGMPGroupRecord(IGMPGroupRecord.CHANGE_TO_INCLUDE_MODE,
+                GROUP, new int[0]).isLeave());
+        assertTrue(new IGMPGroupRecord(IGMPGroupRecord.MODE_IS_INCLUDE,
+                GROUP, new int[0]).isLeave());
+    }
+
+    @Test
+    public void testIncludeWithSourcesIsNotLeave() {
+        IGMPGroupRecord record = new IGMPGroupRecord(
+                IGMPGroupRecord.MODE_IS_INCLUDE, GROUP, new int[] { SOURCE });
+        assertFalse(record.isLeave());
+        assertTrue(record.isJoin());
+    }
+
+    @Test
+    public void testExcludeIsNotLeave() {
+        assertFalse(new IGMPGroupRecord(IGMPGroupRecord.MODE_IS_EXCLUDE,
+                GROUP, new int[0]).isLeave());
+        assertFalse(new IGMPGroupRecord(IGMPGroupRecord.BLOCK_OLD_SOURCES,
+                GROUP, new int[0]).isLeave());
+    }
+}
@@ -0,0 +1,74 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RIPv2CloneTest {
+    private static Ethernet frame() {
+        RIPv2 rip = new RIPv2();
+        rip.setCommand(RIPv2.COMMAND_RESPONSE);
+        rip.addEntry(new RIPv2Entry(IPv4.toIPv4Address("10.0.1.0"),
+                IPv4.toIPv4Address("255.255.255.0"), 1));
+        rip.addEntry(new RIPv2Entry(IPv4.toIPv4Address("10.0.2.0"),
+                IPv4.toIPv4Address("255.255.255.0"), 2));
+
+        UDP udp = new UDP();
+        udp.setSourcePort(UDP.RIP_PORT);
+        udp.setDestinationPort(UDP.RIP_PORT);
+        udp.setPayload(rip);
+
+        IPv4 ip = new IPv4();
+        ip.setTtl((byte) 1);
+        ip.setProtocol(IPv4.PROTOCOL_UDP);
+        ip.setSourceAddress("10.0.1.1");
+        ip.setDestinationAddress("224.0.0.9");
+        ip.setPayload(udp);
+
+        Ethernet ether = new Ethernet();
+        ether.setSourceMACAddress("00:00:00:00:00:01");
+        ether.setDestinationMACAddress("01:00:5e:00:00:09");
+        ether.setEtherType(Ethernet.TYPE_IPv4);
+        ether.setPayload(ip);
+        return ether;
+    }
+
+    private static RIPv2 rip(Ethernet ether) {
+        return (RIPv2) ether.getPayload().getPayload().getPayload();
+    }
+
+    @Test
+    public void testCloneSerializesIdentically() {
+        Ethernet original = frame();
+        byte[] bytes = original.serialize();
+        Ethernet copy = (Ethernet) original.clone();
+        assertNotSame(rip(original), rip(copy));
+        assertArrayEquals(bytes, copy.serialize());
+        assertEquals(rip(original), rip(copy));
+    }
+
+    @Test
+    public void testCloneChangesDoNotReachOriginal() {
+        Ethernet original = frame();
+        byte[] bytes = original.serialize();
+        Ethernet copy = (Ethernet) original.clone();
+
+        RIPv2 rip = rip(copy);
+        rip.setCommand(RIPv2.COMMAND_REQUEST);
+        rip.getEntries().get(0).setMetric(16);
+        rip.getEntries().get(1).setNextHopAddress(
+                IPv4.toIPv4Address("10.0.1.2"));
+        rip.addEntry(new RIPv2Entry(IPv4.toIPv4Address("10.0.3.0"),
+                IPv4.toIPv4Address("255.255.255.0"), 3));
+        ((IPv4) copy.getPayload()).setTtl((byte) 64);
+        copy.serialize();
+
+        RIPv2 unchanged = rip(original);
+        assertEquals(RIPv2.COMMAND_RESPONSE, unchanged.getCommand());
+        assertEquals(2, unchanged.getEntries().size());
+        assertEquals(1, unchanged.getEntries().get(0).getMetric());
+        assertEquals(0, unchanged.getEntries().get(1).getNextHopAddress());
+        assertSame(original.getPayload().getPayload(), unchanged.getParent());
+        assertArrayEquals(bytes, original.serialize());
+    }
+}